@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.config.EventConfig;
+import io.perfana.eventscheduler.api.config.EventSchedulerConfig;
+import io.perfana.eventscheduler.api.config.TestConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copy of the event scheduler config at the start of each session, as in {@link SchedulerSessionRunner}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConfigCopyBenchmark {
+
+    @Param({ "1", "10", "100" })
+    int eventCount;
+
+    private EventSchedulerConfig eventSchedulerConfig;
+
+    @Setup
+    public void setUp() {
+        List<EventConfig> eventConfigs = new ArrayList<>();
+        for (int i = 0; i < eventCount; i++) {
+            eventConfigs.add(EventConfig.builder().name("event-" + i).eventFactory("io.perfana.event.MyEventFactory").build());
+        }
+        eventSchedulerConfig = EventSchedulerConfig.builder()
+                .schedulerEnabled(true)
+                .testConfig(new TestConfig())
+                .eventConfigs(eventConfigs)
+                .scheduleScript("PT1S|restart|server=1\nPT2S|restart|server=2")
+                .build();
+    }
+
+    @Benchmark
+    public EventSchedulerConfig copyConfig() {
+        List<EventConfig> eventConfigs = new ArrayList<>(eventSchedulerConfig.getEventConfigs());
+        eventConfigs.add(EventConfig.builder().name(SchedulerSession.SPY_EVENT_NAME_PREFIX + "1").eventFactory(SchedulerSpyEventFactory.class.getName()).build());
+        return SchedulerSessionRunner.sessionConfig(eventSchedulerConfig, eventConfigs, SessionOptions.DEFAULT);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.EventLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the event logger bridge to the maven log, with several event threads logging at the same time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class EventLoggerBenchmark {
+
+    @Param({ "sync", "async" })
+    String logger;
+
+    private EventLogger eventLogger;
+
+    @Setup
+    public void setUp() {
+        EventLogger mavenEventLogger = new MavenEventLogger(new NullLog(), false);
+        eventLogger = "async".equals(logger)
+                ? new AsyncEventLogger(mavenEventLogger, SessionOptions.DEFAULT.getAsyncLogQueueSize(), LogOverflowPolicy.DROP_DEBUG)
+                : mavenEventLogger;
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (eventLogger instanceof AsyncEventLogger) {
+            ((AsyncEventLogger) eventLogger).close();
+        }
+    }
+
+    @Benchmark
+    public void info() {
+        eventLogger.info("keep alive of event");
+    }
+
+    @Benchmark
+    public void debugDisabled() {
+        eventLogger.debug("debug message of event");
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of the start test spy in each broadcast: the spy is the last event and signals the plugin on start test.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SpyBroadcastBenchmark {
+
+    @Param({ "false", "true" })
+    boolean parallelBroadcast;
+
+    private SchedulerSession session;
+    private EventSchedulerStartTestListener spy;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        SessionFeatures.SessionFeaturesBuilder features = SessionFeatures.builder();
+        if (parallelBroadcast) {
+            features.parallelBroadcast(new ParallelBroadcast(PluginExecutors.newThreadPerTaskExecutor("benchmark-broadcast-"), Collections.emptyList(), new NullLog()));
+        }
+        session = SchedulerSession.open(features.build());
+        spy = new EventSchedulerStartTestListener(null, null, null, new MavenEventLogger(new NullLog(), false), session);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        session.close();
+        session.getFeatures().shutdown();
+    }
+
+    @Benchmark
+    public void beforeTest() {
+        spy.beforeTest();
+    }
+
+    @Benchmark
+    public void startTest() {
+        spy.startTest();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.SchedulerExceptionType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How fast the wait loop returns after a kill or stop signal from another thread, e.g. an event or the kill switch.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WaitLoopReactionBenchmark {
+
+    @Param({ "KILL", "STOP" })
+    SchedulerExceptionType signal;
+
+    private final NullLog log = new NullLog();
+    private ExecutorService signaller;
+
+    @Setup
+    public void setUp() {
+        signaller = Executors.newSingleThreadExecutor(PluginExecutors.daemonThreadFactory("benchmark-signaller-"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        signaller.shutdownNow();
+    }
+
+    @Benchmark
+    public SchedulerWaitLoop.Outcome reactToSignal() {
+        SchedulerSession session = SchedulerSession.open(SessionFeatures.builder().build());
+        try {
+            session.startTest();
+            SchedulerWaitLoop waitLoop = new SchedulerWaitLoop(session.getSignal(), session::isStartWaiting, session::getSchedulerExceptionType, log);
+            signaller.execute(() -> session.schedulerException(signal));
+            return waitLoop.await(Duration.ofMinutes(1), 0);
+        } finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parameters shared by the goals that run event scheduler sessions.
+ */
+public abstract class AbstractEventSchedulerMojo extends AbstractMojo {
+
+    @Parameter
+    private volatile Long slackDurationSeconds = 0L;
+
+    /**
+     * Write event scheduler log messages from a separate thread, so events do not block on slow log output.
+     */
+    @Parameter
+    private volatile boolean asyncLogging = false;
+
+    /**
+     * Maximum number of log messages waiting to be written when asyncLogging is enabled.
+     */
+    @Parameter
+    private volatile int asyncLogQueueSize = 4096;
+
+    /**
+     * What to do when the asyncLogging queue is full: BLOCK, DROP_DEBUG or DROP_OLDEST.
+     */
+    @Parameter
+    private volatile LogOverflowPolicy asyncLogOverflowPolicy = LogOverflowPolicy.DROP_DEBUG;
+
+    /**
+     * Record the duration of each callback of each event, and report the latencies at the end of the session.
+     */
+    @Parameter
+    private volatile boolean eventLatencyReport = false;
+
+    /**
+     * Record planned versus actual fire time of scheduled custom events, relative to start test, and report the drift.
+     */
+    @Parameter
+    private volatile boolean scheduleDriftReport = false;
+
+    /**
+     * Let the plugin fire the custom events of the scheduleScript, within a few milliseconds of the planned time,
+     * with a separate delivery thread per event so slow events do not delay others.
+     */
+    @Parameter
+    private volatile boolean preciseDispatch = false;
+
+    /**
+     * File with custom events, one per line as in a scheduleScript and in order of fire time, fired by the plugin.
+     * The file is read while the test runs, for schedules that are too large for the pom.
+     */
+    @Parameter(property = "scheduleFile")
+    private volatile File scheduleFile;
+
+    /**
+     * Number of worker threads that deliver the custom events of the scheduleFile to the events.
+     */
+    @Parameter
+    private volatile int scheduleFileWorkers = 4;
+
+    /**
+     * Run beforeTest, startTest, afterTest and abortTest of all events concurrently, on virtual threads when available.
+     * The broadcast waits for all events before it continues.
+     */
+    @Parameter
+    private volatile boolean parallelBroadcast = false;
+
+    /**
+     * Names of events that keep running in config order when parallelBroadcast is enabled: such an event
+     * starts after all events before it are done, and events after it start when it is done.
+     */
+    @Parameter
+    private volatile List<String> sequentialEvents = new ArrayList<>();
+
+    /**
+     * Simulate the session on a virtual clock that runs this many times faster than real time, e.g. 3600 to
+     * rehearse an hour in a second. The plugin fires the keep-alives and the scheduleScript custom events
+     * to the events in order, with simulated timestamps. 0 means no simulation.
+     */
+    @Parameter
+    private volatile double simulationSpeedUp = 0;
+
+    /**
+     * Simulate the session on a virtual clock that jumps straight to each next keep-alive or custom event.
+     */
+    @Parameter
+    private volatile boolean simulationJump = false;
+
+    /**
+     * Write the startup timeline of the session as json to the build directory, e.g. target/event-scheduler/startup-timeline.json.
+     * The timeline is always logged.
+     */
+    @Parameter
+    private volatile boolean startupTimelineReport = false;
+
+    /**
+     * Names of events to construct on beforeTest instead of when the scheduler is built. Construction and
+     * beforeTest of these events run on a separate thread, off the critical path to startTest.
+     * Use for events that do no work in beforeTest that other events depend on.
+     */
+    @Parameter
+    private volatile List<String> lazyEvents = new ArrayList<>();
+
+    /**
+     * Run abortTest of all events concurrently, also when parallelBroadcast is disabled,
+     * so an abort on Ctrl-C or a CI cancel finishes before the process is killed.
+     */
+    @Parameter
+    private volatile boolean parallelAbort = false;
+
+    /**
+     * Time budget in seconds for the abort of a running session on JVM shutdown, e.g. Ctrl-C.
+     * After the budget the JVM continues to shut down and events that did not finish aborting are reported. 0 means no limit.
+     */
+    @Parameter
+    private volatile long shutdownAbortTimeoutSeconds = SessionOptions.DEFAULT.getShutdownAbortTimeoutSeconds();
+
+    /**
+     * Hard deadline in seconds for the whole session, including stop, abort and checks. When reached,
+     * the session is aborted and abandoned after a short grace period, and the build fails. 0 means no deadline.
+     */
+    @Parameter
+    private volatile long ultimateTimeoutSeconds = 0L;
+
+    /**
+     * Deadline in seconds for each callback of each event. An event that overruns is interrupted,
+     * abandoned and reported, and the other events continue. 0 means no deadline.
+     */
+    @Parameter
+    private volatile long eventCallbackTimeoutSeconds = 0L;
+
+    /**
+     * Deadline in seconds for each callback per event name, overrides eventCallbackTimeoutSeconds.
+     */
+    @Parameter
+    private volatile Map<String, Long> eventCallbackTimeouts = new HashMap<>();
+
+    /**
+     * What to do with a keep-alive tick while the previous keep-alive of an event is still running:
+     * NONE, REPORT overruns of the keep-alive interval, SKIP the tick or COALESCE ticks into one keep-alive afterwards.
+     */
+    @Parameter
+    private volatile KeepAliveOverrunPolicy keepAliveOverrunPolicy = KeepAliveOverrunPolicy.NONE;
+
+    /**
+     * Write a journal of all event callbacks, custom events, kill, abort and stop signals and check results,
+     * with monotonic and wall clock timestamps, to target/event-scheduler/event-journal.tsv.
+     * Summarise or compare journals with the journal goal.
+     */
+    @Parameter
+    private volatile boolean eventJournal = false;
+
+    /**
+     * Call check of the events at this interval while the test runs. When a check has status FAILURE,
+     * the session ends early according to incrementalCheckFailureAction. 0 means no incremental checks.
+     */
+    @Parameter
+    private volatile long incrementalCheckIntervalSeconds = 0L;
+
+    /**
+     * Names of the events to check incrementally, by default all events. Leave out events
+     * that can only check at the end of the test.
+     */
+    @Parameter
+    private volatile List<String> incrementalCheckEvents = new ArrayList<>();
+
+    /**
+     * What to do when an incremental check fails: STOP or ABORT the session.
+     */
+    @Parameter
+    private volatile IncrementalCheckFailureAction incrementalCheckFailureAction = IncrementalCheckFailureAction.ABORT;
+
+    /**
+     * Record the test window, from start test until stop or abort, with Java Flight Recorder
+     * to target/event-scheduler/flight-recording.jfr.
+     */
+    @Parameter(property = "flightRecording")
+    private volatile boolean flightRecording = false;
+
+    /**
+     * Settings of the flight recording: the name of a JDK configuration, default or profile, or the path to a .jfc file.
+     */
+    @Parameter(property = "flightRecordingSettings")
+    private volatile String flightRecordingSettings = "profile";
+
+    /**
+     * Report the cpu time and allocated bytes of the keep-alive, custom event, logger and other plugin threads
+     * in the test window, logged and written to target/event-scheduler/plugin-overhead.json.
+     */
+    @Parameter
+    private volatile boolean pluginOverheadReport = false;
+
+    /**
+     * Number of processes, e.g. load injectors that each run the test goal, that start the test at the same instant.
+     * Each process waits after beforeTest until all have arrived. Kill, abort and stop are broadcast to all processes.
+     * 0 means no start barrier.
+     */
+    @Parameter(property = "startBarrierParties")
+    private volatile int startBarrierParties = 0;
+
+    /**
+     * This process coordinates the start barrier: exactly one of the processes should be the coordinator.
+     */
+    @Parameter(property = "startBarrierCoordinator")
+    private volatile boolean startBarrierCoordinator = false;
+
+    /**
+     * Host and port of the start barrier coordinator, e.g. injector-1:9876. The coordinator listens on this address.
+     */
+    @Parameter(property = "startBarrierAddress")
+    private volatile String startBarrierAddress;
+
+    /**
+     * Run token shared by all processes of a start barrier over TCP, e.g. the test run id of the CI job.
+     * The coordinator drops connections without this token.
+     */
+    @Parameter(property = "startBarrierToken")
+    private volatile String startBarrierToken;
+
+    /**
+     * Directory shared by all processes of the start barrier, instead of startBarrierAddress.
+     */
+    @Parameter(property = "startBarrierDirectory")
+    private volatile File startBarrierDirectory;
+
+    /**
+     * Maximum time to wait for all processes at the start barrier, after which the session is aborted.
+     */
+    @Parameter(property = "startBarrierTimeoutSeconds")
+    private volatile long startBarrierTimeoutSeconds = 300L;
+
+    /**
+     * Serve live metrics of the running sessions in the Prometheus text format on http://localhost:&lt;port&gt;/metrics,
+     * e.g. session state, remaining wait time and per event callback counts and durations.
+     * 0 picks a free port, which is logged. No endpoint when not set.
+     */
+    @Parameter
+    private volatile Integer metricsPort;
+
+    @Parameter(defaultValue = "${project.build.directory}", readonly = true)
+    private File buildDirectory;
+
+    SessionOptions sessionOptions() {
+        return SessionOptions.builder()
+                .slackDurationSeconds(slackDurationSeconds == null ? 0L : slackDurationSeconds)
+                .asyncLogging(asyncLogging)
+                .asyncLogQueueSize(asyncLogQueueSize)
+                .asyncLogOverflowPolicy(asyncLogOverflowPolicy == null ? LogOverflowPolicy.DROP_DEBUG : asyncLogOverflowPolicy)
+                .reportDirectory(buildDirectory == null ? null : new File(buildDirectory, "event-scheduler"))
+                .eventLatencyReport(eventLatencyReport)
+                .scheduleDriftReport(scheduleDriftReport)
+                .preciseDispatch(preciseDispatch)
+                .scheduleFile(scheduleFile)
+                .scheduleFileWorkers(scheduleFileWorkers)
+                .parallelBroadcast(parallelBroadcast)
+                .sequentialEvents(sequentialEvents == null ? new ArrayList<>() : new ArrayList<>(sequentialEvents))
+                .simulationSpeedUp(simulationSpeedUp)
+                .simulationJump(simulationJump)
+                .startupTimelineReport(startupTimelineReport)
+                .lazyEvents(lazyEvents == null ? new ArrayList<>() : new ArrayList<>(lazyEvents))
+                .parallelAbort(parallelAbort)
+                .shutdownAbortTimeoutSeconds(shutdownAbortTimeoutSeconds)
+                .ultimateTimeoutSeconds(ultimateTimeoutSeconds)
+                .eventCallbackTimeoutSeconds(eventCallbackTimeoutSeconds)
+                .eventCallbackTimeouts(eventCallbackTimeouts == null ? new HashMap<>() : new HashMap<>(eventCallbackTimeouts))
+                .keepAliveOverrunPolicy(keepAliveOverrunPolicy == null ? KeepAliveOverrunPolicy.NONE : keepAliveOverrunPolicy)
+                .eventJournal(eventJournal)
+                .incrementalCheckIntervalSeconds(incrementalCheckIntervalSeconds)
+                .incrementalCheckEvents(incrementalCheckEvents == null ? new ArrayList<>() : new ArrayList<>(incrementalCheckEvents))
+                .incrementalCheckFailureAction(incrementalCheckFailureAction == null ? IncrementalCheckFailureAction.ABORT : incrementalCheckFailureAction)
+                .flightRecording(flightRecording)
+                .flightRecordingSettings(flightRecordingSettings == null ? "profile" : flightRecordingSettings)
+                .pluginOverheadReport(pluginOverheadReport)
+                .startBarrierParties(startBarrierParties)
+                .startBarrierCoordinator(startBarrierCoordinator)
+                .startBarrierAddress(startBarrierAddress)
+                .startBarrierToken(startBarrierToken)
+                .startBarrierDirectory(startBarrierDirectory)
+                .startBarrierTimeoutSeconds(startBarrierTimeoutSeconds)
+                .metrics(metricsPort != null)
+                .build();
+    }
+
+    /**
+     * @return the started metrics endpoint, or null when metricsPort is not set
+     */
+    MetricsEndpoint startMetricsEndpoint() {
+        return metricsPort == null ? null : MetricsEndpoint.start(metricsPort, getLog());
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.EventLogger;
+import net.jcip.annotations.GuardedBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Event logger that puts messages on a bounded queue, so event, keep-alive and custom event threads
+ * do not block on slow console output. One writer thread drains the queue in batches and writes
+ * to the target logger. What happens when the queue is full is determined by the {@link LogOverflowPolicy}.
+ * <p>
+ * Call {@link #close()} at the end of the session to write all remaining messages.
+ * <p>
+ * Messages are put on the queue under the read lock of {@link #closeLock}. Close takes the write lock,
+ * so no message is put on the queue after the end of queue marker, and the writer thread writes all
+ * messages before it. Writes to the target logger never interleave, see {@link #write(LogMessage)}.
+ * <p>
+ * A logging thread keeps the read lock while it waits for room on a full queue. When close cannot
+ * take the write lock in time, e.g. because the writer thread is stuck, it stops the writer thread
+ * and from then on messages are written on the logging threads, see {@link #closeWithoutLock()}.
+ */
+class AsyncEventLogger implements EventLogger, AutoCloseable {
+
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    private enum Level { DEBUG, INFO, WARN, ERROR }
+
+    // put on the queue by close, the writer thread stops when it takes it
+    private static final LogMessage END_OF_QUEUE = new LogMessage(Level.DEBUG, null, null);
+
+    private static final class LogMessage {
+        private final Level level;
+        private final String message;
+        private final Throwable throwable;
+
+        private LogMessage(Level level, String message, Throwable throwable) {
+            this.level = level;
+            this.message = message;
+            this.throwable = throwable;
+        }
+    }
+
+    private final EventLogger target;
+    private final LogOverflowPolicy overflowPolicy;
+    private final BlockingQueue<LogMessage> queue;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Thread writer;
+
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    // writes to the target logger, from the writer thread or after close from the logging thread
+    private final Object targetLock = new Object();
+
+    @GuardedBy("closeLock")
+    private boolean closed = false;
+
+    // set when close could not take the write lock in time: messages are written on the logging thread
+    private volatile boolean closedWithoutLock = false;
+
+    private final long closeTimeoutMillis;
+
+    AsyncEventLogger(EventLogger target, int queueSize, LogOverflowPolicy overflowPolicy) {
+        this(target, queueSize, overflowPolicy, CLOSE_TIMEOUT_MILLIS);
+    }
+
+    AsyncEventLogger(EventLogger target, int queueSize, LogOverflowPolicy overflowPolicy, long closeTimeoutMillis) {
+        this.target = target;
+        this.overflowPolicy = overflowPolicy;
+        this.closeTimeoutMillis = closeTimeoutMillis;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.writer = new Thread(this::writeLoop, "Event-Logger-Thread");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void info(String message) {
+        enqueue(new LogMessage(Level.INFO, message, null));
+    }
+
+    @Override
+    public void warn(String message) {
+        enqueue(new LogMessage(Level.WARN, message, null));
+    }
+
+    @Override
+    public void error(String message) {
+        enqueue(new LogMessage(Level.ERROR, message, null));
+    }
+
+    @Override
+    public void error(String message, Throwable throwable) {
+        enqueue(new LogMessage(Level.ERROR, message, throwable));
+    }
+
+    @Override
+    public void debug(String message) {
+        if (isDebugEnabled()) enqueue(new LogMessage(Level.DEBUG, message, null));
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return target.isDebugEnabled();
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    private void enqueue(LogMessage logMessage) {
+        if (!closedWithoutLock) {
+            closeLock.readLock().lock();
+            try {
+                if (!closed) {
+                    enqueueOpen(logMessage);
+                    // put on the queue after close without lock drained it: take it back and write it here
+                    if (closedWithoutLock && queue.remove(logMessage)) {
+                        write(logMessage);
+                    }
+                    return;
+                }
+            } finally {
+                closeLock.readLock().unlock();
+            }
+        }
+        write(logMessage);
+    }
+
+    @GuardedBy("closeLock")
+    private void enqueueOpen(LogMessage logMessage) {
+        if (queue.offer(logMessage)) {
+            return;
+        }
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                while (!queue.offer(logMessage)) {
+                    if (queue.poll() != null) {
+                        droppedCount.incrementAndGet();
+                    }
+                }
+                break;
+            case DROP_DEBUG:
+                if (logMessage.level == Level.DEBUG) {
+                    droppedCount.incrementAndGet();
+                    break;
+                }
+                put(logMessage);
+                break;
+            default:
+                put(logMessage);
+        }
+    }
+
+    private void put(LogMessage logMessage) {
+        try {
+            queue.put(logMessage);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    private void writeLoop() {
+        List<LogMessage> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                for (LogMessage logMessage : batch) {
+                    if (logMessage == END_OF_QUEUE) {
+                        return;
+                    }
+                    write(logMessage);
+                }
+            } catch (InterruptedException e) {
+                // close() takes care of messages left in the queue
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Write one message to the target logger, one message at a time.
+     */
+    private void write(LogMessage logMessage) {
+        synchronized (targetLock) {
+            writeToTarget(logMessage);
+        }
+    }
+
+    @GuardedBy("targetLock")
+    private void writeToTarget(LogMessage logMessage) {
+        try {
+            switch (logMessage.level) {
+                case DEBUG:
+                    target.debug(logMessage.message);
+                    break;
+                case INFO:
+                    target.info(logMessage.message);
+                    break;
+                case WARN:
+                    target.warn(logMessage.message);
+                    break;
+                default:
+                    if (logMessage.throwable == null) {
+                        target.error(logMessage.message);
+                    } else {
+                        target.error(logMessage.message, logMessage.throwable);
+                    }
+            }
+        } catch (RuntimeException e) {
+            // a failing log write should not stop the writer thread
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stop accepting messages on the queue and wait until the writer thread has written all queued messages.
+     * Messages logged after close are written directly on the calling thread. Close waits at most the close
+     * timeout for logging threads that wait for room on the queue, then continues without the lock.
+     */
+    @Override
+    public void close() {
+        if (closedWithoutLock) {
+            return;
+        }
+        boolean locked;
+        try {
+            locked = closeLock.writeLock().tryLock(closeTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            locked = false;
+        }
+        if (!locked) {
+            closeWithoutLock();
+            return;
+        }
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // the writer thread is still running, so there is room on the queue soon, unless it is stuck
+            if (!queue.offer(END_OF_QUEUE, closeTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                writer.interrupt();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writer.interrupt();
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        boolean stopped = join(closeTimeoutMillis);
+        if (!stopped) {
+            writer.interrupt();
+            stopped = join(closeTimeoutMillis);
+        }
+        drainAfterWriter(stopped);
+    }
+
+    /**
+     * Logging threads hold the read lock while they wait for room on the queue, that the writer thread
+     * does not make: stop the writer thread and write the queued messages on the closing thread.
+     * Logging threads that get room on the queue take their message back and write it themselves.
+     */
+    private void closeWithoutLock() {
+        if (closedWithoutLock) {
+            return;
+        }
+        closedWithoutLock = true;
+        writer.interrupt();
+        boolean stopped = join(closeTimeoutMillis);
+        drainAfterWriter(stopped);
+        if (stopped) {
+            // else the stuck writer thread holds the target logger, the dropped messages are in the dropped count
+            write(new LogMessage(Level.WARN, "Async event logger: close timed out after " + closeTimeoutMillis
+                    + " ms waiting for logging threads, messages are written directly from now on ("
+                    + droppedCount.get() + " messages dropped).", null));
+        }
+    }
+
+    private void drainAfterWriter(boolean stopped) {
+        if (!stopped) {
+            // the writer thread is stuck in the target logger: do not write next to it
+            droppedCount.addAndGet(queue.size());
+            queue.clear();
+            return;
+        }
+        // write whatever the writer thread did not get to, when it was interrupted
+        LogMessage logMessage;
+        while ((logMessage = queue.poll()) != null) {
+            if (logMessage != END_OF_QUEUE) {
+                write(logMessage);
+            }
+        }
+    }
+
+    /**
+     * @return true when the writer thread has stopped
+     */
+    private boolean join(long timeoutMillis) {
+        try {
+            writer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !writer.isAlive();
+    }
+}
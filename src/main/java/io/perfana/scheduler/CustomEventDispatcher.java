@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.Event;
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fires scheduled custom events at their planned offset from start test, with millisecond precision.
+ * <p>
+ * One dispatcher thread parks until just before the fire time and spins the last part. Each event
+ * gets its own delivery thread, so a slow event does not delay the delivery to other events, nor
+ * the next custom event in the schedule.
+ */
+class CustomEventDispatcher {
+
+    // park until this close to the fire time, then spin
+    private static final long SPIN_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private final List<CustomEvent> schedule;
+    private final List<? extends Event> events;
+    private final Log log;
+
+    private final Map<String, ExecutorService> eventExecutors = new LinkedHashMap<>();
+
+    private Thread dispatcherThread;
+
+    CustomEventDispatcher(List<CustomEvent> schedule, List<? extends Event> events, Log log) {
+        this.schedule = new ArrayList<>(schedule);
+        this.events = new ArrayList<>(events);
+        this.log = log;
+    }
+
+    /**
+     * Start firing the schedule, relative to the given start test moment.
+     */
+    synchronized void start(long startTestNanos) {
+        if (dispatcherThread != null) {
+            return;
+        }
+        for (Event event : events) {
+            ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "Custom-Event-Dispatch-Thread-" + event.getName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            // start the thread now, not at the first fire time
+            executor.execute(() -> {});
+            eventExecutors.put(event.getName(), executor);
+        }
+        dispatcherThread = new Thread(() -> dispatch(startTestNanos), "Custom-Event-Dispatcher-Thread");
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
+    }
+
+    private void dispatch(long startTestNanos) {
+        for (CustomEvent customEvent : schedule) {
+            if (!waitUntil(startTestNanos + customEvent.getDuration().toNanos())) {
+                return;
+            }
+            for (Event event : events) {
+                ExecutorService executor = eventExecutors.get(event.getName());
+                try {
+                    executor.execute(() -> deliver(event, customEvent));
+                } catch (RuntimeException e) {
+                    // executor is shut down: dispatcher is stopped
+                    return;
+                }
+            }
+        }
+        log.debug(">>> All " + schedule.size() + " scheduled custom events are dispatched.");
+    }
+
+    private void deliver(Event event, CustomEvent customEvent) {
+        try {
+            event.customEvent(customEvent);
+        } catch (Exception e) {
+            log.error("Custom event " + customEvent.getName() + " failed for event " + event.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return false when interrupted
+     */
+    private static boolean waitUntil(long deadlineNanos) {
+        long remainingNanos;
+        while ((remainingNanos = deadlineNanos - System.nanoTime()) > SPIN_NANOS) {
+            LockSupport.parkNanos(remainingNanos - SPIN_NANOS);
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+        }
+        while (System.nanoTime() - deadlineNanos < 0) {
+            Thread.onSpinWait();
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+
+    synchronized void stop() {
+        if (dispatcherThread != null) {
+            dispatcherThread.interrupt();
+        }
+        eventExecutors.values().forEach(ExecutorService::shutdownNow);
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.SchedulerExceptionType;
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+import net.jcip.annotations.GuardedBy;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * {@link StartBarrier} over a directory that all processes can reach, e.g. a shared file system or,
+ * for processes on one machine, a local directory. Files are written to a temporary name and then
+ * moved, so a process never sees a half written file:
+ * <ul>
+ *     <li>{@code open}: written by the coordinator, contains the token of this run and a heartbeat in epoch millis</li>
+ *     <li>{@code arrived-<token>-<id>}: a participant arrived</li>
+ *     <li>{@code start-<token>}: written by the coordinator, contains the start instant in epoch millis</li>
+ *     <li>{@code signal-<token>-<type>-<id>}: a kill, abort or stop signal</li>
+ * </ul>
+ * The coordinator removes the barrier files of earlier runs when it opens the barrier, other files in
+ * the directory are left alone. Participants that
+ * start before the coordinator wait for the open file. The coordinator refreshes the heartbeat while
+ * it runs, so participants ignore an open file left behind by a crashed coordinator, and a participant
+ * that arrived under the token of an earlier coordinator follows the token of a new one.
+ */
+class DirectoryStartBarrier extends StartBarrier {
+
+    private static final String OPEN = "open";
+    private static final String ARRIVED = "arrived-";
+    private static final String START = "start-";
+    private static final String SIGNAL = "signal-";
+
+    private static final long POLL_MILLIS = 50;
+
+    private static final long SIGNAL_POLL_MILLIS = 100;
+
+    private static final long HEARTBEAT_MILLIS = 1000;
+
+    // an open file without a heartbeat for this long is left behind by a crashed coordinator
+    private static final long STALE_OPEN_MILLIS = 10_000;
+
+    private final boolean coordinator;
+    private final Path directory;
+    private final String fileId;
+
+    // token of the run, null for a participant until it found the open file
+    private volatile String token;
+
+    private final Object openLock = new Object();
+
+    // the coordinator does not write the open file once closed
+    @GuardedBy("openLock")
+    private boolean closed;
+
+    private volatile boolean stopped;
+
+    private boolean signalWatcherStarted;
+
+    private DirectoryStartBarrier(boolean coordinator, File directory, String participantId, int parties, long timeoutMillis, Log log) {
+        super(participantId, parties, timeoutMillis, log);
+        this.coordinator = coordinator;
+        this.directory = directory.toPath();
+        this.fileId = participantId.replaceAll("[^A-Za-z0-9._]", "_");
+    }
+
+    /**
+     * Remove the files of earlier runs and open the barrier in the directory.
+     */
+    static DirectoryStartBarrier coordinator(File directory, String participantId, int parties, long timeoutMillis, Log log) {
+        DirectoryStartBarrier barrier = new DirectoryStartBarrier(true, directory, participantId, parties, timeoutMillis, log);
+        String token = UUID.randomUUID().toString();
+        try {
+            Files.createDirectories(barrier.directory);
+            barrier.removeEarlierRuns();
+            barrier.writeOpen(token);
+        } catch (IOException e) {
+            throw new EventSchedulerRuntimeException("Cannot open start barrier in " + directory + ": " + e.getMessage());
+        }
+        barrier.token = token;
+        barrier.startSignalWatcher();
+        log.info("Start barrier coordinator opened in " + directory + " for " + (parties - 1) + " participants.");
+        return barrier;
+    }
+
+    static DirectoryStartBarrier participant(File directory, String participantId, int parties, long timeoutMillis, Log log) {
+        return new DirectoryStartBarrier(false, directory, participantId, parties, timeoutMillis, log);
+    }
+
+    @Override
+    long arrive(long deadlineNanos) {
+        try {
+            if (coordinator) {
+                return coordinate(deadlineNanos);
+            }
+            String runToken = null;
+            while (true) {
+                String openToken = readOpenToken();
+                if (openToken != null && !openToken.equals(runToken)) {
+                    if (runToken != null) {
+                        log.warn("Start barrier: the barrier in " + directory + " was opened again by a new coordinator, arrive for the new run.");
+                    }
+                    runToken = openToken;
+                    token = runToken;
+                    write(ARRIVED + runToken + "-" + fileId, getParticipantId());
+                    if (!signalWatcherStarted) {
+                        signalWatcherStarted = true;
+                        startSignalWatcher();
+                    }
+                }
+                if (runToken != null) {
+                    String start = read(START + runToken);
+                    if (start != null) {
+                        return Long.parseLong(start.trim());
+                    }
+                }
+                checkWaiting(deadlineNanos, runToken == null
+                        ? "the coordinator to open the barrier in " + directory
+                        : "the coordinator to release the barrier in " + directory);
+                sleep(POLL_MILLIS);
+            }
+        } catch (IOException e) {
+            throw new EventSchedulerRuntimeException("Start barrier failed in " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private long coordinate(long deadlineNanos) throws IOException {
+        int arrived = 0;
+        while (true) {
+            int count = list(ARRIVED + token + "-").size();
+            if (count != arrived) {
+                arrived = count;
+                log.info("Start barrier: " + arrived + " of " + (getParties() - 1) + " participants arrived.");
+            }
+            if (arrived + 1 >= getParties()) {
+                break;
+            }
+            checkWaiting(deadlineNanos, "participants, " + arrived + " of " + (getParties() - 1) + " arrived");
+            sleep(POLL_MILLIS);
+        }
+        long startMillis = System.currentTimeMillis() + START_LEAD_MILLIS;
+        write(START + token, String.valueOf(startMillis));
+        log.info("Start barrier: all " + getParties() + " parties arrived, release.");
+        return startMillis;
+    }
+
+    @Override
+    void send(SchedulerExceptionType type) {
+        String runToken = token;
+        if (runToken == null) {
+            return;
+        }
+        try {
+            write(SIGNAL + runToken + "-" + type.name() + "-" + fileId, type.name());
+        } catch (IOException e) {
+            log.warn("Start barrier: failed to send " + type + ": " + e.getMessage());
+        }
+    }
+
+    private void startSignalWatcher() {
+        Thread watcher = new Thread(this::watchSignals, "Event-Scheduler-Barrier-Thread");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watchSignals() {
+        String ownSuffix = "-" + fileId;
+        long heartbeatMillis = System.currentTimeMillis();
+        while (!stopped) {
+            // a participant follows the token of a new coordinator
+            String prefix = SIGNAL + token + "-";
+            try {
+                if (coordinator && System.currentTimeMillis() - heartbeatMillis >= HEARTBEAT_MILLIS) {
+                    heartbeatMillis = System.currentTimeMillis();
+                    writeOpen(token);
+                }
+                for (Path path : list(prefix)) {
+                    String name = path.getFileName().toString();
+                    if (name.endsWith(ownSuffix)) {
+                        continue;
+                    }
+                    String rest = name.substring(prefix.length());
+                    int dash = rest.indexOf('-');
+                    try {
+                        received(SchedulerExceptionType.valueOf(dash < 0 ? rest : rest.substring(0, dash)));
+                    } catch (IllegalArgumentException e) {
+                        log.debug(">>> Start barrier: ignore unknown signal file " + name);
+                    }
+                }
+            } catch (IOException e) {
+                log.debug(">>> Start barrier: cannot list signals in " + directory + ": " + e.getMessage());
+            }
+            sleep(SIGNAL_POLL_MILLIS);
+        }
+    }
+
+    /**
+     * Remove the barrier files of earlier runs, including temporary files left behind, and leave
+     * any other files in the directory alone.
+     */
+    private void removeEarlierRuns() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                if (isBarrierFile(path.getFileName().toString())) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private static boolean isBarrierFile(String name) {
+        if (name.startsWith(".")) {
+            // temporary file: .<name>.<uuid>
+            int dot = name.lastIndexOf('.');
+            if (dot <= 0) {
+                return false;
+            }
+            name = name.substring(1, dot);
+        }
+        return name.equals(OPEN) || name.startsWith(ARRIVED) || name.startsWith(START) || name.startsWith(SIGNAL);
+    }
+
+    private List<Path> list(String prefix) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path path : stream) {
+                if (!path.getFileName().toString().startsWith(".")) {
+                    paths.add(path);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // directory not created yet
+        }
+        return paths;
+    }
+
+    private void writeOpen(String runToken) throws IOException {
+        synchronized (openLock) {
+            if (!closed) {
+                write(OPEN, runToken + "\n" + System.currentTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * @return token of the open file, or null if there is none or its coordinator stopped its heartbeat
+     */
+    private String readOpenToken() throws IOException {
+        String open = read(OPEN);
+        if (open == null) {
+            return null;
+        }
+        String[] lines = open.trim().split("\n");
+        long heartbeatMillis;
+        try {
+            heartbeatMillis = lines.length < 2 ? 0 : Long.parseLong(lines[1].trim());
+        } catch (NumberFormatException e) {
+            heartbeatMillis = 0;
+        }
+        if (System.currentTimeMillis() - heartbeatMillis > STALE_OPEN_MILLIS) {
+            log.debug(">>> Start barrier: ignore stale open file in " + directory);
+            return null;
+        }
+        return lines[0].trim();
+    }
+
+    /**
+     * @return content of the file, or null if it does not exist
+     */
+    private String read(String name) throws IOException {
+        try {
+            return new String(Files.readAllBytes(directory.resolve(name)), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private void write(String name, String content) throws IOException {
+        Files.createDirectories(directory);
+        // hidden temporary file, not seen by list
+        Path temporary = directory.resolve("." + name + "." + UUID.randomUUID());
+        Files.write(temporary, content.getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(temporary, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The coordinator closes the barrier, so participants of a next run wait for a new coordinator.
+     */
+    @Override
+    public void close() {
+        stopped = true;
+        if (coordinator) {
+            synchronized (openLock) {
+                closed = true;
+                try {
+                    Files.deleteIfExists(directory.resolve(OPEN));
+                } catch (IOException e) {
+                    log.warn("Start barrier: failed to close " + directory + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+}
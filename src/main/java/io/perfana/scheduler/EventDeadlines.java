@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs event callbacks with a deadline. A callback that overruns its deadline is interrupted
+ * and abandoned, so the remaining events continue. Overruns are reported by event name.
+ */
+class EventDeadlines {
+
+    private final ExecutorService executor;
+    private final long defaultTimeoutMillis;
+    private final Map<String, Long> timeoutMillisPerEvent;
+    private final Log log;
+
+    private final List<String> overruns = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * @param defaultTimeoutMillis deadline for events without their own timeout, 0 for no deadline
+     * @param timeoutMillisPerEvent deadline per event name, 0 for no deadline
+     */
+    EventDeadlines(ExecutorService executor, long defaultTimeoutMillis, Map<String, Long> timeoutMillisPerEvent, Log log) {
+        this.executor = executor;
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+        this.timeoutMillisPerEvent = new HashMap<>(timeoutMillisPerEvent);
+        this.log = log;
+    }
+
+    /**
+     * @return the deadline for each callback of the event in milliseconds, 0 for no deadline
+     */
+    long timeoutMillisFor(String eventName) {
+        return timeoutMillisPerEvent.getOrDefault(eventName, defaultTimeoutMillis);
+    }
+
+    /**
+     * Call the callback on a separate thread and wait at most timeoutMillis for the result.
+     *
+     * @return the result of the callback, or onTimeout when the deadline is overrun
+     */
+    <T> T call(String eventName, EventPhase phase, long timeoutMillis, Callable<T> callback, T onTimeout) {
+        Future<T> future = executor.submit(callback);
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            String overrun = eventName + "." + phase.getCallbackName() + " (deadline " + timeoutMillis + " ms)";
+            overruns.add(overrun);
+            log.warn("Event " + eventName + " overran the deadline of " + timeoutMillis + " ms for " + phase.getCallbackName() + ": interrupted and abandoned, continue with other events.");
+            return onTimeout;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return onTimeout;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Event " + eventName + " failed in " + phase.getCallbackName(), cause);
+        }
+    }
+
+    void run(String eventName, EventPhase phase, long timeoutMillis, Runnable callback) {
+        call(eventName, phase, timeoutMillis, () -> {
+            callback.run();
+            return null;
+        }, null);
+    }
+
+    List<String> getOverruns() {
+        synchronized (overruns) {
+            return new ArrayList<>(overruns);
+        }
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
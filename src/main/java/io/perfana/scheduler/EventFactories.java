@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.EventFactory;
+import io.perfana.eventscheduler.api.config.EventContext;
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Creates event factories from their class name, as configured in the eventFactory of an event config.
+ * <p>
+ * Resolved factory classes are cached per class loader, so repeated executions in a warm JVM
+ * (e.g. mvnd) skip the class loader lookups. The cache holds class loaders and classes weakly:
+ * when maven drops a project class loader, its entries are dropped as well.
+ */
+final class EventFactories {
+
+    private static final Map<ClassLoader, ConcurrentMap<String, WeakReference<Class<?>>>> FACTORY_CLASSES = new WeakHashMap<>();
+
+    private EventFactories() {}
+
+    @SuppressWarnings("unchecked")
+    static EventFactory<EventContext> load(String factoryClassName) {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) {
+            classLoader = EventFactories.class.getClassLoader();
+        }
+        try {
+            Class<?> factoryClass = factoryClass(classLoader, factoryClassName);
+            return (EventFactory<EventContext>) factoryClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException | LinkageError e) {
+            throw new EventSchedulerRuntimeException("Cannot create event factory " + factoryClassName + ": " + e);
+        }
+    }
+
+    private static Class<?> factoryClass(ClassLoader classLoader, String factoryClassName) throws ClassNotFoundException {
+        ConcurrentMap<String, WeakReference<Class<?>>> classes;
+        synchronized (FACTORY_CLASSES) {
+            classes = FACTORY_CLASSES.computeIfAbsent(classLoader, cl -> new ConcurrentHashMap<>());
+        }
+        WeakReference<Class<?>> cached = classes.get(factoryClassName);
+        Class<?> factoryClass = cached == null ? null : cached.get();
+        if (factoryClass == null) {
+            factoryClass = Class.forName(factoryClassName, true, classLoader);
+            classes.put(factoryClassName, new WeakReference<>(factoryClass));
+        }
+        return factoryClass;
+    }
+
+    /**
+     * @return number of cached factory classes, over all class loaders
+     */
+    static int cachedClassCount() {
+        synchronized (FACTORY_CLASSES) {
+            return FACTORY_CLASSES.values().stream().mapToInt(Map::size).sum();
+        }
+    }
+
+    /**
+     * @return number of class loaders with cached factory classes
+     */
+    static int cachedClassLoaderCount() {
+        synchronized (FACTORY_CLASSES) {
+            return FACTORY_CLASSES.size();
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import net.jcip.annotations.GuardedBy;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Append-only journal of a session: lifecycle callbacks, custom events, kill, abort and stop signals
+ * and check results, each with a monotonic and a wall clock timestamp. One line per entry, tab separated.
+ * <p>
+ * Recording an entry only takes the timestamps and puts the entry on a bounded queue. One writer
+ * thread drains the queue in batches and writes them to a file channel, so event threads never
+ * wait for disk. When the queue is full the entry is dropped and counted.
+ * <p>
+ * Entries are put on the queue under the read lock of {@link #closeLock}. Close takes the write lock and
+ * puts an end of queue marker, so every entry recorded before close is written. An entry recorded after
+ * close is dropped, counted and logged, so it is not silently lost.
+ * <p>
+ * Read a journal with {@link EventJournalReader}.
+ */
+class EventJournal implements AutoCloseable {
+
+    static final String HEADER = "# event-scheduler journal 1";
+
+    static final String COLUMNS = "# monoNanos\twallMillis\ttype\tevent\tdetail\tdurationNanos";
+
+    // type of entries that are not a callback of an event
+    static final String SESSION = "session";
+    static final String SIGNAL = "signal";
+
+    static final String NONE = "-";
+
+    // session entry that times are relative to when reading a journal
+    static final String TEST_STARTED = "test started";
+
+    private static final int QUEUE_SIZE = 16 * 1024;
+
+    private static final int MAX_BATCH_SIZE = 512;
+
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    // put on the queue by close, the writer thread stops when it takes it
+    private static final Entry END_OF_QUEUE = new Entry(0, 0, SESSION, null, null, -1);
+
+    /**
+     * One line of the journal.
+     */
+    static final class Entry {
+        private final long monoNanos;
+        private final long wallMillis;
+        private final String type;
+        private final String event;
+        private final String detail;
+        private final long durationNanos;
+
+        /**
+         * @param monoNanos nanoseconds since the start of the journal
+         * @param event event name, null for session entries
+         * @param detail e.g. custom event name or check result, may be null
+         * @param durationNanos duration of a callback, -1 when not applicable
+         */
+        Entry(long monoNanos, long wallMillis, String type, String event, String detail, long durationNanos) {
+            this.monoNanos = monoNanos;
+            this.wallMillis = wallMillis;
+            this.type = type;
+            this.event = event;
+            this.detail = detail;
+            this.durationNanos = durationNanos;
+        }
+
+        long getMonoNanos() {
+            return monoNanos;
+        }
+
+        long getWallMillis() {
+            return wallMillis;
+        }
+
+        String getType() {
+            return type;
+        }
+
+        String getEvent() {
+            return event;
+        }
+
+        String getDetail() {
+            return detail;
+        }
+
+        long getDurationNanos() {
+            return durationNanos;
+        }
+
+        String toLine() {
+            return monoNanos + "\t" + wallMillis + "\t" + type + "\t" + escape(event) + "\t" + escape(detail) + "\t"
+                    + (durationNanos < 0 ? NONE : String.valueOf(durationNanos));
+        }
+
+        @Override
+        public String toString() {
+            return toLine();
+        }
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private final long startNanos;
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final Thread writer;
+    private final Log log;
+
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    @GuardedBy("closeLock")
+    private boolean closed = false;
+
+    private EventJournal(File file, FileChannel channel, Log log) {
+        this.file = file;
+        this.channel = channel;
+        this.startNanos = System.nanoTime();
+        this.log = log;
+        this.writer = new Thread(this::writeLoop, "Event-Journal-Thread");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Create or replace the journal file.
+     *
+     * @return the journal, or null when the file cannot be created
+     */
+    static EventJournal open(File file, Log log) {
+        try {
+            Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            writeFully(channel, HEADER + "\n" + COLUMNS + "\n");
+            log.info("Writing event journal to " + file);
+            return new EventJournal(file, channel, log);
+        } catch (IOException e) {
+            log.warn("Failed to create event journal " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Record a lifecycle entry of the session, such as start, stop or abort.
+     */
+    void session(String detail) {
+        record(SESSION, null, detail, -1);
+    }
+
+    /**
+     * Record a kill, abort or stop signal.
+     */
+    void signal(String detail) {
+        record(SIGNAL, null, detail, -1);
+    }
+
+    /**
+     * Record a finished callback of an event.
+     *
+     * @param detail e.g. the custom event name or the check result, may be null
+     */
+    void callback(EventPhase phase, String event, String detail, long durationNanos) {
+        record(phase.getCallbackName(), event, detail, durationNanos);
+    }
+
+    private void record(String type, String event, String detail, long durationNanos) {
+        Entry entry = new Entry(System.nanoTime() - startNanos, System.currentTimeMillis(), type, event, detail, durationNanos);
+        closeLock.readLock().lock();
+        try {
+            if (!closed) {
+                if (!queue.offer(entry)) {
+                    droppedCount.incrementAndGet();
+                }
+                return;
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        droppedCount.incrementAndGet();
+        log.warn("Event journal " + file + " is closed, entry dropped: " + entry.toLine());
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                int end = batch.indexOf(END_OF_QUEUE);
+                if (end >= 0) {
+                    writeBatch(batch.subList(0, end));
+                    return;
+                }
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                // close() takes care of entries left in the queue
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<Entry> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        StringBuilder lines = new StringBuilder(batch.size() * 64);
+        for (Entry entry : batch) {
+            lines.append(entry.toLine()).append('\n');
+        }
+        try {
+            writeFully(channel, lines.toString());
+            writtenCount.addAndGet(batch.size());
+        } catch (IOException e) {
+            droppedCount.addAndGet(batch.size());
+            log.warn("Failed to write " + batch.size() + " entries to event journal " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static void writeFully(FileChannel channel, String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Stop accepting entries, write all remaining entries and close the file.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // the writer thread is still running, so there is room on the queue soon, unless it is stuck
+            if (!queue.offer(END_OF_QUEUE, CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                writer.interrupt();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writer.interrupt();
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            writer.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            writer.interrupt();
+            try {
+                writer.join(CLOSE_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // write whatever the writer thread did not get to
+        List<Entry> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        remaining.remove(END_OF_QUEUE);
+        writeBatch(remaining);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close event journal " + file + ": " + e.getMessage());
+        }
+    }
+
+    static String escape(String value) {
+        if (value == null || value.isEmpty()) {
+            return NONE;
+        }
+        if (NONE.equals(value)) {
+            return "\\" + NONE;
+        }
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': escaped.append("\\\\"); break;
+                case '\t': escaped.append("\\t"); break;
+                case '\n': escaped.append("\\n"); break;
+                case '\r': escaped.append("\\r"); break;
+                default: escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    static String unescape(String value) {
+        if (NONE.equals(value)) {
+            return null;
+        }
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                switch (next) {
+                    case 't': unescaped.append('\t'); break;
+                    case 'n': unescaped.append('\n'); break;
+                    case 'r': unescaped.append('\r'); break;
+                    default: unescaped.append(next);
+                }
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+}
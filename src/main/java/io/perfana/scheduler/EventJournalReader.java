@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads an {@link EventJournal} and summarises it, or compares the timelines of two journals.
+ * Times are relative to the start of the test, so journals of different runs line up.
+ * Keep-alives are left out of the timelines and only counted, there are too many of them.
+ */
+final class EventJournalReader {
+
+    private EventJournalReader() {}
+
+    static List<EventJournal.Entry> read(File file) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new EventSchedulerRuntimeException("Cannot read event journal " + file + ": " + e.getMessage());
+        }
+        if (lines.isEmpty() || !EventJournal.HEADER.equals(lines.get(0))) {
+            throw new EventSchedulerRuntimeException("Not an event journal: " + file);
+        }
+        List<EventJournal.Entry> entries = new ArrayList<>();
+        for (int i = 1; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            entries.add(parse(line, file, i + 1));
+        }
+        return entries;
+    }
+
+    private static EventJournal.Entry parse(String line, File file, int lineNumber) {
+        String[] columns = line.split("\t", -1);
+        if (columns.length != 6) {
+            throw new EventSchedulerRuntimeException("Invalid event journal line " + lineNumber + " in " + file + ": expected 6 columns, found " + columns.length);
+        }
+        try {
+            return new EventJournal.Entry(
+                    Long.parseLong(columns[0]),
+                    Long.parseLong(columns[1]),
+                    columns[2],
+                    EventJournal.unescape(columns[3]),
+                    EventJournal.unescape(columns[4]),
+                    EventJournal.NONE.equals(columns[5]) ? -1 : Long.parseLong(columns[5]));
+        } catch (NumberFormatException e) {
+            throw new EventSchedulerRuntimeException("Invalid event journal line " + lineNumber + " in " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return lines with the timeline of the journal and the callbacks per event
+     */
+    static List<String> summary(List<EventJournal.Entry> entries) {
+        List<String> lines = new ArrayList<>();
+        if (entries.isEmpty()) {
+            lines.add("Empty event journal.");
+            return lines;
+        }
+        long testStartNanos = testStartNanos(entries);
+        EventJournal.Entry last = entries.get(entries.size() - 1);
+        lines.add("Event journal: " + entries.size() + " entries from " + Instant.ofEpochMilli(entries.get(0).getWallMillis())
+                + " to " + Instant.ofEpochMilli(last.getWallMillis()) + ", times relative to test start.");
+
+        Map<String, long[]> callbacks = new LinkedHashMap<>();
+        for (EventJournal.Entry entry : entries) {
+            if (entry.getDurationNanos() >= 0) {
+                // count, total and max duration
+                long[] stats = callbacks.computeIfAbsent(entry.getEvent() + " " + entry.getType(), key -> new long[3]);
+                stats[0]++;
+                stats[1] += entry.getDurationNanos();
+                stats[2] = Math.max(stats[2], entry.getDurationNanos());
+            }
+            if (!isKeepAlive(entry)) {
+                lines.add(String.format(Locale.ROOT, "%s T%s %s%s", Instant.ofEpochMilli(entry.getWallMillis()),
+                        seconds(entry.getMonoNanos() - testStartNanos), describe(entry), duration(entry)));
+            }
+        }
+
+        lines.add("Callbacks per event (count, total, max):");
+        callbacks.forEach((key, stats) -> lines.add(String.format(Locale.ROOT, "  %s: %d, %.1f ms, %.1f ms", key, stats[0], stats[1] / 1e6, stats[2] / 1e6)));
+        return lines;
+    }
+
+    /**
+     * Match the entries of both journals by type, event, detail and occurrence, and report the
+     * difference in time relative to the test start.
+     *
+     * @return lines with the entries of both journals and their differences
+     */
+    static List<String> compare(List<EventJournal.Entry> base, List<EventJournal.Entry> other) {
+        Map<String, EventJournal.Entry> baseEntries = keyed(base);
+        Map<String, EventJournal.Entry> otherEntries = keyed(other);
+        long baseStartNanos = testStartNanos(base);
+        long otherStartNanos = testStartNanos(other);
+
+        List<String> lines = new ArrayList<>();
+        lines.add("Compare event journals, times relative to test start (base -> other, difference):");
+        int onlyInBase = 0;
+        for (Map.Entry<String, EventJournal.Entry> baseEntry : baseEntries.entrySet()) {
+            EventJournal.Entry otherEntry = otherEntries.remove(baseEntry.getKey());
+            long baseNanos = baseEntry.getValue().getMonoNanos() - baseStartNanos;
+            if (otherEntry == null) {
+                onlyInBase++;
+                lines.add(String.format(Locale.ROOT, "  T%s -> missing  %s", seconds(baseNanos), baseEntry.getKey()));
+            } else {
+                long otherNanos = otherEntry.getMonoNanos() - otherStartNanos;
+                lines.add(String.format(Locale.ROOT, "  T%s -> T%s (%+.1f ms)  %s", seconds(baseNanos), seconds(otherNanos), (otherNanos - baseNanos) / 1e6, baseEntry.getKey()));
+            }
+        }
+        for (Map.Entry<String, EventJournal.Entry> otherEntry : otherEntries.entrySet()) {
+            lines.add(String.format(Locale.ROOT, "  missing -> T%s  %s", seconds(otherEntry.getValue().getMonoNanos() - otherStartNanos), otherEntry.getKey()));
+        }
+        lines.add("Entries only in base: " + onlyInBase + ", only in other: " + otherEntries.size() + ".");
+        return lines;
+    }
+
+    /**
+     * @return entries without keep-alives, by type, event, detail and occurrence, in journal order
+     */
+    private static Map<String, EventJournal.Entry> keyed(List<EventJournal.Entry> entries) {
+        Map<String, Integer> occurrences = new HashMap<>();
+        Map<String, EventJournal.Entry> keyed = new LinkedHashMap<>();
+        for (EventJournal.Entry entry : entries) {
+            if (isKeepAlive(entry)) {
+                continue;
+            }
+            String description = describe(entry);
+            int occurrence = occurrences.merge(description, 1, Integer::sum);
+            keyed.put(occurrence == 1 ? description : description + " #" + occurrence, entry);
+        }
+        return keyed;
+    }
+
+    private static long testStartNanos(List<EventJournal.Entry> entries) {
+        for (EventJournal.Entry entry : entries) {
+            if (EventJournal.SESSION.equals(entry.getType()) && EventJournal.TEST_STARTED.equals(entry.getDetail())) {
+                return entry.getMonoNanos();
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isKeepAlive(EventJournal.Entry entry) {
+        return EventPhase.KEEP_ALIVE.getCallbackName().equals(entry.getType());
+    }
+
+    private static String describe(EventJournal.Entry entry) {
+        StringBuilder description = new StringBuilder(entry.getType());
+        if (entry.getEvent() != null) {
+            description.append(' ').append(entry.getEvent());
+        }
+        if (entry.getDetail() != null) {
+            description.append(' ').append(entry.getDetail());
+        }
+        return description.toString();
+    }
+
+    private static String duration(EventJournal.Entry entry) {
+        return entry.getDurationNanos() < 0 ? "" : String.format(Locale.ROOT, " (%.1f ms)", entry.getDurationNanos() / 1e6);
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%+.3f s", nanos / 1e9);
+    }
+}
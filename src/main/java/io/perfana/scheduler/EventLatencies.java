@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Latency histograms of all event callbacks in a session, per event name and {@link EventPhase}.
+ * Histograms are created when an event is wrapped, so recording a callback is only a histogram update.
+ */
+class EventLatencies {
+
+    private final Map<String, LatencyHistogram[]> histogramsPerEvent = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /**
+     * @return histograms for the event, indexed by {@link EventPhase#ordinal()}
+     */
+    LatencyHistogram[] histogramsFor(String eventName) {
+        return histogramsPerEvent.computeIfAbsent(eventName, name -> {
+            LatencyHistogram[] histograms = new LatencyHistogram[EventPhase.values().length];
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+            return histograms;
+        });
+    }
+
+    Map<String, LatencyHistogram[]> getHistogramsPerEvent() {
+        synchronized (histogramsPerEvent) {
+            return new LinkedHashMap<>(histogramsPerEvent);
+        }
+    }
+}
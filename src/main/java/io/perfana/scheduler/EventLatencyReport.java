@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reports the latency histograms of the event callbacks: logged at the end of the session
+ * and written as json to the report directory.
+ */
+final class EventLatencyReport {
+
+    private EventLatencyReport() {}
+
+    static void report(EventLatencies eventLatencies, SessionOptions options, Log log) {
+        Map<String, LatencyHistogram[]> histogramsPerEvent = eventLatencies.getHistogramsPerEvent();
+        if (histogramsPerEvent.isEmpty()) {
+            return;
+        }
+        log.info("Event callback latencies:");
+        log.info(String.format(Locale.ROOT, "%-30s %-12s %8s %12s %12s %12s", "event", "callback", "count", "p50 (ms)", "p99 (ms)", "max (ms)"));
+        for (Map.Entry<String, LatencyHistogram[]> entry : histogramsPerEvent.entrySet()) {
+            for (EventPhase phase : EventPhase.values()) {
+                LatencyHistogram histogram = entry.getValue()[phase.ordinal()];
+                if (histogram.getCount() > 0) {
+                    log.info(String.format(Locale.ROOT, "%-30s %-12s %8d %12s %12s %12s", entry.getKey(), phase.getCallbackName(), histogram.getCount(),
+                            Json.millis(histogram.getPercentileNanos(50)), Json.millis(histogram.getPercentileNanos(99)), Json.millis(histogram.getMaxNanos())));
+                }
+            }
+        }
+        ReportFiles.writeJson(options, "event-latencies", toJson(histogramsPerEvent), log);
+    }
+
+    static String toJson(Map<String, LatencyHistogram[]> histogramsPerEvent) {
+        StringBuilder json = new StringBuilder("{\n  \"events\": [");
+        String eventSeparator = "\n";
+        for (Map.Entry<String, LatencyHistogram[]> entry : histogramsPerEvent.entrySet()) {
+            json.append(eventSeparator).append("    { \"event\": ").append(Json.quote(entry.getKey())).append(", \"callbacks\": [");
+            String callbackSeparator = "\n";
+            for (EventPhase phase : EventPhase.values()) {
+                LatencyHistogram histogram = entry.getValue()[phase.ordinal()];
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                json.append(callbackSeparator)
+                        .append("      { \"callback\": ").append(Json.quote(phase.getCallbackName()))
+                        .append(", \"count\": ").append(histogram.getCount())
+                        .append(", \"p50Millis\": ").append(Json.millis(histogram.getPercentileNanos(50)))
+                        .append(", \"p99Millis\": ").append(Json.millis(histogram.getPercentileNanos(99)))
+                        .append(", \"maxMillis\": ").append(Json.millis(histogram.getMaxNanos()))
+                        .append(", \"totalMillis\": ").append(Json.millis(histogram.getTotalNanos()))
+                        .append(" }");
+                callbackSeparator = ",\n";
+            }
+            json.append("\n    ] }");
+            eventSeparator = ",\n";
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+/**
+ * The event callbacks that are broadcast by the event scheduler during a session.
+ */
+enum EventPhase {
+    BEFORE_TEST("beforeTest"),
+    START_TEST("startTest"),
+    KEEP_ALIVE("keepAlive"),
+    CUSTOM_EVENT("customEvent"),
+    AFTER_TEST("afterTest"),
+    ABORT_TEST("abortTest"),
+    CHECK("check");
+
+    private final String callbackName;
+
+    EventPhase(String callbackName) {
+        this.callbackName = callbackName;
+    }
+
+    String getCallbackName() {
+        return callbackName;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.config.EventSchedulerConfig;
+import io.perfana.eventscheduler.exception.EventCheckFailureException;
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a session for each of the eventSchedulerConfigs in parallel, in one maven invocation.
+ * Each session has its own start, kill, abort and stop handling, as in the test goal.
+ * The build fails when one of the sessions fails: the check failures of all sessions are combined.
+ */
+@Mojo( name = "test-multi", defaultPhase = LifecyclePhase.PROCESS_RESOURCES )
+public class EventSchedulerMultiMojo extends AbstractEventSchedulerMojo {
+
+    @Parameter(required = true)
+    List<EventSchedulerConfig> eventSchedulerConfigs;
+
+    /**
+     * Maximum number of sessions that run at the same time, by default all sessions run at the same time.
+     * Sessions that do not fit wait for a running session to finish.
+     */
+    @Parameter
+    private volatile Integer maxParallelSessions;
+
+    @Override
+    public void execute() {
+        getLog().info("Execute event-scheduler-maven-plugin for " + eventSchedulerConfigs.size() + " sessions");
+
+        if (eventSchedulerConfigs.isEmpty()) {
+            getLog().info("No eventSchedulerConfigs found: nothing to do.");
+            return;
+        }
+
+        SessionOptions sessionOptions = sessionOptions();
+        if (sessionOptions.getStartBarrierParties() > 1) {
+            throw new EventSchedulerRuntimeException("A start barrier is not supported with test-multi, the sessions of one process already start together.");
+        }
+        int poolSize = maxParallelSessions == null || maxParallelSessions < 1
+                ? eventSchedulerConfigs.size()
+                : Math.min(maxParallelSessions, eventSchedulerConfigs.size());
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize,
+                r -> new Thread(r, "Event-Scheduler-Session-Thread-" + threadCounter.incrementAndGet()));
+
+        List<String> sessionNames = new ArrayList<>();
+        List<Future<?>> sessionResults = new ArrayList<>();
+        MetricsEndpoint metricsEndpoint = startMetricsEndpoint();
+        try {
+            for (EventSchedulerConfig config : eventSchedulerConfigs) {
+                String sessionName = "session-" + (sessionNames.size() + 1);
+                sessionNames.add(sessionName);
+                SchedulerSessionRunner runner = new SchedulerSessionRunner(config, sessionOptions.toBuilder().sessionName(sessionName).build(), new PrefixedLog(sessionName, getLog()), metricsEndpoint);
+                sessionResults.add(executor.submit(runner::run));
+            }
+            checkSessionResults(sessionNames, sessionResults);
+        } finally {
+            executor.shutdownNow();
+            if (metricsEndpoint != null) {
+                metricsEndpoint.stop();
+            }
+        }
+    }
+
+    private void checkSessionResults(List<String> sessionNames, List<Future<?>> sessionResults) {
+        List<String> checkFailures = new ArrayList<>();
+        RuntimeException otherFailure = null;
+
+        for (int i = 0; i < sessionResults.size(); i++) {
+            String sessionName = sessionNames.get(i);
+            try {
+                sessionResults.get(i).get();
+                getLog().info("[" + sessionName + "] session finished successfully.");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EventSchedulerRuntimeException("Interrupted while waiting for " + sessionName + " to finish.");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                getLog().warn("[" + sessionName + "] session failed: " + cause.getMessage());
+                if (cause instanceof EventCheckFailureException) {
+                    checkFailures.add(sessionName + ": " + cause.getMessage());
+                } else if (otherFailure == null) {
+                    otherFailure = cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+                } else {
+                    otherFailure.addSuppressed(cause);
+                }
+            }
+        }
+
+        if (otherFailure != null) {
+            throw otherFailure;
+        }
+        if (!checkFailures.isEmpty()) {
+            throw new EventCheckFailureException("EventCheck failures in " + checkFailures.size() + " of " + sessionResults.size() + " sessions: " + String.join("; ", checkFailures));
+        }
+    }
+}
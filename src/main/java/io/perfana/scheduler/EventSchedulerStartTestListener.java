@@ -20,18 +20,87 @@ import io.perfana.eventscheduler.api.EventLogger;
 import io.perfana.eventscheduler.api.config.EventContext;
 import io.perfana.eventscheduler.api.config.TestContext;
 import io.perfana.eventscheduler.api.message.EventMessageBus;
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+import io.perfana.eventscheduler.exception.handler.AbortSchedulerException;
+
+import java.time.Instant;
 
 public class EventSchedulerStartTestListener extends EventAdapter<EventContext> {
 
-    public EventSchedulerStartTestListener(EventContext context, TestContext testContext, EventMessageBus messageBus, EventLogger logger) {
+    private final SchedulerSession session;
+
+    public EventSchedulerStartTestListener(EventContext context, TestContext testContext, EventMessageBus messageBus, EventLogger logger, SchedulerSession session) {
         super(context, testContext, messageBus, logger);
+        this.session = session;
+    }
+
+    /**
+     * The spy is the last event, so events that run in parallel are awaited here.
+     * With a start barrier, startTest of all events waits until all processes are ready.
+     * If the start barrier fails, the abort exception ends the start of the session before
+     * startTest is broadcast.
+     */
+    @Override
+    public void beforeTest() {
+        super.beforeTest();
+        awaitParallelBroadcast();
+        if (session != null) {
+            session.getStartupTimeline().mark("beforeTest of all events");
+            awaitStartBarrier();
+        }
     }
 
     @Override
     public void startTest() {
         super.startTest();
+        awaitParallelBroadcast();
+        if (session == null) {
+            logger.warn("Scheduler plugin detected start test, but no scheduler session found for " + getName() + ": start of wait time is not signalled.");
+            return;
+        }
+        if (session.isStartCancelled()) {
+            logger.warn("Scheduler plugin detected start test, but the start was cancelled: start of wait time is not signalled.");
+            return;
+        }
         logger.info("Scheduler plugin detected start test: start the wait time now.");
-        EventSchedulerMojo.START_WAITING = true;
+        session.getStartupTimeline().mark("startTest of all events");
+        session.startTest();
+    }
+
+    @Override
+    public void afterTest() {
+        super.afterTest();
+        awaitParallelBroadcast();
+    }
+
+    @Override
+    public void abortTest() {
+        super.abortTest();
+        if (session != null) {
+            session.getFeatures().awaitAbortBroadcast();
+        }
     }
-}
 
+    private void awaitStartBarrier() {
+        StartBarrier barrier = session.getFeatures().getStartBarrier();
+        if (barrier == null) {
+            return;
+        }
+        logger.info("Wait at the start barrier for all " + barrier.getParties() + " processes.");
+        try {
+            long startMillis = barrier.arriveAndAwaitStart();
+            logger.info("Start barrier released, start test at " + Instant.ofEpochMilli(startMillis) + ".");
+            session.getStartupTimeline().mark("start barrier");
+        } catch (EventSchedulerRuntimeException e) {
+            logger.error("Start barrier failed, abort session: " + e.getMessage());
+            session.cancelStart();
+            throw new AbortSchedulerException("Start barrier failed: " + e.getMessage());
+        }
+    }
+
+    private void awaitParallelBroadcast() {
+        if (session != null) {
+            session.getFeatures().awaitParallelBroadcast();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import net.jcip.annotations.GuardedBy;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+
+/**
+ * Java Flight Recorder recording of the test window: started when start test is detected and
+ * dumped to a file when the session is stopped or aborted, so the recording holds the steady
+ * state of the test and not the startup of maven and the events.
+ * <p>
+ * The JVM that runs maven is recorded, so this is about the plugin and the events, e.g. a slow
+ * keep-alive or custom event, not about the system under test.
+ */
+class FlightRecording {
+
+    private final File file;
+    private final String settings;
+    private final Log log;
+
+    @GuardedBy("this")
+    private Recording recording;
+
+    @GuardedBy("this")
+    private boolean ended;
+
+    /**
+     * @param settings name of a JDK recording configuration, e.g. default or profile, or path to a .jfc file
+     */
+    FlightRecording(File file, String settings, Log log) {
+        this.file = file;
+        this.settings = settings;
+        this.log = log;
+    }
+
+    /**
+     * @return true when the JVM can make flight recordings, e.g. not when the jdk.jfr module is missing
+     */
+    static boolean isSupported() {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+            return FlightRecorder.isAvailable();
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Start the recording, at most once and not after the recording is dumped.
+     */
+    synchronized void start(long startTestNanos) {
+        if (recording != null || ended) {
+            return;
+        }
+        try {
+            Recording newRecording = new Recording(configuration(settings));
+            newRecording.setName("event-scheduler-test-window");
+            newRecording.setToDisk(true);
+            newRecording.start();
+            recording = newRecording;
+            log.info("Started flight recording of the test window with settings " + settings + ".");
+        } catch (IOException | ParseException | RuntimeException | LinkageError e) {
+            log.warn("Could not start flight recording with settings " + settings + ": " + e);
+        }
+    }
+
+    /**
+     * Stop the recording and dump it to the file, at most once.
+     *
+     * @return the file, or null when there was no recording or the dump failed
+     */
+    synchronized File dump(String reason) {
+        if (ended) {
+            return null;
+        }
+        ended = true;
+        if (recording == null) {
+            return null;
+        }
+        try {
+            recording.stop();
+            Files.createDirectories(file.getParentFile().toPath());
+            recording.dump(file.toPath());
+            log.info("Written flight recording of the test window (until " + reason + ") to " + file);
+            return file;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not write flight recording to " + file + ": " + e);
+            return null;
+        } finally {
+            recording.close();
+        }
+    }
+
+    synchronized boolean isRecording() {
+        return recording != null && !ended;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    private static Configuration configuration(String settings) throws IOException, ParseException {
+        if (settings.endsWith(".jfc")) {
+            Path path = Paths.get(settings);
+            if (Files.isRegularFile(path)) {
+                return Configuration.create(path);
+            }
+        }
+        return Configuration.getConfiguration(settings);
+    }
+}
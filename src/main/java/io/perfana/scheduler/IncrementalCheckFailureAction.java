@@ -0,0 +1,26 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+/**
+ * What to do with the session when an incremental check fails.
+ */
+public enum IncrementalCheckFailureAction {
+    /** Stop the session as at the end of the test: afterTest and the checks of all events. */
+    STOP,
+    /** Abort the session: abortTest and the checks of all events. */
+    ABORT
+}
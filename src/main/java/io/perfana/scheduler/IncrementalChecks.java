@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.Event;
+import io.perfana.eventscheduler.api.EventCheck;
+import io.perfana.eventscheduler.api.EventStatus;
+import io.perfana.eventscheduler.api.SchedulerExceptionType;
+import org.apache.maven.plugin.logging.Log;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Calls check of the events at a fixed interval while the test runs, so a test that is clearly
+ * failing ends early instead of occupying the load environment for the full duration.
+ * <p>
+ * Checks run on their own thread, starting one interval after start test. A check with status
+ * FAILURE is definitive: the session is stopped or aborted via the scheduler exception signal,
+ * which the wait loop acts on right away. A check that fails with an exception or has status
+ * UNKNOWN, e.g. not enough data yet, does not end the session.
+ */
+class IncrementalChecks {
+
+    private final List<? extends Event> events;
+    private final long intervalNanos;
+    private final IncrementalCheckFailureAction action;
+    private final Consumer<SchedulerExceptionType> schedulerException;
+    private final Log log;
+
+    private Thread checkThread;
+
+    // null until a check failed
+    private volatile Duration failedAt;
+
+    private volatile List<String> failures = Collections.emptyList();
+
+    /**
+     * @param schedulerException called with STOP or ABORT when a check fails
+     */
+    IncrementalChecks(List<? extends Event> events, long intervalNanos, IncrementalCheckFailureAction action, Consumer<SchedulerExceptionType> schedulerException, Log log) {
+        this.events = new ArrayList<>(events);
+        this.intervalNanos = intervalNanos;
+        this.action = action;
+        this.schedulerException = schedulerException;
+        this.log = log;
+    }
+
+    /**
+     * Start the checks, relative to the given start test moment.
+     */
+    synchronized void start(long startTestNanos) {
+        if (checkThread != null) {
+            return;
+        }
+        checkThread = new Thread(() -> checkLoop(startTestNanos), "Incremental-Check-Thread");
+        checkThread.setDaemon(true);
+        checkThread.start();
+    }
+
+    private void checkLoop(long startTestNanos) {
+        long nextCheckNanos = startTestNanos;
+        while (true) {
+            nextCheckNanos += intervalNanos;
+            long sleepNanos = nextCheckNanos - System.nanoTime();
+            try {
+                if (sleepNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (!checkRound(startTestNanos)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return false when a check failed and the session is ending
+     */
+    boolean checkRound(long startTestNanos) {
+        List<String> failed = new ArrayList<>();
+        for (Event event : events) {
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            try {
+                EventCheck eventCheck = event.check();
+                if (eventCheck != null && eventCheck.getEventStatus() == EventStatus.FAILURE) {
+                    failed.add(event.getName() + ": " + eventCheck.getMessage());
+                }
+            } catch (RuntimeException e) {
+                log.warn("Incremental check of event " + event.getName() + " failed with exception, not counted as a failure: " + e.getMessage());
+            }
+        }
+        if (failed.isEmpty()) {
+            log.debug(">>> Incremental checks passed at T+" + format(Duration.ofNanos(System.nanoTime() - startTestNanos)));
+            return true;
+        }
+        failures = failed;
+        failedAt = Duration.ofNanos(System.nanoTime() - startTestNanos);
+        log.warn("Incremental checks failed, " + (action == IncrementalCheckFailureAction.ABORT ? "abort" : "stop") + " session early at T+" + format(failedAt) + ": " + failed);
+        schedulerException.accept(action == IncrementalCheckFailureAction.ABORT ? SchedulerExceptionType.ABORT : SchedulerExceptionType.STOP);
+        return false;
+    }
+
+    synchronized void stop() {
+        if (checkThread != null) {
+            checkThread.interrupt();
+        }
+    }
+
+    /**
+     * @return time since start test when a check failed, null when no check failed
+     */
+    Duration getFailedAt() {
+        return failedAt;
+    }
+
+    List<String> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return e.g. "aborted early at T+1:02:03", null when no check failed
+     */
+    String getEarlyExitReport() {
+        Duration at = failedAt;
+        if (at == null) {
+            return null;
+        }
+        return (action == IncrementalCheckFailureAction.ABORT ? "aborted" : "stopped") + " early at T+" + format(at);
+    }
+
+    static String format(Duration duration) {
+        long seconds = duration.getSeconds();
+        return String.format(Locale.ROOT, "%d:%02d:%02d", seconds / 3600, (seconds % 3600) / 60, seconds % 60);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Prints the timeline of an event journal written with eventJournal, or compares the timelines of two journals,
+ * e.g. to line up a run with APM data or to see what changed between two runs.
+ */
+@Mojo( name = "journal", requiresProject = false )
+public class JournalMojo extends AbstractMojo {
+
+    /**
+     * The journal to print, or the base journal to compare with.
+     */
+    @Parameter(property = "journalFile", defaultValue = "${project.build.directory}/event-scheduler/event-journal.tsv")
+    File journalFile;
+
+    /**
+     * Journal to compare journalFile with. When not set, journalFile is printed.
+     */
+    @Parameter(property = "compareJournalFile")
+    File compareJournalFile;
+
+    @Override
+    public void execute() {
+        if (journalFile == null || !journalFile.isFile()) {
+            throw new EventSchedulerRuntimeException("Event journal not found: " + journalFile + ". Run the test goal with eventJournal enabled first.");
+        }
+        List<String> lines;
+        if (compareJournalFile == null) {
+            getLog().info("Event journal " + journalFile);
+            lines = EventJournalReader.summary(EventJournalReader.read(journalFile));
+        } else {
+            if (!compareJournalFile.isFile()) {
+                throw new EventSchedulerRuntimeException("Event journal to compare with not found: " + compareJournalFile);
+            }
+            getLog().info("Compare event journal " + journalFile + " with " + compareJournalFile);
+            lines = EventJournalReader.compare(EventJournalReader.read(journalFile), EventJournalReader.read(compareJournalFile));
+        }
+        lines.forEach(getLog()::info);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the keep-alives of one event, measures each against the keep-alive interval and,
+ * depending on the {@link KeepAliveOverrunPolicy}, skips or coalesces ticks that arrive while
+ * the previous keep-alive is still running. This way at most one keep-alive per event runs at a
+ * time, however slow the event is.
+ * <p>
+ * Exceptions of the keep-alive, such as a stop request of a keep-alive participant, are passed on
+ * to the caller as is, so the event scheduler handles them as without the guard.
+ */
+final class KeepAliveGuard {
+
+    private static final int IDLE = 0;
+    private static final int RUNNING = 1;
+    // running, and one or more ticks arrived meanwhile
+    private static final int PENDING = 2;
+
+    private final String eventName;
+    private final KeepAliveOverrunPolicy policy;
+    private final long intervalNanos;
+    private final Log log;
+
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+    private final AtomicLong overruns = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    KeepAliveGuard(String eventName, KeepAliveOverrunPolicy policy, long intervalNanos, Log log) {
+        this.eventName = eventName;
+        this.policy = policy;
+        this.intervalNanos = intervalNanos;
+        this.log = log;
+    }
+
+    void run(Runnable keepAlive) {
+        switch (policy) {
+            case SKIP:
+                skip(keepAlive);
+                break;
+            case COALESCE:
+                coalesce(keepAlive);
+                break;
+            default:
+                measure(keepAlive);
+        }
+    }
+
+    private void skip(Runnable keepAlive) {
+        if (!state.compareAndSet(IDLE, RUNNING)) {
+            if (skipped.incrementAndGet() == 1) {
+                log.warn("Keep-alive of event " + eventName + " is still running at the next tick: skip ticks while it runs.");
+            }
+            return;
+        }
+        try {
+            measure(keepAlive);
+        } finally {
+            state.set(IDLE);
+        }
+    }
+
+    private void coalesce(Runnable keepAlive) {
+        while (true) {
+            int current = state.get();
+            if (current == IDLE) {
+                if (state.compareAndSet(IDLE, RUNNING)) {
+                    break;
+                }
+            } else if (current == PENDING || state.compareAndSet(RUNNING, PENDING)) {
+                if (coalesced.incrementAndGet() == 1) {
+                    log.warn("Keep-alive of event " + eventName + " is still running at the next tick: coalesce ticks into one keep-alive after it.");
+                }
+                return;
+            }
+        }
+        // this thread owns the keep-alive until no ticks are pending
+        do {
+            try {
+                measure(keepAlive);
+            } catch (RuntimeException | Error e) {
+                // pending ticks are dropped, the next tick runs keep-alive again
+                state.set(IDLE);
+                throw e;
+            }
+        } while (!state.compareAndSet(RUNNING, IDLE) && state.compareAndSet(PENDING, RUNNING));
+    }
+
+    private void measure(Runnable keepAlive) {
+        long startNanos = System.nanoTime();
+        try {
+            keepAlive.run();
+        } finally {
+            long durationNanos = System.nanoTime() - startNanos;
+            maxNanos.accumulateAndGet(durationNanos, Math::max);
+            if (durationNanos > intervalNanos && overruns.incrementAndGet() == 1) {
+                log.warn("Keep-alive of event " + eventName + " took " + TimeUnit.NANOSECONDS.toMillis(durationNanos)
+                        + " ms, longer than the keep-alive interval of " + TimeUnit.NANOSECONDS.toMillis(intervalNanos) + " ms.");
+            }
+        }
+    }
+
+    String getEventName() {
+        return eventName;
+    }
+
+    /**
+     * @return number of keep-alives that took longer than the keep-alive interval
+     */
+    long getOverruns() {
+        return overruns.get();
+    }
+
+    long getSkipped() {
+        return skipped.get();
+    }
+
+    long getCoalesced() {
+        return coalesced.get();
+    }
+
+    long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return eventName + " (overruns=" + overruns.get() + ", skipped=" + skipped.get() + ", coalesced=" + coalesced.get()
+                + ", max=" + TimeUnit.NANOSECONDS.toMillis(maxNanos.get()) + " ms)";
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@link KeepAliveGuard} of each wrapped event in a session, with the same policy and keep-alive interval.
+ */
+class KeepAliveGuards {
+
+    private final KeepAliveOverrunPolicy policy;
+    private final long intervalNanos;
+    private final Log log;
+
+    private final ConcurrentMap<String, KeepAliveGuard> guardsPerEvent = new ConcurrentHashMap<>();
+
+    KeepAliveGuards(KeepAliveOverrunPolicy policy, long intervalNanos, Log log) {
+        this.policy = policy;
+        this.intervalNanos = intervalNanos;
+        this.log = log;
+    }
+
+    KeepAliveOverrunPolicy getPolicy() {
+        return policy;
+    }
+
+    KeepAliveGuard guardFor(String eventName) {
+        return guardsPerEvent.computeIfAbsent(eventName, name -> new KeepAliveGuard(name, policy, intervalNanos, log));
+    }
+
+    List<KeepAliveGuard> getGuards() {
+        return new ArrayList<>(guardsPerEvent.values());
+    }
+
+    /**
+     * @return guards of events that overran the interval, or had ticks skipped or coalesced
+     */
+    List<KeepAliveGuard> getOverrunGuards() {
+        List<KeepAliveGuard> overrun = new ArrayList<>();
+        for (KeepAliveGuard guard : guardsPerEvent.values()) {
+            if (guard.getOverruns() > 0 || guard.getSkipped() > 0 || guard.getCoalesced() > 0) {
+                overrun.add(guard);
+            }
+        }
+        return overrun;
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+/**
+ * What a wrapped event does with a keep-alive tick while its previous keep-alive is still running.
+ */
+public enum KeepAliveOverrunPolicy {
+    /** No overrun detection, every tick calls keep-alive. */
+    NONE,
+    /** Report keep-alives that take longer than the keep-alive interval, every tick calls keep-alive. */
+    REPORT,
+    /** Report overruns and skip ticks while the previous keep-alive of the event is running. */
+    SKIP,
+    /** Report overruns and run one extra keep-alive after a running one, for all ticks that came in meanwhile. */
+    COALESCE
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.Event;
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+import net.jcip.annotations.GuardedBy;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Constructs an event on first use instead of when the event scheduler is built.
+ * <p>
+ * On beforeTest the event is constructed on a separate thread and its beforeTest runs there,
+ * off the critical path to start test. The next callback waits for both. A construction failure
+ * fails every callback, as there is no event. A beforeTest failure is reported once, by the
+ * next callback, as beforeTest itself would have thrown it once: later callbacks get the event.
+ */
+class LazyEvent {
+
+    private final String eventName;
+    private final Supplier<Event> factory;
+    private final Executor executor;
+    private final StartupTimeline startupTimeline;
+
+    @GuardedBy("this")
+    private CompletableFuture<Event> constructed;
+
+    // completes when the callback of construct async returned, also when it failed
+    @GuardedBy("this")
+    private CompletableFuture<Void> callbackReturned;
+
+    // failure of the callback of construct async, until reported
+    private final AtomicReference<Throwable> callbackFailure = new AtomicReference<>();
+
+    LazyEvent(String eventName, Supplier<Event> factory, Executor executor, StartupTimeline startupTimeline) {
+        this.eventName = eventName;
+        this.factory = factory;
+        this.executor = executor;
+        this.startupTimeline = startupTimeline;
+    }
+
+    /**
+     * Construct the event on the executor and then call the callback with it, does nothing when already constructed.
+     */
+    synchronized void constructAsync(Consumer<Event> callback) {
+        if (constructed == null) {
+            CompletableFuture<Event> construction = CompletableFuture.supplyAsync(this::construct, executor);
+            constructed = construction;
+            callbackReturned = construction.thenAcceptAsync(callback, executor)
+                    .handle((ignored, e) -> {
+                        // a failed construction is reported by the construction future
+                        if (e != null && !construction.isCompletedExceptionally()) {
+                            callbackFailure.set(unwrap(e));
+                        }
+                        return null;
+                    });
+        }
+    }
+
+    /**
+     * @return the event, constructed on the calling thread when not constructed yet
+     */
+    Event get() {
+        CompletableFuture<Event> construction;
+        CompletableFuture<Void> callback;
+        synchronized (this) {
+            if (constructed == null) {
+                constructed = CompletableFuture.completedFuture(construct());
+                callbackReturned = CompletableFuture.completedFuture(null);
+            }
+            construction = constructed;
+            callback = callbackReturned;
+        }
+        Event event;
+        try {
+            event = construction.join();
+        } catch (CompletionException e) {
+            throw rethrow(e.getCause());
+        }
+        callback.join();
+        Throwable failure = callbackFailure.getAndSet(null);
+        if (failure != null) {
+            throw rethrow(failure);
+        }
+        return event;
+    }
+
+    private RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new EventSchedulerRuntimeException("Cannot construct lazy event " + eventName, cause);
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private Event construct() {
+        long startNanos = System.nanoTime();
+        Event event = factory.get();
+        startupTimeline.eventConstructed(eventName, System.nanoTime() - startNanos, true);
+        return event;
+    }
+}
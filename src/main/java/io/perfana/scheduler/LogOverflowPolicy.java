@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+/**
+ * What the {@link AsyncEventLogger} does when its queue is full.
+ */
+public enum LogOverflowPolicy {
+    /** Wait until there is room in the queue, nothing is lost. */
+    BLOCK,
+    /** Drop new debug messages, wait for room for all other messages. */
+    DROP_DEBUG,
+    /** Drop the oldest message in the queue to make room for the new one. */
+    DROP_OLDEST
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.EventLogger;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Passes event scheduler log messages on to the maven log, on the calling thread.
+ */
+class MavenEventLogger implements EventLogger {
+
+    private final Log log;
+    private final boolean debugEnabled;
+
+    MavenEventLogger(Log log, boolean debugEnabled) {
+        this.log = log;
+        this.debugEnabled = debugEnabled;
+    }
+
+    @Override
+    public void info(String message) {
+        log.info(message);
+    }
+
+    @Override
+    public void warn(String message) {
+        log.warn(message);
+    }
+
+    @Override
+    public void error(String message) {
+        log.error(message);
+    }
+
+    @Override
+    public void error(String message, Throwable throwable) {
+        log.error(message, throwable);
+    }
+
+    @Override
+    public void debug(final String message) {
+        if (isDebugEnabled()) log.debug(message);
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return debugEnabled;
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Local http endpoint that serves live metrics of the running sessions in the Prometheus text format,
+ * on http://localhost:&lt;port&gt;/metrics. It binds to the loopback address only.
+ * <p>
+ * The metrics are collected on the http thread when the endpoint is scraped: sessions register
+ * a source that reads their counters, so events do no extra work for the endpoint.
+ */
+class MetricsEndpoint {
+
+    static final String PATH = "/metrics";
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    // metric sources by session name
+    private final Map<String, Consumer<PrometheusText>> sources = new ConcurrentSkipListMap<>();
+
+    private final Log log;
+
+    private MetricsEndpoint(HttpServer server, ExecutorService executor, Log log) {
+        this.server = server;
+        this.executor = executor;
+        this.log = log;
+    }
+
+    /**
+     * @param port port on localhost, 0 for any free port
+     */
+    static MetricsEndpoint start(int port, Log log) {
+        HttpServer server;
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            throw new EventSchedulerRuntimeException("Cannot start metrics endpoint on localhost port " + port + ": " + e.getMessage());
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "Event-Scheduler-Metrics-Thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        MetricsEndpoint endpoint = new MetricsEndpoint(server, executor, log);
+        server.createContext(PATH, endpoint::handle);
+        server.setExecutor(executor);
+        server.start();
+        log.info("Metrics endpoint started on http://localhost:" + endpoint.getPort() + PATH);
+        return endpoint;
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    void register(String sessionName, Consumer<PrometheusText> source) {
+        sources.put(sessionName, source);
+    }
+
+    void unregister(String sessionName) {
+        sources.remove(sessionName);
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+        log.debug(">>> Metrics endpoint stopped");
+    }
+
+    /**
+     * @return the metrics of all registered sessions
+     */
+    String scrape() {
+        PrometheusText text = new PrometheusText();
+        for (Consumer<PrometheusText> source : sources.values()) {
+            source.accept(text);
+        }
+        return text.format();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!PATH.equals(exchange.getRequestURI().getPath())) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body;
+            try {
+                body = scrape().getBytes(StandardCharsets.UTF_8);
+            } catch (RuntimeException e) {
+                log.warn("Failed to collect metrics: " + e.getMessage());
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", PrometheusText.CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
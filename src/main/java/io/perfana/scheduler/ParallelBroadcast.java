@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import net.jcip.annotations.GuardedBy;
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the lifecycle callbacks of wrapped events concurrently instead of one after the other.
+ * <p>
+ * The event scheduler broadcasts to the events in config order, and the start test spy is the last event.
+ * Wrapped events submit their callback here and return right away, the spy waits for all
+ * submitted callbacks with {@link #awaitAll()}, so the broadcast is only done when all events are done.
+ * <p>
+ * Events in the sequential events run on the broadcast thread, after all callbacks submitted
+ * before them are done, so they keep their order relative to the other events.
+ */
+class ParallelBroadcast {
+
+    private final ExecutorService executor;
+    private final Set<String> sequentialEvents;
+    private final Log log;
+
+    @GuardedBy("pending")
+    private final List<Future<?>> pending = new ArrayList<>();
+
+    ParallelBroadcast(ExecutorService executor, Collection<String> sequentialEvents, Log log) {
+        this.executor = executor;
+        this.sequentialEvents = new HashSet<>(sequentialEvents);
+        this.log = log;
+    }
+
+    void submit(String eventName, Runnable callback) {
+        if (sequentialEvents.contains(eventName)) {
+            awaitAll();
+            callback.run();
+            return;
+        }
+        synchronized (pending) {
+            pending.add(executor.submit(callback));
+        }
+    }
+
+    /**
+     * Wait for all submitted callbacks. The first exception thrown by a callback is rethrown, so it reaches
+     * the event scheduler as if thrown during the broadcast, e.g. a KillSwitchException.
+     */
+    void awaitAll() {
+        List<Future<?>> callbacks;
+        synchronized (pending) {
+            callbacks = new ArrayList<>(pending);
+            pending.clear();
+        }
+        RuntimeException firstException = null;
+        for (Future<?> callback : callbacks) {
+            try {
+                callback.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                callbacks.forEach(c -> c.cancel(true));
+                throw new IllegalStateException("Interrupted while waiting for event callbacks to finish.", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (firstException == null && cause instanceof RuntimeException) {
+                    firstException = (RuntimeException) cause;
+                } else {
+                    log.warn("Event callback failed: " + cause, cause);
+                }
+            }
+        }
+        if (firstException != null) {
+            throw firstException;
+        }
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
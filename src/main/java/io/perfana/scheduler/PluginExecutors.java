@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors for the threads of the plugin.
+ */
+final class PluginExecutors {
+
+    private PluginExecutors() {}
+
+    /**
+     * Executor that starts a new thread for each task: a virtual thread when the runtime JVM supports
+     * virtual threads, otherwise a cached pool of daemon platform threads.
+     * <p>
+     * The plugin is built for java 11, so virtual threads are looked up at runtime.
+     */
+    static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        ExecutorService virtualThreadExecutor = newVirtualThreadPerTaskExecutor(namePrefix);
+        if (virtualThreadExecutor != null) {
+            return virtualThreadExecutor;
+        }
+        return Executors.newCachedThreadPool(daemonThreadFactory(namePrefix));
+    }
+
+    static ThreadFactory daemonThreadFactory(String namePrefix) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, namePrefix + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * @return true when the executor of {@link #newThreadPerTaskExecutor(String)} fell back to platform threads,
+     * also when the runtime JVM has virtual threads but they cannot be created, e.g. as a preview feature
+     */
+    static boolean isPlatformThreadExecutor(ExecutorService executor) {
+        return executor instanceof ThreadPoolExecutor;
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor(String namePrefix) {
+        if (!VirtualThreads.SUPPORTED) {
+            return null;
+        }
+        try {
+            // Thread.ofVirtual().name(namePrefix, 1).factory()
+            Object builder = VirtualThreads.OF_VIRTUAL.invoke(null);
+            builder = VirtualThreads.NAME.invoke(builder, namePrefix, 1L);
+            ThreadFactory threadFactory = (ThreadFactory) VirtualThreads.FACTORY.invoke(builder);
+            return (ExecutorService) VirtualThreads.NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // e.g. virtual threads are a preview feature that is not enabled
+            return null;
+        }
+    }
+
+    /**
+     * Reflective lookups of the virtual thread api, done once per plugin class loader,
+     * so repeated executions in a warm JVM (e.g. mvnd) do not repeat them.
+     */
+    private static final class VirtualThreads {
+
+        private static final Method OF_VIRTUAL;
+        private static final Method NAME;
+        private static final Method FACTORY;
+        private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+        private static final boolean SUPPORTED;
+
+        static {
+            Method ofVirtual = null;
+            Method name = null;
+            Method factory = null;
+            Method newThreadPerTaskExecutor = null;
+            try {
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                name = builderClass.getMethod("name", String.class, long.class);
+                factory = builderClass.getMethod("factory");
+                newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // java 20 or older
+                ofVirtual = null;
+            }
+            OF_VIRTUAL = ofVirtual;
+            NAME = name;
+            FACTORY = factory;
+            NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+            SUPPORTED = ofVirtual != null;
+        }
+
+        private VirtualThreads() {}
+    }
+}
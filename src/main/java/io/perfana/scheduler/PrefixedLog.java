@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Maven log that puts a prefix in front of each message, to tell apart the
+ * output of sessions that run in parallel.
+ */
+class PrefixedLog implements Log {
+
+    private final String prefix;
+    private final Log log;
+
+    PrefixedLog(String prefix, Log log) {
+        this.prefix = "[" + prefix + "] ";
+        this.log = log;
+    }
+
+    private CharSequence prefixed(CharSequence content) {
+        return prefix + content;
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return log.isDebugEnabled();
+    }
+
+    @Override
+    public void debug(CharSequence content) {
+        log.debug(prefixed(content));
+    }
+
+    @Override
+    public void debug(CharSequence content, Throwable error) {
+        log.debug(prefixed(content), error);
+    }
+
+    @Override
+    public void debug(Throwable error) {
+        log.debug(prefixed(String.valueOf(error)), error);
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return log.isInfoEnabled();
+    }
+
+    @Override
+    public void info(CharSequence content) {
+        log.info(prefixed(content));
+    }
+
+    @Override
+    public void info(CharSequence content, Throwable error) {
+        log.info(prefixed(content), error);
+    }
+
+    @Override
+    public void info(Throwable error) {
+        log.info(prefixed(String.valueOf(error)), error);
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return log.isWarnEnabled();
+    }
+
+    @Override
+    public void warn(CharSequence content) {
+        log.warn(prefixed(content));
+    }
+
+    @Override
+    public void warn(CharSequence content, Throwable error) {
+        log.warn(prefixed(content), error);
+    }
+
+    @Override
+    public void warn(Throwable error) {
+        log.warn(prefixed(String.valueOf(error)), error);
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return log.isErrorEnabled();
+    }
+
+    @Override
+    public void error(CharSequence content) {
+        log.error(prefixed(content));
+    }
+
+    @Override
+    public void error(CharSequence content, Throwable error) {
+        log.error(prefixed(content), error);
+    }
+
+    @Override
+    public void error(Throwable error) {
+        log.error(prefixed(String.valueOf(error)), error);
+    }
+}
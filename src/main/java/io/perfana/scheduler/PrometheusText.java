@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds metrics in the Prometheus text exposition format (version 0.0.4).
+ * Samples are grouped per metric family, so several sessions can add samples
+ * to the same family and the HELP and TYPE lines are written once.
+ */
+final class PrometheusText {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = { 0.5, 0.95, 0.99 };
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    private static final class Family {
+        private final String type;
+        private final String help;
+        private final StringBuilder samples = new StringBuilder();
+
+        private Family(String type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    /**
+     * @param labels label names and values, alternating
+     */
+    void gauge(String name, String help, double value, String... labels) {
+        family(name, "gauge", help);
+        sample(name, name, value, labels);
+    }
+
+    /**
+     * @param labels label names and values, alternating
+     */
+    void counter(String name, String help, double value, String... labels) {
+        family(name, "counter", help);
+        sample(name, name, value, labels);
+    }
+
+    /**
+     * Add the histogram as a summary in seconds, with the median, 95th and 99th percentile, sum and count.
+     *
+     * @param labels label names and values, alternating
+     */
+    void summary(String name, String help, LatencyHistogram histogram, String... labels) {
+        family(name, "summary", help);
+        long count = histogram.getCount();
+        for (double quantile : QUANTILES) {
+            String[] quantileLabels = new String[labels.length + 2];
+            System.arraycopy(labels, 0, quantileLabels, 0, labels.length);
+            quantileLabels[labels.length] = "quantile";
+            quantileLabels[labels.length + 1] = String.valueOf(quantile);
+            sample(name, name, seconds(histogram.getPercentileNanos(quantile * 100)), quantileLabels);
+        }
+        sample(name, name + "_sum", seconds(histogram.getTotalNanos()), labels);
+        sample(name, name + "_count", count, labels);
+    }
+
+    private void family(String name, String type, String help) {
+        Family family = families.computeIfAbsent(name, n -> new Family(type, help));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type + ", not a " + type);
+        }
+    }
+
+    private void sample(String familyName, String sampleName, double value, String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels of " + sampleName + " are not name value pairs: " + labels.length);
+        }
+        StringBuilder line = families.get(familyName).samples;
+        line.append(sampleName);
+        if (labels.length > 0) {
+            line.append('{');
+            for (int i = 0; i < labels.length; i += 2) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                line.append(labels[i]).append("=\"").append(escapeLabelValue(labels[i + 1])).append('"');
+            }
+            line.append('}');
+        }
+        line.append(' ').append(formatValue(value)).append('\n');
+    }
+
+    String format() {
+        StringBuilder text = new StringBuilder();
+        families.forEach((name, family) -> {
+            text.append("# HELP ").append(name).append(' ').append(escapeHelp(family.help)).append('\n');
+            text.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            text.append(family.samples);
+        });
+        return text.toString();
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1_000_000_000.0;
+    }
+
+    static String formatValue(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return String.valueOf((long) value);
+        }
+        return String.valueOf(value);
+    }
+
+    static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+}
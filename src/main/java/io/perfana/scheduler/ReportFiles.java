@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Writes report files of a session to the report directory, by default target/event-scheduler.
+ */
+final class ReportFiles {
+
+    private ReportFiles() {}
+
+    /**
+     * @return the report file for the session, e.g. event-latencies.json or event-latencies-session-2.json
+     * for a session of the test-multi goal, or null if there is no report directory
+     */
+    static File reportFile(SessionOptions options, String baseName, String extension) {
+        File reportDirectory = options.getReportDirectory();
+        if (reportDirectory == null) {
+            return null;
+        }
+        String sessionName = options.getSessionName();
+        String fileName = sessionName == null ? baseName : baseName + "-" + sessionName;
+        return new File(reportDirectory, fileName + "." + extension);
+    }
+
+    static void writeJson(SessionOptions options, String baseName, String json, Log log) {
+        File reportFile = reportFile(options, baseName, "json");
+        if (reportFile == null) {
+            log.debug(">>> No report directory: skip writing " + baseName + " report.");
+            return;
+        }
+        try {
+            Files.createDirectories(reportFile.getParentFile().toPath());
+            Files.write(reportFile.toPath(), json.getBytes(StandardCharsets.UTF_8));
+            log.info("Written " + reportFile);
+        } catch (IOException e) {
+            log.warn("Failed to write " + reportFile + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.CustomEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records planned versus actual fire time of scheduled custom events, relative to the start test
+ * moment that the start test spy detected. Positive drift means late, negative means early.
+ */
+class ScheduleDrift {
+
+    // keep details of the first deliveries only, to bound memory for very large schedules
+    private static final int MAX_DETAILS = 10_000;
+
+    static final class Delivery {
+        final String eventName;
+        final String customEventName;
+        final long plannedNanos;
+        final long driftNanos;
+
+        Delivery(String eventName, String customEventName, long plannedNanos, long driftNanos) {
+            this.eventName = eventName;
+            this.customEventName = customEventName;
+            this.plannedNanos = plannedNanos;
+            this.driftNanos = driftNanos;
+        }
+    }
+
+    private final LatencyHistogram lateness = new LatencyHistogram();
+    private final LatencyHistogram earliness = new LatencyHistogram();
+    private final AtomicLong beforeStartCount = new AtomicLong();
+    private final List<Delivery> details = Collections.synchronizedList(new ArrayList<>());
+
+    // 0 until start test is seen
+    private volatile long startTestNanos = 0;
+
+    void startTest(long nanos) {
+        startTestNanos = nanos;
+    }
+
+    long getStartTestNanos() {
+        return startTestNanos;
+    }
+
+    void record(String eventName, CustomEvent customEvent, long actualNanos) {
+        if (customEvent.getDuration() == null) {
+            return;
+        }
+        long start = startTestNanos;
+        if (start == 0) {
+            beforeStartCount.incrementAndGet();
+            return;
+        }
+        long plannedNanos = customEvent.getDuration().toNanos();
+        long driftNanos = (actualNanos - start) - plannedNanos;
+        if (driftNanos >= 0) {
+            lateness.record(driftNanos);
+        } else {
+            earliness.record(-driftNanos);
+        }
+        if (details.size() < MAX_DETAILS) {
+            details.add(new Delivery(eventName, customEvent.getName(), plannedNanos, driftNanos));
+        }
+    }
+
+    long getCount() {
+        return lateness.getCount() + earliness.getCount();
+    }
+
+    LatencyHistogram getLateness() {
+        return lateness;
+    }
+
+    LatencyHistogram getEarliness() {
+        return earliness;
+    }
+
+    long getBeforeStartCount() {
+        return beforeStartCount.get();
+    }
+
+    List<Delivery> getDetails() {
+        synchronized (details) {
+            return new ArrayList<>(details);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reports the drift of scheduled custom events: logged at the end of the session
+ * and written as json to the report directory.
+ */
+final class ScheduleDriftReport {
+
+    private ScheduleDriftReport() {}
+
+    static void report(ScheduleDrift scheduleDrift, SessionOptions options, Log log) {
+        if (scheduleDrift.getBeforeStartCount() > 0) {
+            log.info("Schedule drift: " + scheduleDrift.getBeforeStartCount() + " custom events were fired before start test was detected, these are not included.");
+        }
+        if (scheduleDrift.getCount() == 0) {
+            log.info("Schedule drift: no scheduled custom events fired after start test.");
+            return;
+        }
+        LatencyHistogram lateness = scheduleDrift.getLateness();
+        LatencyHistogram earliness = scheduleDrift.getEarliness();
+        log.info(String.format(Locale.ROOT, "Schedule drift of %d custom event deliveries: %d late (p50 %s ms, p99 %s ms, max %s ms), %d early (max %s ms)",
+                scheduleDrift.getCount(),
+                lateness.getCount(), Json.millis(lateness.getPercentileNanos(50)), Json.millis(lateness.getPercentileNanos(99)), Json.millis(lateness.getMaxNanos()),
+                earliness.getCount(), Json.millis(earliness.getMaxNanos())));
+        ReportFiles.writeJson(options, "schedule-drift", toJson(scheduleDrift), log);
+    }
+
+    static String toJson(ScheduleDrift scheduleDrift) {
+        LatencyHistogram lateness = scheduleDrift.getLateness();
+        LatencyHistogram earliness = scheduleDrift.getEarliness();
+        StringBuilder json = new StringBuilder("{\n")
+                .append("  \"count\": ").append(scheduleDrift.getCount()).append(",\n")
+                .append("  \"late\": { \"count\": ").append(lateness.getCount())
+                .append(", \"p50Millis\": ").append(Json.millis(lateness.getPercentileNanos(50)))
+                .append(", \"p99Millis\": ").append(Json.millis(lateness.getPercentileNanos(99)))
+                .append(", \"maxMillis\": ").append(Json.millis(lateness.getMaxNanos())).append(" },\n")
+                .append("  \"early\": { \"count\": ").append(earliness.getCount())
+                .append(", \"p50Millis\": ").append(Json.millis(earliness.getPercentileNanos(50)))
+                .append(", \"p99Millis\": ").append(Json.millis(earliness.getPercentileNanos(99)))
+                .append(", \"maxMillis\": ").append(Json.millis(earliness.getMaxNanos())).append(" },\n")
+                .append("  \"deliveries\": [");
+        List<ScheduleDrift.Delivery> details = scheduleDrift.getDetails();
+        String separator = "\n";
+        for (ScheduleDrift.Delivery delivery : details) {
+            json.append(separator)
+                    .append("    { \"event\": ").append(Json.quote(delivery.eventName))
+                    .append(", \"customEvent\": ").append(Json.quote(delivery.customEventName))
+                    .append(", \"plannedMillis\": ").append(Json.millis(delivery.plannedNanos))
+                    .append(", \"driftMillis\": ").append(Json.millis(delivery.driftNanos))
+                    .append(" }");
+            separator = ",\n";
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+}
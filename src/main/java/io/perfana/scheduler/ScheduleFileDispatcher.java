@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.Event;
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fires the custom events of a schedule file at their planned offset from start test, for schedules
+ * of thousands of custom events, e.g. per second traffic shaping or fault toggles.
+ * <p>
+ * One dispatcher thread reads the file as it goes and puts the custom events of the next ticks in a
+ * timing wheel, then hands out the due slot each tick to a fixed pool of worker threads. Each event
+ * has its own bounded backlog that the workers deliver in order, so a slow event does not delay the
+ * other events. Memory and threads do not grow with the size of the schedule: when an event falls
+ * {@value #MAX_BACKLOG} custom events behind, the dispatcher waits for it.
+ */
+class ScheduleFileDispatcher {
+
+    // resolution of the timing wheel: custom events fire at most one tick late
+    static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    // slots of the timing wheel: custom events of the next 10 seconds are read ahead
+    static final int WHEEL_SIZE = 1024;
+
+    // custom events waiting for delivery per event
+    static final int MAX_BACKLOG = 1024;
+
+    // deliveries to one event before its worker turns to the other events
+    private static final int DELIVERY_BATCH = 16;
+
+    private final class EventBacklog {
+        final Event event;
+        final BlockingQueue<CustomEvent> customEvents = new ArrayBlockingQueue<>(MAX_BACKLOG);
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        boolean behindReported;
+
+        EventBacklog(Event event) {
+            this.event = event;
+        }
+
+        /**
+         * Called by the dispatcher thread only.
+         */
+        void put(CustomEvent customEvent) throws InterruptedException {
+            if (!customEvents.offer(customEvent)) {
+                backpressureCount.incrementAndGet();
+                if (!behindReported) {
+                    behindReported = true;
+                    log.warn("Event " + event.getName() + " is " + MAX_BACKLOG + " custom events behind the schedule file, dispatch waits for it.");
+                }
+                customEvents.put(customEvent);
+            }
+            schedule();
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    workers.execute(this::deliverBatch);
+                } catch (RejectedExecutionException e) {
+                    // workers are shut down: dispatcher is stopped
+                }
+            }
+        }
+
+        void deliverBatch() {
+            for (int i = 0; i < DELIVERY_BATCH; i++) {
+                CustomEvent customEvent = customEvents.poll();
+                if (customEvent == null) {
+                    break;
+                }
+                deliver(event, customEvent);
+            }
+            scheduled.set(false);
+            if (!customEvents.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    private final File file;
+    private final List<EventBacklog> backlogs = new ArrayList<>();
+    private final int workerCount;
+    private final long tickNanos;
+    private final int wheelSize;
+    private final Log log;
+
+    private final AtomicLong dispatchedCount = new AtomicLong();
+    private final AtomicLong backpressureCount = new AtomicLong();
+
+    private volatile int maxWheelEntries;
+
+    private ThreadPoolExecutor workers;
+
+    private Thread dispatcherThread;
+
+    ScheduleFileDispatcher(File file, List<? extends Event> events, int workerCount, Log log) {
+        this(file, events, workerCount, TICK_NANOS, WHEEL_SIZE, log);
+    }
+
+    ScheduleFileDispatcher(File file, List<? extends Event> events, int workerCount, long tickNanos, int wheelSize, Log log) {
+        this.file = file;
+        for (Event event : events) {
+            backlogs.add(new EventBacklog(event));
+        }
+        this.workerCount = workerCount;
+        this.tickNanos = tickNanos;
+        this.wheelSize = wheelSize;
+        this.log = log;
+    }
+
+    /**
+     * Start firing the schedule file, relative to the given start test moment.
+     */
+    synchronized void start(long startTestNanos) {
+        if (dispatcherThread != null) {
+            return;
+        }
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                PluginExecutors.daemonThreadFactory("Custom-Event-Worker-Thread-"));
+        // start the threads now, not at the first fire time
+        workers.prestartAllCoreThreads();
+        dispatcherThread = new Thread(() -> dispatch(startTestNanos), "Custom-Event-Wheel-Thread");
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
+    }
+
+    private void dispatch(long startTestNanos) {
+        List<ArrayDeque<CustomEvent>> wheel = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            wheel.add(new ArrayDeque<>());
+        }
+        int wheelEntries = 0;
+        long tick = 0;
+        try (ScheduleFileReader schedule = ScheduleFileReader.open(file)) {
+            CustomEvent next = schedule.hasNext() ? schedule.next() : null;
+            while (true) {
+                // read ahead the custom events that fit in the wheel
+                while (next != null && tickOf(next) < tick + wheelSize) {
+                    wheel.get(slot(Math.max(tickOf(next), tick))).add(next);
+                    wheelEntries++;
+                    next = schedule.hasNext() ? schedule.next() : null;
+                }
+                if (wheelEntries > maxWheelEntries) {
+                    maxWheelEntries = wheelEntries;
+                }
+                if (wheelEntries == 0) {
+                    if (next == null) {
+                        break;
+                    }
+                    // nothing in the wheel: jump over the gap in the schedule
+                    tick = tickOf(next);
+                    continue;
+                }
+                ArrayDeque<CustomEvent> due = wheel.get(slot(tick));
+                if (!due.isEmpty()) {
+                    if (!waitUntil(startTestNanos + tick * tickNanos)) {
+                        return;
+                    }
+                    CustomEvent customEvent;
+                    while ((customEvent = due.poll()) != null) {
+                        wheelEntries--;
+                        for (EventBacklog backlog : backlogs) {
+                            backlog.put(customEvent);
+                        }
+                        dispatchedCount.incrementAndGet();
+                    }
+                }
+                tick++;
+            }
+            log.debug(">>> All " + dispatchedCount.get() + " custom events of schedule file " + file + " are dispatched.");
+        } catch (InterruptedException e) {
+            // dispatcher is stopped
+        } catch (EventSchedulerRuntimeException e) {
+            log.error("Stop dispatch of schedule file after " + dispatchedCount.get() + " custom events: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the tick at or after the fire time of the custom event, so custom events never fire early
+     */
+    private long tickOf(CustomEvent customEvent) {
+        long fireNanos = customEvent.getDuration().toNanos();
+        return (fireNanos + tickNanos - 1) / tickNanos;
+    }
+
+    private int slot(long tick) {
+        return (int) (tick % wheelSize);
+    }
+
+    private void deliver(Event event, CustomEvent customEvent) {
+        try {
+            event.customEvent(customEvent);
+        } catch (Exception e) {
+            log.error("Custom event " + customEvent.getName() + " failed for event " + event.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return false when interrupted
+     */
+    private static boolean waitUntil(long deadlineNanos) {
+        long remainingNanos;
+        while ((remainingNanos = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remainingNanos);
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+
+    synchronized void stop() {
+        if (dispatcherThread != null) {
+            dispatcherThread.interrupt();
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * @return number of custom events of the schedule file handed to the events
+     */
+    long getDispatchedCount() {
+        return dispatchedCount.get();
+    }
+
+    /**
+     * @return number of times the dispatcher waited for an event that fell behind
+     */
+    long getBackpressureCount() {
+        return backpressureCount.get();
+    }
+
+    /**
+     * @return most custom events read ahead at any time
+     */
+    int getMaxWheelEntries() {
+        return maxWheelEntries;
+    }
+}
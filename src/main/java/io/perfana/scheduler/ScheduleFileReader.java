@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the custom events of a schedule file one line at a time, in the format of a schedule script,
+ * such as: {@code PT10S|hello-world|name=pp}
+ * <p>
+ * The file is not loaded in memory, so the lines must be in order of their fire time.
+ */
+class ScheduleFileReader implements Iterator<CustomEvent>, Closeable {
+
+    /**
+     * Number of custom events and the first and last fire time of a schedule file.
+     */
+    static final class Summary {
+        final long count;
+        // null for an empty schedule
+        final Duration first;
+        final Duration last;
+
+        Summary(long count, Duration first, Duration last) {
+            this.count = count;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        public String toString() {
+            return count == 0 ? "no custom events" : count + " custom events from " + first + " to " + last;
+        }
+    }
+
+    private final File file;
+    private final BufferedReader reader;
+
+    private int lineNumber;
+    private Duration previousFireTime;
+    // the next custom event, null when not read yet or at the end
+    private CustomEvent next;
+    private boolean atEnd;
+
+    private ScheduleFileReader(File file, BufferedReader reader) {
+        this.file = file;
+        this.reader = reader;
+    }
+
+    /**
+     * @throws EventSchedulerRuntimeException when the file cannot be opened
+     */
+    static ScheduleFileReader open(File file) {
+        try {
+            return new ScheduleFileReader(file, Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new EventSchedulerRuntimeException("Cannot read schedule file " + file + ": " + e);
+        }
+    }
+
+    /**
+     * Read the whole file once, without keeping the custom events, to find problems before the test starts.
+     *
+     * @throws EventSchedulerRuntimeException on a line that cannot be parsed or is out of order
+     */
+    static Summary scan(File file) {
+        try (ScheduleFileReader reader = open(file)) {
+            long count = 0;
+            Duration first = null;
+            Duration last = null;
+            while (reader.hasNext()) {
+                Duration fireTime = reader.next().getDuration();
+                if (first == null) {
+                    first = fireTime;
+                }
+                last = fireTime;
+                count++;
+            }
+            return new Summary(count, first, last);
+        }
+    }
+
+    /**
+     * @throws EventSchedulerRuntimeException on a line that cannot be parsed or is out of order
+     */
+    @Override
+    public boolean hasNext() {
+        if (next == null && !atEnd) {
+            next = readNext();
+            atEnd = next == null;
+        }
+        return next != null;
+    }
+
+    @Override
+    public CustomEvent next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("End of schedule file " + file);
+        }
+        CustomEvent customEvent = next;
+        next = null;
+        return customEvent;
+    }
+
+    private CustomEvent readNext() {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                CustomEvent customEvent;
+                try {
+                    customEvent = ScheduleScripts.parseLine(line, lineNumber);
+                } catch (EventSchedulerRuntimeException e) {
+                    throw new EventSchedulerRuntimeException("Schedule file " + file + ": " + e.getMessage());
+                }
+                if (customEvent == null) {
+                    continue;
+                }
+                if (previousFireTime != null && customEvent.getDuration().compareTo(previousFireTime) < 0) {
+                    throw new EventSchedulerRuntimeException("Schedule file " + file + ": line " + lineNumber + " fires at " + customEvent.getDuration()
+                            + ", before the previous line at " + previousFireTime + ". Lines must be in order of fire time.");
+                }
+                previousFireTime = customEvent.getDuration();
+                return customEvent;
+            }
+            return null;
+        } catch (IOException e) {
+            throw new EventSchedulerRuntimeException("Cannot read schedule file " + file + " at line " + lineNumber + ": " + e);
+        }
+    }
+
+    int getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public void close() {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Parses schedule scripts, with one custom event per line, such as: {@code PT10S|hello-world|name=pp}
+ */
+final class ScheduleScripts {
+
+    private ScheduleScripts() {}
+
+    /**
+     * @return the custom events of the script in order of their fire time, empty list for a null or blank script
+     * @throws EventSchedulerRuntimeException on a line that cannot be parsed
+     */
+    static List<CustomEvent> parse(String scheduleScript) {
+        List<CustomEvent> customEvents = new ArrayList<>();
+        if (scheduleScript == null) {
+            return customEvents;
+        }
+        int lineNumber = 0;
+        for (String line : scheduleScript.split("\\R")) {
+            lineNumber++;
+            CustomEvent customEvent = parseLine(line, lineNumber);
+            if (customEvent != null) {
+                customEvents.add(customEvent);
+            }
+        }
+        customEvents.sort(Comparator.comparing(CustomEvent::getDuration));
+        return customEvents;
+    }
+
+    /**
+     * @return the custom event on the line, or null for an empty or comment line
+     */
+    static CustomEvent parseLine(String line, int lineNumber) {
+        String trimmedLine = line.trim();
+        if (trimmedLine.isEmpty() || trimmedLine.startsWith("#")) {
+            return null;
+        }
+        CustomEvent customEvent;
+        try {
+            customEvent = CustomEvent.createFromLine(trimmedLine);
+        } catch (RuntimeException e) {
+            throw new EventSchedulerRuntimeException("Invalid schedule script line " + lineNumber + " [" + trimmedLine + "]: " + e.getMessage());
+        }
+        if (customEvent == null || customEvent.getDuration() == null) {
+            throw new EventSchedulerRuntimeException("Invalid schedule script line " + lineNumber + " [" + trimmedLine + "]: no fire time found.");
+        }
+        return customEvent;
+    }
+}
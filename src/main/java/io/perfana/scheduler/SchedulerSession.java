@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.SchedulerExceptionType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * State of one event scheduler run that is shared between the mojo and the events it
+ * adds to the scheduler, such as the start test spy.
+ * <p>
+ * The spy event carries the session id in its name, so the {@link SchedulerSpyEventFactory}
+ * can hand the right session to the spy. This way several sessions can run in one JVM,
+ * e.g. in a parallel build, with multiple executions in one pom or in a maven daemon.
+ * <p>
+ * Wrapped events cannot carry the session id in their name, so the {@link WrappingEventFactory}
+ * uses the session that is creating events on the current thread, see {@link #createEvents(Supplier)}.
+ * <p>
+ * The session holds the state that the spy and the plugin share. The optional plugin features
+ * are built once by the runner, see {@link SessionFeatures}.
+ */
+class SchedulerSession {
+
+    static final String SPY_EVENT_NAME_PREFIX = "schedulerTestStartSpyEvent-";
+
+    private static final AtomicLong SESSION_COUNTER = new AtomicLong();
+
+    private static final ConcurrentMap<String, SchedulerSession> SESSIONS = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<SchedulerSession> CREATING_EVENTS = new ThreadLocal<>();
+
+    private final String id;
+
+    // wakes up the wait loop on start test, kill, abort and stop
+    private final SchedulerSignal signal = new SchedulerSignal();
+
+    private volatile boolean startWaiting = false;
+
+    // set when the test must not start, e.g. the start barrier failed
+    private volatile boolean startCancelled = false;
+
+    // volatile because possibly multiple threads are involved
+    private volatile SchedulerExceptionType schedulerExceptionType = SchedulerExceptionType.NONE;
+
+    // original event factory class names of wrapped events, by event name
+    private final ConcurrentMap<String, String> originalEventFactories = new ConcurrentHashMap<>();
+
+    private final List<WrappedEvent> wrappedEvents = new CopyOnWriteArrayList<>();
+
+    // names of wrapped events that finished their abort callback
+    private final Set<String> abortedEvents = ConcurrentHashMap.newKeySet();
+
+    private final StartupTimeline startupTimeline = new StartupTimeline(System.nanoTime());
+
+    // called with the nano time of start test
+    private final List<LongConsumer> startTestListeners = new CopyOnWriteArrayList<>();
+
+    private final SessionFeatures features;
+
+    private SchedulerSession(String id, SessionFeatures features) {
+        this.id = id;
+        this.features = features;
+    }
+
+    /**
+     * Create and register a new session. Call {@link #close()} when the session is done.
+     */
+    static SchedulerSession open(SessionFeatures features) {
+        SchedulerSession session = new SchedulerSession(String.valueOf(SESSION_COUNTER.incrementAndGet()), features);
+        SESSIONS.put(session.id, session);
+        return session;
+    }
+
+    /**
+     * @return the session the given spy event name belongs to, or null if that session is not (or no longer) open
+     */
+    static SchedulerSession findBySpyEventName(String spyEventName) {
+        if (spyEventName == null || !spyEventName.startsWith(SPY_EVENT_NAME_PREFIX)) {
+            return null;
+        }
+        return SESSIONS.get(spyEventName.substring(SPY_EVENT_NAME_PREFIX.length()));
+    }
+
+    /**
+     * @return the session that is creating events on the current thread, or null
+     */
+    static SchedulerSession creatingEvents() {
+        return CREATING_EVENTS.get();
+    }
+
+    static int openSessionCount() {
+        return SESSIONS.size();
+    }
+
+    /**
+     * @return number of sessions opened in this JVM
+     */
+    static long openedSessionCount() {
+        return SESSION_COUNTER.get();
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getSpyEventName() {
+        return SPY_EVENT_NAME_PREFIX + id;
+    }
+
+    SchedulerSignal getSignal() {
+        return signal;
+    }
+
+    boolean isStartWaiting() {
+        return startWaiting;
+    }
+
+    boolean isStartCancelled() {
+        return startCancelled;
+    }
+
+    SchedulerExceptionType getSchedulerExceptionType() {
+        return schedulerExceptionType;
+    }
+
+    SessionFeatures getFeatures() {
+        return features;
+    }
+
+    void addWrappedEvent(WrappedEvent wrappedEvent) {
+        wrappedEvents.add(wrappedEvent);
+    }
+
+    List<WrappedEvent> getWrappedEvents() {
+        return new ArrayList<>(wrappedEvents);
+    }
+
+    /**
+     * @param listener called with the {@link System#nanoTime()} of start test, on the thread that broadcasts start test
+     */
+    void addStartTestListener(LongConsumer listener) {
+        startTestListeners.add(listener);
+    }
+
+    void abortFinished(String eventName) {
+        abortedEvents.add(eventName);
+    }
+
+    /**
+     * @return names of the wrapped events that finished their abort callback
+     */
+    Set<String> getAbortedEvents() {
+        return new TreeSet<>(abortedEvents);
+    }
+
+    StartupTimeline getStartupTimeline() {
+        return startupTimeline;
+    }
+
+    void wrapEvent(String eventName, String originalEventFactory) {
+        originalEventFactories.put(eventName, originalEventFactory);
+    }
+
+    String getOriginalEventFactory(String eventName) {
+        return originalEventFactories.get(eventName);
+    }
+
+    /**
+     * The event scheduler creates its events while it is built, on the calling thread.
+     * Build it within this method so wrapped events are created for this session.
+     */
+    <T> T createEvents(Supplier<T> eventSchedulerBuilder) {
+        CREATING_EVENTS.set(this);
+        try {
+            return eventSchedulerBuilder.get();
+        } finally {
+            CREATING_EVENTS.remove();
+        }
+    }
+
+    void startTest() {
+        long startTestNanos = System.nanoTime();
+        features.startTest(startTestNanos);
+        startWaiting = true;
+        signal.signal();
+        for (LongConsumer listener : startTestListeners) {
+            listener.accept(startTestNanos);
+        }
+    }
+
+    /**
+     * The test must not start: startTest of the wrapped events and the spy is skipped,
+     * and the session is aborted.
+     */
+    void cancelStart() {
+        startCancelled = true;
+        schedulerException(SchedulerExceptionType.ABORT);
+    }
+
+    void schedulerException(SchedulerExceptionType type) {
+        schedulerExceptionType = type;
+        features.schedulerException(type);
+        signal.signal();
+    }
+
+    void close() {
+        SESSIONS.remove(id);
+    }
+
+    @Override
+    public String toString() {
+        return "SchedulerSession (" + id + ")";
+    }
+}
@@ -0,0 +1,834 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.EventScheduler;
+import io.perfana.eventscheduler.EventSchedulerBuilder;
+import io.perfana.eventscheduler.api.*;
+import io.perfana.eventscheduler.api.config.EventConfig;
+import io.perfana.eventscheduler.api.config.EventSchedulerConfig;
+import io.perfana.eventscheduler.api.config.TestContext;
+import io.perfana.eventscheduler.exception.EventCheckFailureException;
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+import io.perfana.eventscheduler.exception.handler.AbortSchedulerException;
+import io.perfana.eventscheduler.exception.handler.KillSwitchException;
+import net.jcip.annotations.GuardedBy;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs one event scheduler session for a given config.
+ * Send start session and stop session and waits for given duration.
+ * In case of failure or kill of process, sends abort session.
+ */
+class SchedulerSessionRunner {
+
+    // time to let an aborted session finish after the ultimate timeout, before it is abandoned
+    private static final long ULTIMATE_TIMEOUT_GRACE_MILLIS = 5000;
+
+    // wait for a stop in progress before abort, after this the stop is considered hanging
+    private static final long STOP_BEFORE_ABORT_WAIT_MILLIS = 10_000;
+
+    // keep-alive interval of the event scheduler when not configured
+    private static final int DEFAULT_KEEP_ALIVE_INTERVAL_SECONDS = 30;
+
+    // in a simulation the plugin fires the keep-alives, the event scheduler keep-alive is pushed out of the session
+    private static final int SIMULATION_KEEP_ALIVE_INTERVAL_SECONDS = 24 * 60 * 60;
+
+    // executions in this plugin class loader: more than one in a warm JVM, e.g. mvnd
+    private static final AtomicInteger EXECUTIONS = new AtomicInteger();
+
+    // sample interval of the plugin overhead, short enough to catch most of a short-lived custom event thread
+    private static final long PLUGIN_OVERHEAD_SAMPLE_INTERVAL_MILLIS = 1000;
+
+    private final Object eventSchedulerLock = new Object();
+
+    // set once when the scheduler is built, read by the shutdown hook
+    private volatile EventScheduler eventScheduler;
+
+    private final SessionLifecycle lifecycle = new SessionLifecycle();
+
+    private volatile long runStartNanos;
+
+    @GuardedBy("eventSchedulerLock")
+    private SchedulerShutdownHook shutdownHook;
+
+    @GuardedBy("eventSchedulerLock")
+    private final EventSchedulerConfig eventSchedulerConfig;
+
+    private final SessionOptions options;
+
+    private final Log log;
+
+    // null when there is no metrics endpoint
+    private final MetricsEndpoint metricsEndpoint;
+
+    // null when there is no metrics endpoint or no session is running
+    private volatile SessionMetrics sessionMetrics;
+
+    // null when no session is running
+    private volatile SessionFeatures features;
+
+    // null when the test window is not recorded
+    private volatile FlightRecording flightRecording;
+
+    // null when there is no plugin overhead report
+    private volatile ThreadOverhead threadOverhead;
+
+    SchedulerSessionRunner(EventSchedulerConfig eventSchedulerConfig, SessionOptions options, Log log) {
+        this(eventSchedulerConfig, options, log, null);
+    }
+
+    /**
+     * @param metricsEndpoint endpoint to expose the live metrics of the session on, or null
+     */
+    SchedulerSessionRunner(EventSchedulerConfig eventSchedulerConfig, SessionOptions options, Log log, MetricsEndpoint metricsEndpoint) {
+        this.eventSchedulerConfig = eventSchedulerConfig;
+        this.options = options;
+        this.log = log;
+        this.metricsEndpoint = metricsEndpoint;
+    }
+
+    /**
+     * Run the session: start, wait for the test duration, stop or abort and check the results.
+     *
+     * @throws EventCheckFailureException when the checks fail and continueOnEventCheckFailure is false
+     */
+    void run() {
+        synchronized (eventSchedulerLock) {
+            if (eventSchedulerConfig != null && !eventSchedulerConfig.isSchedulerEnabled()) {
+                log.info("EventScheduler is disabled.");
+                return;
+            }
+        }
+
+        runStartNanos = System.nanoTime();
+
+        SessionFeatures sessionFeatures = createFeatures();
+        features = sessionFeatures;
+        // the session is used to communicate from the spy event to the plugin
+        SchedulerSession session = SchedulerSession.open(sessionFeatures);
+        if (sessionFeatures.getStartBarrier() != null) {
+            sessionFeatures.getStartBarrier().onSignal(session::schedulerException);
+        }
+        EventLogger eventLogger = createEventLogger();
+        String metricsName = options.getSessionName() == null ? "default" : options.getSessionName();
+        if (metricsEndpoint != null) {
+            sessionMetrics = new SessionMetrics(metricsName, session, lifecycle, eventLogger);
+            metricsEndpoint.register(metricsName, sessionMetrics::write);
+        }
+        try {
+            if (options.getUltimateTimeoutSeconds() > 0) {
+                executeWithUltimateTimeout(session, eventLogger);
+            } else {
+                execute(session, eventLogger);
+            }
+        } finally {
+            if (metricsEndpoint != null) {
+                metricsEndpoint.unregister(metricsName);
+                sessionMetrics = null;
+            }
+            closeStartBarrier();
+            closeJournal();
+            closeEventLogger(eventLogger);
+            session.close();
+            sessionFeatures.shutdown();
+            features = null;
+        }
+    }
+
+    /**
+     * Build the plugin features of the session that are enabled in the options, once, before the events are created.
+     */
+    private SessionFeatures createFeatures() {
+        SessionFeatures.SessionFeaturesBuilder builder = SessionFeatures.builder();
+        // first, as the only feature that can fail to start, e.g. when the port is in use
+        if (options.getStartBarrierParties() > 1) {
+            builder.startBarrier(createStartBarrier());
+        }
+        if (options.hasEventDeadlines()) {
+            builder.eventDeadlines(createEventDeadlines());
+        }
+        if (options.getKeepAliveOverrunPolicy() != KeepAliveOverrunPolicy.NONE) {
+            builder.keepAliveGuards(createKeepAliveGuards());
+        }
+        if (options.isParallelAbort() && !options.isParallelBroadcast()) {
+            builder.parallelAbort(new ParallelBroadcast(PluginExecutors.newThreadPerTaskExecutor("Event-Abort-Thread-"), options.getSequentialEvents(), log));
+        }
+        if (options.isParallelBroadcast()) {
+            ExecutorService broadcastExecutor = PluginExecutors.newThreadPerTaskExecutor("Event-Broadcast-Thread-");
+            log.info("Parallel broadcast of event lifecycle callbacks enabled, using " + (PluginExecutors.isPlatformThreadExecutor(broadcastExecutor) ? "platform" : "virtual") + " threads.");
+            builder.parallelBroadcast(new ParallelBroadcast(broadcastExecutor, options.getSequentialEvents(), log));
+        }
+        if (!options.getLazyEvents().isEmpty()) {
+            log.info("Lazy construction of events: " + options.getLazyEvents());
+            builder.lazyEvents(new HashSet<>(options.getLazyEvents()))
+                    .lazyEventExecutor(PluginExecutors.newThreadPerTaskExecutor("Event-Lazy-Thread-"));
+        }
+        if (options.isEventJournal()) {
+            builder.journal(openJournal());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Run the session on a separate thread, so the plugin can give up on the session when the
+     * ultimate timeout is reached, for instance when an event hangs in stop or check.
+     */
+    private void executeWithUltimateTimeout(SchedulerSession session, EventLogger eventLogger) {
+        long timeoutMillis = options.getUltimateTimeoutSeconds() * 1000;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread sessionThread = new Thread(() -> {
+            try {
+                execute(session, eventLogger);
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }, "Event-Scheduler-Session-Thread");
+        sessionThread.setDaemon(true);
+        sessionThread.start();
+
+        try {
+            sessionThread.join(timeoutMillis);
+            if (sessionThread.isAlive()) {
+                log.error("Ultimate timeout of " + options.getUltimateTimeoutSeconds() + " seconds reached, abort session.");
+                session.schedulerException(SchedulerExceptionType.ABORT);
+                // abort takes over from a stop or check in progress on the session thread
+                Thread abortThread = new Thread(() -> abortSession("ultimate timeout"), "Event-Scheduler-Abort-Thread");
+                abortThread.setDaemon(true);
+                abortThread.start();
+                sessionThread.interrupt();
+                sessionThread.join(ULTIMATE_TIMEOUT_GRACE_MILLIS);
+                if (sessionThread.isAlive()) {
+                    log.error("Session did not finish within " + ULTIMATE_TIMEOUT_GRACE_MILLIS + " ms after abort, abandon session.");
+                }
+                throw new EventSchedulerRuntimeException("Ultimate timeout of " + options.getUltimateTimeoutSeconds() + " seconds reached.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            session.schedulerException(SchedulerExceptionType.ABORT);
+            sessionThread.interrupt();
+            throw new EventSchedulerRuntimeException("Interrupted while waiting for session to finish.");
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+    }
+
+    private void execute(SchedulerSession session, EventLogger eventLogger) {
+
+        boolean abortEventScheduler = false;
+
+        // this class really needs to be on the classpath, otherwise: runtime exception, not found on classpath
+        String factoryClassName = "io.perfana.scheduler.SchedulerSpyEventFactory";
+
+        EventSchedulerConfig newConfig;
+        CustomEventDispatcher customEventDispatcher = null;
+        ScheduleFileDispatcher scheduleFileDispatcher = null;
+        IncrementalChecks incrementalChecks = null;
+
+        synchronized (eventSchedulerLock) {
+            List<EventConfig> eventConfigs = new ArrayList<>();
+            eventConfigs.addAll(eventSchedulerConfig.getEventConfigs());
+
+            if (options.isEventWrapping()) {
+                wrapEvents(session, eventConfigs);
+            }
+
+            eventConfigs.add(EventConfig.builder().name(session.getSpyEventName()).eventFactory(factoryClassName).build());
+
+            newConfig = sessionConfig(eventSchedulerConfig, eventConfigs, options);
+            session.getStartupTimeline().mark("copy and wrap event configs");
+
+            try {
+                eventScheduler = session.createEvents(() -> EventSchedulerBuilder.of(newConfig, eventLogger));
+            } finally {
+                unwrapEvents(session, eventConfigs);
+            }
+            session.getStartupTimeline().mark("build scheduler and construct events");
+
+            if (options.isPreciseDispatch() && !options.isSimulation()) {
+                customEventDispatcher = createCustomEventDispatcher(session);
+            }
+
+            if (options.getScheduleFile() != null && !options.isSimulation()) {
+                scheduleFileDispatcher = createScheduleFileDispatcher(session);
+            }
+
+            if (options.getIncrementalCheckIntervalSeconds() > 0) {
+                incrementalChecks = createIncrementalChecks(session);
+            }
+
+            if (options.isFlightRecording()) {
+                flightRecording = createFlightRecording(session);
+            }
+
+            if (options.isPluginOverheadReport()) {
+                threadOverhead = createThreadOverhead(session);
+            }
+        }
+
+        try {
+
+            final SchedulerExceptionHandler schedulerExceptionHandler = new SchedulerExceptionHandler() {
+                @Override
+                public void kill(String message) {
+                    log.info("Killing running process, message: " + message);
+                    session.schedulerException(SchedulerExceptionType.KILL);
+                    // the main thread will check for this exception type and kill
+                }
+                @Override
+                public void abort(String message) {
+                    log.info("Aborting running process, message: " + message);
+                    session.schedulerException(SchedulerExceptionType.ABORT);
+                    // the main thread will check for this exception type and abort
+                }
+                @Override
+                public void stop(String message) {
+                    log.info("Stop running process, message: " + message);
+                    session.schedulerException(SchedulerExceptionType.STOP);
+                    // the main thread will check for this exception type and stop the test run
+                }
+            };
+
+            if (!startScheduler(session, eventScheduler, schedulerExceptionHandler)) {
+                throw new AbortSchedulerException("Session stopped or aborted while starting.");
+            }
+            logStartupTime();
+            StartupTimelineReport.report(session.getStartupTimeline(), options, log);
+
+            TestContext testContext = eventScheduler.getEventSchedulerContext().getTestContext();
+            Duration duration = testContext.getRampupTime().plus(testContext.getConstantLoadTime());
+
+            final long startTimestampMillis = System.currentTimeMillis();
+            SchedulerWaitLoop.Outcome outcome;
+            SessionMetrics metrics = sessionMetrics;
+            try {
+                if (options.isSimulation()) {
+                    outcome = createSimulationDriver(session).run(duration, options.getSlackDurationSeconds());
+                } else {
+                    if (metrics != null) {
+                        metrics.waiting(System.nanoTime() + duration.plusSeconds(options.getSlackDurationSeconds()).toNanos());
+                    }
+                    SchedulerWaitLoop waitLoop = new SchedulerWaitLoop(session.getSignal(), session::isStartWaiting, session::getSchedulerExceptionType, log);
+                    outcome = waitLoop.await(duration, options.getSlackDurationSeconds());
+                }
+            } finally {
+                if (metrics != null) {
+                    metrics.doneWaiting();
+                }
+            }
+
+            if (outcome == SchedulerWaitLoop.Outcome.KILL) {
+                throw new KillSwitchException("Rethrow KillSwitchException from wait loop in event-scheduler-maven-plugin.");
+            }
+            if (outcome == SchedulerWaitLoop.Outcome.ABORT) {
+                throw new AbortSchedulerException("Rethrow AbortSchedulerException from wait loop in event-scheduler-maven-plugin.");
+            }
+            if (outcome == SchedulerWaitLoop.Outcome.STOP) {
+                if (incrementalChecks != null && incrementalChecks.getFailedAt() != null) {
+                    log.info("Stop test run after failed incremental checks.");
+                } else {
+                    log.info("Got stop test run request from all ContinueOnKeepAliveParticipants.");
+                }
+                stopSession();
+            }
+            String stopMessage = outcome != SchedulerWaitLoop.Outcome.TIMEOUT ? "Stop test run request received." : "Regular timeout reached.";
+            Duration actualDuration = Duration.ofMillis(System.currentTimeMillis() - startTimestampMillis);
+            log.info("The event-scheduler-maven-plugin has waited for " + actualDuration + ". " + stopMessage);
+
+        } catch (Exception e) {
+            if (e instanceof KillSwitchException) {
+                log.info("KillSwitchException found, setting abortEventScheduler to true.");
+                abortEventScheduler = true;
+            } else {
+                log.warn("Inside catch exception", e);
+                if (newConfig.isFailOnError()) {
+                    log.debug(">>> Fail on error is enabled (true), setting abortEventScheduler to true.");
+                    abortEventScheduler = true;
+                } else {
+                    log.warn("There were some errors, but failOnError was set to false: build will not fail.");
+                }
+            }
+        } finally {
+            if (customEventDispatcher != null) {
+                customEventDispatcher.stop();
+            }
+            if (scheduleFileDispatcher != null) {
+                scheduleFileDispatcher.stop();
+            }
+            if (incrementalChecks != null) {
+                incrementalChecks.stop();
+            }
+            try {
+                if (abortEventScheduler) {
+                    log.debug(">>> Abort is called in finally: abortEventScheduler is true");
+                    abortSession("finally");
+                } else {
+                    log.debug(">>> Stop session in finally, if not stopped or aborted yet");
+                    stopSession();
+                }
+            } finally {
+                // in case the session did not start
+                endTestWindow("end of session");
+                // the session has ended, no need to abort it on shutdown anymore
+                deregisterShutdownHook();
+            }
+        }
+
+        // results are always checked, also in case of abort or killswitch
+        if (lifecycle.check()) {
+            try {
+                log.debug(">>> Call check results");
+                journal("check");
+                eventScheduler.checkResults();
+                journal("check passed");
+            } catch (EventCheckFailureException e) {
+                log.debug(">>> EventCheckFailureException: " + e.getMessage());
+                journal("check failed: " + e.getMessage());
+                if (!newConfig.isContinueOnEventCheckFailure()) {
+                    throw  e;
+                }
+                else {
+                    log.warn("EventCheck failures found, but continue on event check failure is true:" + e.getMessage());
+                }
+            } finally {
+                reportSession(session, incrementalChecks);
+            }
+        } else {
+            log.debug(">>> No check results, session lifecycle: " + lifecycle.getState());
+        }
+    }
+
+    /**
+     * Startup is from the start of run until start session returns, so including building the
+     * scheduler, creating the events and beforeTest and startTest of all events.
+     */
+    private void logStartupTime() {
+        long startupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - runStartNanos);
+        int execution = EXECUTIONS.incrementAndGet();
+        log.info("Session startup took " + startupMillis + " ms (" + (execution == 1 ? "first execution" : "execution " + execution) + " of the plugin in this JVM).");
+    }
+
+    /**
+     * Stop the session, unless it is already stopping or aborting.
+     */
+    private void stopSession() {
+        if (lifecycle.stop()) {
+            journal("stop");
+            endTestWindow("stop");
+            try {
+                eventScheduler.stopSession();
+            } finally {
+                lifecycle.stopReturned();
+            }
+        }
+    }
+
+    /**
+     * Abort the session, also when a start or stop is in progress on another thread.
+     * The abort session call waits for a stop session call in progress, unless the stop
+     * hangs: then the abort goes ahead, as it is the way out of a hanging afterTest.
+     */
+    private void abortSession(String reason) {
+        if (lifecycle.abort()) {
+            log.info("Abort event scheduler session (" + reason + ").");
+            journal("abort (" + reason + ")");
+            endTestWindow("abort");
+            SessionFeatures sessionFeatures = features;
+            StartBarrier barrier = sessionFeatures == null ? null : sessionFeatures.getStartBarrier();
+            if (barrier != null) {
+                barrier.broadcast(SchedulerExceptionType.ABORT);
+            }
+            try {
+                awaitStopReturned();
+                eventScheduler.abortSession();
+            } finally {
+                lifecycle.abortReturned();
+            }
+        } else {
+            log.info("No abort (" + reason + "), session lifecycle: " + lifecycle.getState());
+        }
+    }
+
+    private void awaitStopReturned() {
+        try {
+            if (!lifecycle.awaitStopReturned(STOP_BEFORE_ABORT_WAIT_MILLIS)) {
+                log.warn("Stop session did not return within " + STOP_BEFORE_ABORT_WAIT_MILLIS + " ms, abort while it is still in progress.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for stop session to return, abort now.");
+        }
+    }
+
+    /**
+     * @return copy of the configured event scheduler config, with the given event configs
+     */
+    static EventSchedulerConfig sessionConfig(EventSchedulerConfig eventSchedulerConfig, List<EventConfig> eventConfigs, SessionOptions options) {
+        boolean pluginDispatch = options.isPreciseDispatch() || options.isSimulation();
+        return EventSchedulerConfig.builder()
+                .schedulerEnabled(eventSchedulerConfig.isSchedulerEnabled())
+                .debugEnabled(eventSchedulerConfig.isDebugEnabled())
+                .continueOnEventCheckFailure(eventSchedulerConfig.isContinueOnEventCheckFailure())
+                .failOnError(eventSchedulerConfig.isFailOnError())
+                // in a simulation the plugin fires the keep-alives itself
+                .keepAliveIntervalInSeconds(options.isSimulation() ? SIMULATION_KEEP_ALIVE_INTERVAL_SECONDS : eventSchedulerConfig.getKeepAliveIntervalInSeconds())
+                .testConfig(eventSchedulerConfig.getTestConfig())
+                .eventConfigs(eventConfigs)
+                // with precise dispatch or in a simulation the plugin fires the scheduled custom events itself
+                .scheduleScript(pluginDispatch ? null : eventSchedulerConfig.getScheduleScript())
+                .build();
+    }
+
+    private SimulationDriver createSimulationDriver(SchedulerSession session) {
+        VirtualClock clock = options.isSimulationJump()
+                ? VirtualClock.jumping(session.getSignal())
+                : new VirtualClock(options.getSimulationSpeedUp(), session.getSignal());
+        Integer keepAliveIntervalInSeconds = eventSchedulerConfig.getKeepAliveIntervalInSeconds();
+        Duration keepAliveInterval = Duration.ofSeconds(keepAliveIntervalInSeconds == null ? DEFAULT_KEEP_ALIVE_INTERVAL_SECONDS : keepAliveIntervalInSeconds);
+        Set<String> keepAliveParticipants = new HashSet<>();
+        for (EventConfig eventConfig : eventSchedulerConfig.getEventConfigs()) {
+            if (eventConfig.isEnabled() && eventConfig.isContinueOnKeepAliveParticipant()) {
+                keepAliveParticipants.add(eventConfig.getName());
+            }
+            if (eventConfig.getScheduleScript() != null && !eventConfig.getScheduleScript().trim().isEmpty()) {
+                log.warn("Simulation: the schedule script of event " + eventConfig.getName() + " is fired by the event scheduler in real time, not simulated.");
+            }
+        }
+        List<CustomEvent> schedule = ScheduleScripts.parse(eventSchedulerConfig.getScheduleScript());
+        if (options.getScheduleFile() != null) {
+            // a rehearsal of the schedule file holds it in memory
+            try (ScheduleFileReader reader = ScheduleFileReader.open(options.getScheduleFile())) {
+                reader.forEachRemaining(schedule::add);
+            }
+            schedule.sort(Comparator.comparing(CustomEvent::getDuration));
+        }
+        return new SimulationDriver(clock, schedule, keepAliveInterval, session.getWrappedEvents(), keepAliveParticipants, session::getSchedulerExceptionType, log);
+    }
+
+    private CustomEventDispatcher createCustomEventDispatcher(SchedulerSession session) {
+        List<CustomEvent> schedule;
+        synchronized (eventSchedulerLock) {
+            schedule = ScheduleScripts.parse(eventSchedulerConfig.getScheduleScript());
+        }
+        log.info("=== custom events schedule (precise dispatch) ===");
+        for (CustomEvent customEvent : schedule) {
+            log.info("==> " + customEvent.getName() + " [fire-at=" + customEvent.getDuration() + " settings=" + customEvent.getSettings() + "]");
+        }
+        CustomEventDispatcher dispatcher = new CustomEventDispatcher(schedule, session.getWrappedEvents(), log);
+        session.addStartTestListener(dispatcher::start);
+        return dispatcher;
+    }
+
+    private ScheduleFileDispatcher createScheduleFileDispatcher(SchedulerSession session) {
+        File scheduleFile = options.getScheduleFile();
+        // find problems in the file before the test starts, the custom events are read again while the test runs
+        ScheduleFileReader.Summary summary = ScheduleFileReader.scan(scheduleFile);
+        int workers = Math.max(1, options.getScheduleFileWorkers());
+        log.info("Schedule file " + scheduleFile + ": " + summary + ", delivered by " + workers + " worker threads.");
+        ScheduleFileDispatcher dispatcher = new ScheduleFileDispatcher(scheduleFile, session.getWrappedEvents(), workers, log);
+        session.addStartTestListener(dispatcher::start);
+        return dispatcher;
+    }
+
+    private IncrementalChecks createIncrementalChecks(SchedulerSession session) {
+        List<WrappedEvent> events = new ArrayList<>();
+        for (WrappedEvent event : session.getWrappedEvents()) {
+            if (options.getIncrementalCheckEvents().isEmpty() || options.getIncrementalCheckEvents().contains(event.getName())) {
+                events.add(event);
+            }
+        }
+        log.info("Incremental checks every " + options.getIncrementalCheckIntervalSeconds() + " seconds of " + events.size()
+                + " events, " + options.getIncrementalCheckFailureAction() + " on failure.");
+        IncrementalChecks checks = new IncrementalChecks(events, TimeUnit.SECONDS.toNanos(options.getIncrementalCheckIntervalSeconds()),
+                options.getIncrementalCheckFailureAction(), session::schedulerException, log);
+        session.addStartTestListener(checks::start);
+        return checks;
+    }
+
+    private FlightRecording createFlightRecording(SchedulerSession session) {
+        File file = ReportFiles.reportFile(options, "flight-recording", "jfr");
+        if (file == null) {
+            log.warn("No report directory: no flight recording.");
+            return null;
+        }
+        if (!FlightRecording.isSupported()) {
+            log.warn("Flight recorder is not available in this JVM: no flight recording.");
+            return null;
+        }
+        FlightRecording recording = new FlightRecording(file, options.getFlightRecordingSettings(), log);
+        session.addStartTestListener(recording::start);
+        return recording;
+    }
+
+    private ThreadOverhead createThreadOverhead(SchedulerSession session) {
+        if (!ThreadOverhead.isSupported()) {
+            log.warn("Thread cpu time or allocated bytes are not measured in this JVM: no plugin overhead report.");
+            return null;
+        }
+        ThreadOverhead overhead = new ThreadOverhead(TimeUnit.MILLISECONDS.toNanos(PLUGIN_OVERHEAD_SAMPLE_INTERVAL_MILLIS), log);
+        session.addStartTestListener(overhead::start);
+        return overhead;
+    }
+
+    /**
+     * End the flight recording and the plugin overhead accounting of the test window, before the events
+     * stop or abort, so these only cover the test itself. Only the first call has effect.
+     */
+    private void endTestWindow(String reason) {
+        ThreadOverhead overhead = threadOverhead;
+        if (overhead != null) {
+            overhead.stop();
+        }
+        FlightRecording recording = flightRecording;
+        if (recording != null) {
+            recording.dump(reason);
+        }
+    }
+
+    private EventDeadlines createEventDeadlines() {
+        Map<String, Long> timeoutMillisPerEvent = new HashMap<>();
+        options.getEventCallbackTimeouts().forEach((name, seconds) -> timeoutMillisPerEvent.put(name, seconds * 1000));
+        log.info("Event callback deadlines enabled: default " + options.getEventCallbackTimeoutSeconds() + " seconds, per event " + options.getEventCallbackTimeouts() + ".");
+        return new EventDeadlines(PluginExecutors.newThreadPerTaskExecutor("Event-Deadline-Thread-"), options.getEventCallbackTimeoutSeconds() * 1000, timeoutMillisPerEvent, log);
+    }
+
+    private KeepAliveGuards createKeepAliveGuards() {
+        Integer keepAliveIntervalInSeconds;
+        synchronized (eventSchedulerLock) {
+            keepAliveIntervalInSeconds = eventSchedulerConfig.getKeepAliveIntervalInSeconds();
+        }
+        long intervalSeconds = keepAliveIntervalInSeconds == null ? DEFAULT_KEEP_ALIVE_INTERVAL_SECONDS : keepAliveIntervalInSeconds;
+        log.info("Keep-alive overrun policy " + options.getKeepAliveOverrunPolicy() + " for a keep-alive interval of " + intervalSeconds + " seconds.");
+        return new KeepAliveGuards(options.getKeepAliveOverrunPolicy(), TimeUnit.SECONDS.toNanos(intervalSeconds), log);
+    }
+
+    private void reportSession(SchedulerSession session, IncrementalChecks incrementalChecks) {
+        String earlyExit = incrementalChecks == null ? null : incrementalChecks.getEarlyExitReport();
+        if (earlyExit != null) {
+            log.warn("Session " + earlyExit + " by failed incremental checks: " + incrementalChecks.getFailures());
+        }
+        SessionFeatures sessionFeatures = session.getFeatures();
+        EventDeadlines deadlines = sessionFeatures.getEventDeadlines();
+        if (deadlines != null && !deadlines.getOverruns().isEmpty()) {
+            log.warn("Event callbacks that overran their deadline: " + deadlines.getOverruns());
+        }
+        KeepAliveGuards keepAliveGuards = sessionFeatures.getKeepAliveGuards();
+        if (keepAliveGuards != null) {
+            List<KeepAliveGuard> overrunGuards = keepAliveGuards.getOverrunGuards();
+            if (overrunGuards.isEmpty()) {
+                log.info("No keep-alive overruns of the keep-alive interval.");
+            } else {
+                log.warn("Events with keep-alives that overran the keep-alive interval (policy " + keepAliveGuards.getPolicy() + "): " + overrunGuards);
+            }
+        }
+        ThreadOverhead overhead = threadOverhead;
+        if (overhead != null) {
+            overhead.report(options);
+        }
+        if (options.isEventLatencyReport()) {
+            EventLatencyReport.report(sessionFeatures.getEventLatencies(), options, log);
+        }
+        if (options.isScheduleDriftReport()) {
+            ScheduleDriftReport.report(sessionFeatures.getScheduleDrift(), options, log);
+        }
+    }
+
+    /**
+     * Replace the event factory of the configured events by the {@link WrappingEventFactory},
+     * the session keeps the original factory to create the actual events.
+     */
+    private void wrapEvents(SchedulerSession session, List<EventConfig> eventConfigs) {
+        String wrappingFactoryClassName = WrappingEventFactory.class.getName();
+        for (EventConfig eventConfig : eventConfigs) {
+            String originalFactory = eventConfig.getEventFactory();
+            if (eventConfig.getName() == null || originalFactory == null || wrappingFactoryClassName.equals(originalFactory)) {
+                continue;
+            }
+            session.wrapEvent(eventConfig.getName(), originalFactory);
+            eventConfig.setEventFactory(wrappingFactoryClassName);
+        }
+    }
+
+    /**
+     * Put back the original event factories in the configured events, these are only needed while creating the events.
+     */
+    private void unwrapEvents(SchedulerSession session, List<EventConfig> eventConfigs) {
+        String wrappingFactoryClassName = WrappingEventFactory.class.getName();
+        for (EventConfig eventConfig : eventConfigs) {
+            String originalFactory = eventConfig.getName() == null ? null : session.getOriginalEventFactory(eventConfig.getName());
+            if (originalFactory != null && wrappingFactoryClassName.equals(eventConfig.getEventFactory())) {
+                eventConfig.setEventFactory(originalFactory);
+            }
+        }
+    }
+
+    /**
+     * @return false when the session was aborted while starting
+     */
+    private boolean startScheduler(SchedulerSession session, EventScheduler eventScheduler, SchedulerExceptionHandler schedulerExceptionHandler) {
+        if (!lifecycle.start()) {
+            throw new EventSchedulerRuntimeException("Cannot start session, session lifecycle: " + lifecycle.getState());
+        }
+        eventScheduler.addKillSwitch(schedulerExceptionHandler);
+        // register before start, so an abort during a slow start is possible
+        synchronized (eventSchedulerLock) {
+            shutdownHook = createShutdownHook(session);
+            shutdownHook.register();
+        }
+        journal("start");
+        eventScheduler.startSession();
+        journal("started");
+        return lifecycle.started();
+    }
+
+    private SchedulerShutdownHook createShutdownHook(SchedulerSession session) {
+        Runnable abort = () -> abortSession("shutdown hook");
+        Runnable report = () -> {
+            if (session.getWrappedEvents().isEmpty()) {
+                return;
+            }
+            Set<String> aborted = session.getAbortedEvents();
+            List<String> notAborted = new ArrayList<>();
+            for (WrappedEvent event : session.getWrappedEvents()) {
+                if (!aborted.contains(event.getName())) {
+                    notAborted.add(event.getName());
+                }
+            }
+            log.info("Shutdown hook: events that finished aborting: " + aborted);
+            if (!notAborted.isEmpty()) {
+                log.warn("Shutdown hook: events that did not finish aborting: " + notAborted);
+            }
+        };
+        return new SchedulerShutdownHook("eventSchedulerShutdownThread", abort, report, options.getShutdownAbortTimeoutSeconds() * 1000, log);
+    }
+
+    private void deregisterShutdownHook() {
+        synchronized (eventSchedulerLock) {
+            if (shutdownHook != null) {
+                shutdownHook.deregister();
+                shutdownHook = null;
+            }
+        }
+    }
+
+    private StartBarrier createStartBarrier() {
+        String participantId = StartBarrier.processId() + (options.getSessionName() == null ? "" : "-" + options.getSessionName());
+        int parties = options.getStartBarrierParties();
+        long timeoutMillis = options.getStartBarrierTimeoutSeconds() * 1000;
+        boolean coordinator = options.isStartBarrierCoordinator();
+        File directory = options.getStartBarrierDirectory();
+        if (directory != null) {
+            return coordinator
+                    ? DirectoryStartBarrier.coordinator(directory, participantId, parties, timeoutMillis, log)
+                    : DirectoryStartBarrier.participant(directory, participantId, parties, timeoutMillis, log);
+        }
+        InetSocketAddress address;
+        try {
+            address = TcpStartBarrier.parseAddress(options.getStartBarrierAddress());
+        } catch (IllegalArgumentException e) {
+            throw new EventSchedulerRuntimeException(e.getMessage());
+        }
+        return coordinator
+                ? TcpStartBarrier.coordinator(address.getHostString(), address.getPort(), options.getStartBarrierToken(), participantId, parties, timeoutMillis, log)
+                : TcpStartBarrier.participant(address.getHostString(), address.getPort(), options.getStartBarrierToken(), participantId, parties, timeoutMillis, log);
+    }
+
+    private void closeStartBarrier() {
+        StartBarrier barrier = features.getStartBarrier();
+        if (barrier != null) {
+            barrier.close();
+        }
+    }
+
+    private EventJournal openJournal() {
+        File journalFile = ReportFiles.reportFile(options, "event-journal", "tsv");
+        if (journalFile == null) {
+            log.warn("No report directory: no event journal.");
+            return null;
+        }
+        return EventJournal.open(journalFile, log);
+    }
+
+    private void journal(String detail) {
+        SessionFeatures sessionFeatures = features;
+        EventJournal eventJournal = sessionFeatures == null ? null : sessionFeatures.getJournal();
+        if (eventJournal != null) {
+            eventJournal.session(detail);
+        }
+    }
+
+    private void closeJournal() {
+        EventJournal eventJournal = features.getJournal();
+        if (eventJournal == null) {
+            return;
+        }
+        eventJournal.session("end");
+        eventJournal.close();
+        long droppedCount = eventJournal.getDroppedCount();
+        if (droppedCount > 0) {
+            log.warn("Event journal dropped " + droppedCount + " entries, " + eventJournal.getWrittenCount() + " entries written to " + eventJournal.getFile());
+        } else {
+            log.info("Written " + eventJournal.getWrittenCount() + " entries to event journal " + eventJournal.getFile());
+        }
+    }
+
+    private EventLogger createEventLogger() {
+        EventLogger mavenEventLogger;
+        synchronized (eventSchedulerLock) {
+            mavenEventLogger = new MavenEventLogger(log, eventSchedulerConfig.isDebugEnabled());
+        }
+        if (!options.isAsyncLogging()) {
+            return mavenEventLogger;
+        }
+        log.debug(">>> Async logging enabled with queue size " + options.getAsyncLogQueueSize() + " and overflow policy " + options.getAsyncLogOverflowPolicy());
+        return new AsyncEventLogger(mavenEventLogger, options.getAsyncLogQueueSize(), options.getAsyncLogOverflowPolicy());
+    }
+
+    private void closeEventLogger(EventLogger eventLogger) {
+        if (eventLogger instanceof AsyncEventLogger) {
+            AsyncEventLogger asyncEventLogger = (AsyncEventLogger) eventLogger;
+            asyncEventLogger.close();
+            long droppedCount = asyncEventLogger.getDroppedCount();
+            if (droppedCount > 0) {
+                log.warn("Async event logger dropped " + droppedCount + " log messages (overflow policy: " + options.getAsyncLogOverflowPolicy() + ").");
+            } else {
+                log.info("Async event logger dropped no log messages.");
+            }
+        }
+    }
+
+}
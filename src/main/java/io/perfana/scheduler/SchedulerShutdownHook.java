@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JVM shutdown hook that aborts a running session, e.g. on Ctrl-C or a CI cancel.
+ * <p>
+ * The abort runs on a separate thread and the hook waits at most the time budget for it,
+ * so the JVM can still exit when an event hangs. Deregister the hook when the session
+ * ends normally, so long-lived JVMs do not collect hooks and old schedulers.
+ */
+class SchedulerShutdownHook {
+
+    private final Runnable abort;
+    private final Runnable report;
+    private final long timeoutMillis;
+    private final Log log;
+    private final Thread hookThread;
+
+    /**
+     * @param abort aborts the session if it is still running
+     * @param report reports the outcome of the abort, also when the budget is exhausted
+     * @param timeoutMillis time budget for the abort, 0 for no limit
+     */
+    SchedulerShutdownHook(String name, Runnable abort, Runnable report, long timeoutMillis, Log log) {
+        this.abort = abort;
+        this.report = report;
+        this.timeoutMillis = timeoutMillis;
+        this.log = log;
+        this.hookThread = new Thread(this::abortWithinBudget, name);
+    }
+
+    void register() {
+        Runtime.getRuntime().addShutdownHook(hookThread);
+    }
+
+    /**
+     * Remove the hook, does nothing when the hook was not registered or the JVM is already shutting down.
+     */
+    void deregister() {
+        try {
+            Runtime.getRuntime().removeShutdownHook(hookThread);
+        } catch (IllegalStateException e) {
+            log.debug("Shutdown in progress, shutdown hook is not removed.");
+        }
+    }
+
+    /**
+     * Run the abort and wait at most the time budget for it to finish.
+     *
+     * @return true when the abort finished within the budget
+     */
+    boolean abortWithinBudget() {
+        Thread abortThread = new Thread(() -> {
+            try {
+                abort.run();
+            } catch (RuntimeException e) {
+                log.warn("Shutdown hook: abort failed: " + e.getMessage(), e);
+            }
+        }, hookThread.getName() + "-abort");
+        abortThread.setDaemon(true);
+
+        long startNanos = System.nanoTime();
+        abortThread.start();
+        boolean finished;
+        try {
+            abortThread.join(timeoutMillis);
+            finished = !abortThread.isAlive();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finished = false;
+        }
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        if (finished) {
+            log.info("Shutdown hook: abort finished in " + durationMillis + " ms.");
+        } else {
+            log.warn("Shutdown hook: abort did not finish within the budget of " + timeoutMillis + " ms, continue shutdown.");
+        }
+        report.run();
+        return finished;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import net.jcip.annotations.GuardedBy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wakes up a thread waiting in {@link #await(long)} as soon as {@link #signal()} is called.
+ * A signal that arrives while nobody is waiting is kept, so it cannot get lost.
+ */
+class SchedulerSignal {
+
+    private final Object monitor = new Object();
+
+    @GuardedBy("monitor")
+    private boolean signalled = false;
+
+    void signal() {
+        synchronized (monitor) {
+            signalled = true;
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * Wait for a signal, or until the timeout has passed.
+     *
+     * @return true when a signal was received, false on timeout
+     */
+    boolean await(long timeoutMillis) throws InterruptedException {
+        final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        final long startNanos = System.nanoTime();
+        synchronized (monitor) {
+            while (!signalled) {
+                long remainingNanos = timeoutNanos - (System.nanoTime() - startNanos);
+                if (remainingNanos <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(monitor, remainingNanos);
+            }
+            signalled = false;
+            return true;
+        }
+    }
+}
@@ -34,7 +34,9 @@ public class SchedulerSpyEventFactory implements EventFactory<EventContext> {
     }
 
     public Event create(EventContext context, TestContext testContext, EventMessageBus messageBus, EventLogger logger) {
-        return new EventSchedulerStartTestListener(context, testContext, messageBus, logger);
+        // the session id is part of the name of the spy event, see EventSchedulerMojo
+        SchedulerSession session = SchedulerSession.findBySpyEventName(context.getName());
+        return new EventSchedulerStartTestListener(context, testContext, messageBus, logger, session);
     }
 
     public String toString() {
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.SchedulerExceptionType;
+import org.apache.maven.plugin.logging.Log;
+
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Waits for the duration of the test, counted from the moment the start test event is seen.
+ * Instead of polling, the loop sleeps on a {@link SchedulerSignal} until the deadline, so a
+ * start test, kill, abort or stop is acted on as soon as it is signalled.
+ */
+class SchedulerWaitLoop {
+
+    enum Outcome { TIMEOUT, KILL, ABORT, STOP, INTERRUPTED }
+
+    // only used to print the remaining time when debug is enabled
+    private static final long DEBUG_LOG_INTERVAL_MILLIS = 1000;
+
+    private final SchedulerSignal signal;
+    private final BooleanSupplier startWaiting;
+    private final Supplier<SchedulerExceptionType> schedulerExceptionType;
+    private final Log log;
+
+    SchedulerWaitLoop(SchedulerSignal signal, BooleanSupplier startWaiting, Supplier<SchedulerExceptionType> schedulerExceptionType, Log log) {
+        this.signal = signal;
+        this.startWaiting = startWaiting;
+        this.schedulerExceptionType = schedulerExceptionType;
+        this.log = log;
+    }
+
+    /**
+     * @return the end of a session relative to start test: the test duration plus slack, nothing is fired after it
+     */
+    static Duration sessionDuration(Duration duration, long slackDurationSeconds) {
+        return duration.plusSeconds(slackDurationSeconds);
+    }
+
+    Outcome await(Duration duration, long slackDurationSeconds) {
+        // will be set when waiting should start (when start test event has happened).
+        long stopTimestampMillis = Long.MAX_VALUE;
+        final long startTimestampMillis = System.currentTimeMillis();
+        boolean stopTimeIsSet = false;
+
+        while (true) {
+            if (startWaiting.getAsBoolean() && !stopTimeIsSet) {
+                stopTimestampMillis = startTimestampMillis + sessionDuration(duration, slackDurationSeconds).toMillis();
+                stopTimeIsSet = true;
+                log.info("The event-scheduler-maven-plugin will now wait for " + duration + " for scheduler to finish (including " + slackDurationSeconds + " seconds of slack).");
+            }
+
+            Outcome outcome = outcomeFor(schedulerExceptionType.get());
+            if (outcome != null) {
+                return outcome;
+            }
+
+            long now = System.currentTimeMillis();
+            if (now >= stopTimestampMillis) {
+                return Outcome.TIMEOUT;
+            }
+
+            long waitMillis = stopTimestampMillis - now;
+            if (log.isDebugEnabled()) {
+                log.debug("Waiting for scheduler to finish..." + (stopTimeIsSet ? Duration.ofMillis(waitMillis) + " left." : "test not started yet."));
+                waitMillis = Math.min(waitMillis, DEBUG_LOG_INTERVAL_MILLIS);
+            }
+
+            try {
+                signal.await(waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Wait got interrupted: stop wait loop.");
+                return Outcome.INTERRUPTED;
+            }
+        }
+    }
+
+    /**
+     * @return the outcome for a kill, abort or stop, null otherwise
+     */
+    static Outcome outcomeFor(SchedulerExceptionType type) {
+        switch (type) {
+            case KILL:
+                return Outcome.KILL;
+            case ABORT:
+                return Outcome.ABORT;
+            case STOP:
+                return Outcome.STOP;
+            default:
+                return null;
+        }
+    }
+}
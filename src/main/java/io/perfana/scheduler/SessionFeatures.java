@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.SchedulerExceptionType;
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The optional plugin features of one session, such as deadlines, the journal and the start barrier.
+ * Built once by the {@link SchedulerSessionRunner} before the events are created, and read by the
+ * wrapped events and the start test spy via their session. A feature that is not enabled is null.
+ */
+@Value
+@Builder
+class SessionFeatures {
+
+    @Builder.Default
+    EventLatencies eventLatencies = new EventLatencies();
+
+    @Builder.Default
+    ScheduleDrift scheduleDrift = new ScheduleDrift();
+
+    // null when lifecycle callbacks are broadcast one after the other
+    ParallelBroadcast parallelBroadcast;
+
+    // null when abort callbacks are broadcast one after the other, or via the parallel broadcast
+    ParallelBroadcast parallelAbort;
+
+    // names of events that are constructed on first use
+    @Builder.Default
+    Set<String> lazyEvents = Collections.emptySet();
+
+    // null when there are no lazy events
+    ExecutorService lazyEventExecutor;
+
+    // null when event callbacks have no deadline
+    EventDeadlines eventDeadlines;
+
+    // null when keep-alives are not guarded
+    KeepAliveGuards keepAliveGuards;
+
+    // null when there is no journal
+    EventJournal journal;
+
+    // null when the start is not coordinated with other processes
+    StartBarrier startBarrier;
+
+    /**
+     * @return the broadcast for abort callbacks: the parallel abort broadcast if enabled, else the parallel broadcast, if any
+     */
+    ParallelBroadcast getAbortBroadcast() {
+        return parallelAbort != null ? parallelAbort : parallelBroadcast;
+    }
+
+    /**
+     * Wait for all lifecycle callbacks that run in parallel, if any.
+     */
+    void awaitParallelBroadcast() {
+        if (parallelBroadcast != null) {
+            parallelBroadcast.awaitAll();
+        }
+    }
+
+    /**
+     * Wait for all abort callbacks that run in parallel, if any.
+     */
+    void awaitAbortBroadcast() {
+        ParallelBroadcast broadcast = getAbortBroadcast();
+        if (broadcast != null) {
+            broadcast.awaitAll();
+        }
+    }
+
+    boolean isLazyEvent(String eventName) {
+        return lazyEvents.contains(eventName);
+    }
+
+    void startTest(long startTestNanos) {
+        scheduleDrift.startTest(startTestNanos);
+        if (journal != null) {
+            journal.session(EventJournal.TEST_STARTED);
+        }
+    }
+
+    void schedulerException(SchedulerExceptionType type) {
+        if (journal != null) {
+            journal.signal(type.name());
+        }
+        if (startBarrier != null) {
+            startBarrier.broadcast(type);
+        }
+    }
+
+    /**
+     * Stop the threads of the features. The journal and the start barrier are closed by the runner, which reports on them.
+     */
+    void shutdown() {
+        if (parallelBroadcast != null) {
+            parallelBroadcast.shutdown();
+        }
+        if (parallelAbort != null) {
+            parallelAbort.shutdown();
+        }
+        if (lazyEventExecutor != null) {
+            lazyEventExecutor.shutdownNow();
+        }
+        if (eventDeadlines != null) {
+            eventDeadlines.shutdown();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lifecycle of an event scheduler session, as a lock-free state machine.
+ * <p>
+ * Each transition is a compare-and-set: of concurrent callers exactly one wins and
+ * performs the action, e.g. calls stop session, the others get false and do nothing.
+ * Calling a transition again is harmless. Abort can take over from a start or stop
+ * in progress, so a Ctrl-C does not wait for checks after a stop. The abort itself waits
+ * for a stop call in progress to return, see {@link #awaitStopReturned(long)}, so the
+ * event scheduler does not get a stop and an abort session at the same time. Checks
+ * only follow an abort once its abort call has returned.
+ */
+class SessionLifecycle {
+
+    enum State {
+        IDLE,
+        STARTING,
+        RUNNING,
+        STOPPING,
+        ABORTING,
+        CHECKING
+    }
+
+    private static final Set<State> ABORTABLE = EnumSet.of(State.STARTING, State.RUNNING, State.STOPPING);
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.IDLE);
+
+    // counted down when the stop call of the caller that won stop has returned
+    private final CountDownLatch stopReturned = new CountDownLatch(1);
+
+    // the state abort took over from, written by the caller that won abort
+    private volatile State abortedFrom;
+
+    // counted down when the abort call of the caller that won abort has returned
+    private final CountDownLatch abortReturned = new CountDownLatch(1);
+
+    State getState() {
+        return state.get();
+    }
+
+    /**
+     * @return true when the caller should start the session
+     */
+    boolean start() {
+        return state.compareAndSet(State.IDLE, State.STARTING);
+    }
+
+    /**
+     * @return true when the session is running, false when it was stopped or aborted while starting
+     */
+    boolean started() {
+        return state.compareAndSet(State.STARTING, State.RUNNING);
+    }
+
+    /**
+     * Stop also wins from starting, e.g. when start session failed.
+     *
+     * @return true when the caller should stop the session
+     */
+    boolean stop() {
+        return state.compareAndSet(State.RUNNING, State.STOPPING)
+                || state.compareAndSet(State.STARTING, State.STOPPING);
+    }
+
+    /**
+     * Called by the caller that won stop, when its stop call returned, also when it failed.
+     */
+    void stopReturned() {
+        stopReturned.countDown();
+    }
+
+    /**
+     * Called by the caller that won abort, before its abort call: wait for a stop call in progress
+     * to return. A stop call is in progress when abort took over from stopping, as stop only wins
+     * before abort does.
+     *
+     * @return true when no stop call is in progress or it returned, false on timeout
+     */
+    boolean awaitStopReturned(long timeoutMillis) throws InterruptedException {
+        return abortedFrom != State.STOPPING || stopReturned.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called by the caller that won abort, when its abort call returned, also when it failed.
+     */
+    void abortReturned() {
+        abortReturned.countDown();
+    }
+
+    /**
+     * Abort wins from starting, running and stopping.
+     *
+     * @return true when the caller should abort the session
+     */
+    boolean abort() {
+        while (true) {
+            State current = state.get();
+            if (!ABORTABLE.contains(current)) {
+                return false;
+            }
+            if (state.compareAndSet(current, State.ABORTING)) {
+                abortedFrom = current;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Checks follow a stop, also when the stop was taken over by an abort in progress on another
+     * thread, or an abort that has returned. No checks while an abort call is still running, e.g.
+     * an abort of the ultimate timeout or the shutdown hook.
+     *
+     * @return true when the caller should check the results
+     */
+    boolean check() {
+        while (true) {
+            State current = state.get();
+            if (current != State.STOPPING && current != State.ABORTING) {
+                return false;
+            }
+            if (current == State.ABORTING && abortReturned.getCount() > 0) {
+                return false;
+            }
+            if (state.compareAndSet(current, State.CHECKING)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SessionLifecycle(" + state.get() + ")";
+    }
+}
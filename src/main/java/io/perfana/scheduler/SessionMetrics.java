@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.EventLogger;
+import io.perfana.eventscheduler.api.SchedulerExceptionType;
+
+import java.util.Map;
+
+/**
+ * Live metrics of one session for the {@link MetricsEndpoint}. Everything is read from state the
+ * session already keeps, such as the latency histograms of the wrapped events, when the endpoint is scraped.
+ */
+class SessionMetrics {
+
+    private final String sessionName;
+
+    private final SchedulerSession session;
+
+    private final SessionLifecycle lifecycle;
+
+    private final EventLogger eventLogger;
+
+    // nano time the wait loop ends at, including slack, 0 when not waiting
+    private volatile long waitEndNanos;
+
+    SessionMetrics(String sessionName, SchedulerSession session, SessionLifecycle lifecycle, EventLogger eventLogger) {
+        this.sessionName = sessionName;
+        this.session = session;
+        this.lifecycle = lifecycle;
+        this.eventLogger = eventLogger;
+    }
+
+    void waiting(long waitEndNanos) {
+        this.waitEndNanos = waitEndNanos;
+    }
+
+    void doneWaiting() {
+        this.waitEndNanos = 0;
+    }
+
+    void write(PrometheusText text) {
+        SessionLifecycle.State currentState = lifecycle.getState();
+        for (SessionLifecycle.State state : SessionLifecycle.State.values()) {
+            text.gauge("event_scheduler_session_state", "Lifecycle state of the session, 1 for the current state.",
+                    state == currentState ? 1 : 0, "session", sessionName, "state", state.name());
+        }
+
+        SchedulerExceptionType currentType = session.getSchedulerExceptionType();
+        for (SchedulerExceptionType type : SchedulerExceptionType.values()) {
+            text.gauge("event_scheduler_exception_type", "Kill, abort or stop request of the session, 1 for the current request.",
+                    type == currentType ? 1 : 0, "session", sessionName, "type", type.name());
+        }
+
+        long endNanos = waitEndNanos;
+        double remainingSeconds = endNanos == 0 ? 0 : Math.max(0, endNanos - System.nanoTime()) / 1_000_000_000.0;
+        text.gauge("event_scheduler_wait_remaining_seconds", "Time left in the wait for the test duration and slack, 0 when not waiting.",
+                remainingSeconds, "session", sessionName);
+
+        for (Map.Entry<String, LatencyHistogram[]> entry : session.getFeatures().getEventLatencies().getHistogramsPerEvent().entrySet()) {
+            for (EventPhase phase : EventPhase.values()) {
+                LatencyHistogram histogram = entry.getValue()[phase.ordinal()];
+                if (histogram.getCount() > 0) {
+                    text.summary("event_scheduler_callback_duration_seconds", "Duration of the event callbacks, per event and callback.",
+                            histogram, "session", sessionName, "event", entry.getKey(), "callback", phase.getCallbackName());
+                }
+            }
+        }
+
+        KeepAliveGuards keepAliveGuards = session.getFeatures().getKeepAliveGuards();
+        if (keepAliveGuards != null) {
+            for (KeepAliveGuard guard : keepAliveGuards.getGuards()) {
+                text.counter("event_scheduler_keep_alive_overruns_total", "Keep-alives that took longer than the keep-alive interval.",
+                        guard.getOverruns(), "session", sessionName, "event", guard.getEventName());
+                text.counter("event_scheduler_keep_alive_skipped_total", "Keep-alive ticks skipped while the previous keep-alive was running.",
+                        guard.getSkipped(), "session", sessionName, "event", guard.getEventName());
+                text.counter("event_scheduler_keep_alive_coalesced_total", "Keep-alive ticks coalesced into one keep-alive after the running one.",
+                        guard.getCoalesced(), "session", sessionName, "event", guard.getEventName());
+            }
+        }
+
+        if (eventLogger instanceof AsyncEventLogger) {
+            AsyncEventLogger asyncEventLogger = (AsyncEventLogger) eventLogger;
+            text.gauge("event_scheduler_log_queue_depth", "Log messages waiting to be written by the async event logger.",
+                    asyncEventLogger.getQueueDepth(), "session", sessionName);
+            text.counter("event_scheduler_log_dropped_total", "Log messages dropped by the async event logger.",
+                    asyncEventLogger.getDroppedCount(), "session", sessionName);
+        }
+    }
+}
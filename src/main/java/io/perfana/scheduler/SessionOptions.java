@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plugin settings for a session, on top of the event scheduler config.
+ */
+@Value
+@Builder(toBuilder = true)
+class SessionOptions {
+
+    static final SessionOptions DEFAULT = SessionOptions.builder().build();
+
+    @Builder.Default
+    long slackDurationSeconds = 0L;
+
+    boolean asyncLogging;
+
+    @Builder.Default
+    int asyncLogQueueSize = 4096;
+
+    @Builder.Default
+    LogOverflowPolicy asyncLogOverflowPolicy = LogOverflowPolicy.DROP_DEBUG;
+
+    // name of the session when more sessions run in parallel, null for a single session
+    String sessionName;
+
+    // directory for report files, no reports are written when null
+    File reportDirectory;
+
+    boolean eventLatencyReport;
+
+    boolean scheduleDriftReport;
+
+    boolean preciseDispatch;
+
+    // schedule file with custom events in order of fire time, read while the test runs
+    File scheduleFile;
+
+    // worker threads that deliver the custom events of the schedule file
+    @Builder.Default
+    int scheduleFileWorkers = 4;
+
+    boolean parallelBroadcast;
+
+    @Builder.Default
+    List<String> sequentialEvents = Collections.emptyList();
+
+    // virtual seconds per real second in a simulation, 0 for no simulation
+    double simulationSpeedUp;
+
+    // simulation that jumps straight to each next keep-alive or custom event
+    boolean simulationJump;
+
+    boolean isSimulation() {
+        return simulationJump || simulationSpeedUp > 0;
+    }
+
+    // write the startup timeline as json
+    boolean startupTimelineReport;
+
+    // names of events that are constructed on first use
+    @Builder.Default
+    List<String> lazyEvents = Collections.emptyList();
+
+    // run abort callbacks concurrently
+    boolean parallelAbort;
+
+    // time budget for the abort in the shutdown hook, 0 for no limit
+    @Builder.Default
+    long shutdownAbortTimeoutSeconds = 30L;
+
+    // 0 for no ultimate timeout
+    long ultimateTimeoutSeconds;
+
+    // 0 for no deadline
+    long eventCallbackTimeoutSeconds;
+
+    // deadline in seconds per event name, overrides eventCallbackTimeoutSeconds
+    @Builder.Default
+    Map<String, Long> eventCallbackTimeouts = Collections.emptyMap();
+
+    // detect keep-alives that overrun the keep-alive interval, and skip or coalesce ticks meanwhile
+    @Builder.Default
+    KeepAliveOverrunPolicy keepAliveOverrunPolicy = KeepAliveOverrunPolicy.NONE;
+
+    // journal of callbacks, signals and check results in the report directory
+    boolean eventJournal;
+
+    // check the events at this interval while the test runs, 0 for no incremental checks
+    long incrementalCheckIntervalSeconds;
+
+    // names of the events to check incrementally, all events when empty
+    @Builder.Default
+    List<String> incrementalCheckEvents = Collections.emptyList();
+
+    @Builder.Default
+    IncrementalCheckFailureAction incrementalCheckFailureAction = IncrementalCheckFailureAction.ABORT;
+
+    // record the test window with java flight recorder, dumped to the report directory at stop or abort
+    boolean flightRecording;
+
+    // name of a JDK recording configuration or path to a .jfc file
+    @Builder.Default
+    String flightRecordingSettings = "profile";
+
+    // cpu time and allocated bytes of the plugin and event threads in the test window
+    boolean pluginOverheadReport;
+
+    // number of processes that start the test together, 0 or 1 for no start barrier
+    int startBarrierParties;
+
+    // this process coordinates the start barrier
+    boolean startBarrierCoordinator;
+
+    // host:port of the coordinator, for a start barrier over tcp
+    String startBarrierAddress;
+
+    // run token shared by all processes, for a start barrier over tcp
+    String startBarrierToken;
+
+    // directory shared by all processes, for a start barrier over files
+    File startBarrierDirectory;
+
+    @Builder.Default
+    long startBarrierTimeoutSeconds = 300L;
+
+    // expose live metrics on the metrics endpoint, needs the latency histograms of wrapped events
+    boolean metrics;
+
+    boolean hasEventDeadlines() {
+        return eventCallbackTimeoutSeconds > 0 || !eventCallbackTimeouts.isEmpty();
+    }
+
+    /**
+     * @return true when configured events need to be wrapped by the {@link WrappingEventFactory}
+     */
+    boolean isEventWrapping() {
+        return eventLatencyReport || scheduleDriftReport || preciseDispatch || parallelBroadcast || parallelAbort || hasEventDeadlines() || !lazyEvents.isEmpty() || isSimulation() || scheduleFile != null || metrics || eventJournal || incrementalCheckIntervalSeconds > 0
+                || keepAliveOverrunPolicy != KeepAliveOverrunPolicy.NONE || startBarrierParties > 1;
+    }
+
+}
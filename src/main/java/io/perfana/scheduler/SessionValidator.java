@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.config.EventConfig;
+import io.perfana.eventscheduler.api.config.EventSchedulerConfig;
+import io.perfana.eventscheduler.api.config.TestConfig;
+import io.perfana.eventscheduler.api.config.TestContext;
+import org.apache.maven.plugin.logging.Log;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Checks an event scheduler config without running a session: builds the session config as a session does,
+ * parses all schedule scripts, loads the event factories and logs the resolved timeline.
+ */
+class SessionValidator {
+
+    static final class TimelineEntry {
+        final Duration fireTime;
+        final String source;
+        final CustomEvent customEvent;
+
+        TimelineEntry(Duration fireTime, String source, CustomEvent customEvent) {
+            this.fireTime = fireTime;
+            this.source = source;
+            this.customEvent = customEvent;
+        }
+    }
+
+    private final EventSchedulerConfig eventSchedulerConfig;
+    private final SessionOptions options;
+    private final Log log;
+
+    private final List<String> problems = new ArrayList<>();
+    private final List<TimelineEntry> timeline = new ArrayList<>();
+
+    // null when there is no valid schedule file
+    private ScheduleFileReader.Summary scheduleFileSummary;
+
+    SessionValidator(EventSchedulerConfig eventSchedulerConfig, SessionOptions options, Log log) {
+        this.eventSchedulerConfig = eventSchedulerConfig;
+        this.options = options;
+        this.log = log;
+    }
+
+    /**
+     * @return the problems found, empty when the config is valid
+     */
+    List<String> validate() {
+        if (eventSchedulerConfig == null) {
+            problems.add("No eventSchedulerConfig found.");
+            return problems;
+        }
+
+        List<EventConfig> eventConfigs = new ArrayList<>();
+        if (eventSchedulerConfig.getEventConfigs() != null) {
+            eventConfigs.addAll(eventSchedulerConfig.getEventConfigs());
+        }
+        EventSchedulerConfig sessionConfig = SchedulerSessionRunner.sessionConfig(eventSchedulerConfig, eventConfigs, options);
+
+        Duration testDuration = validateTestConfig(sessionConfig.getTestConfig());
+        // with precise dispatch the plugin fires the schedule script, otherwise the event scheduler does
+        addSchedule("scheduler", eventSchedulerConfig.getScheduleScript());
+
+        Set<String> eventNames = new HashSet<>();
+        for (EventConfig eventConfig : eventConfigs) {
+            validateEventConfig(eventConfig, eventNames);
+        }
+        validateEventNames("lazyEvents", options.getLazyEvents(), eventNames);
+        validateEventNames("sequentialEvents", options.getSequentialEvents(), eventNames);
+        validateEventNames("eventCallbackTimeouts", options.getEventCallbackTimeouts().keySet(), eventNames);
+        validateEventNames("incrementalCheckEvents", options.getIncrementalCheckEvents(), eventNames);
+        validateStartBarrier();
+        validateScheduleFile();
+
+        timeline.sort(Comparator.comparing((TimelineEntry entry) -> entry.fireTime));
+        logTimeline(testDuration);
+        return problems;
+    }
+
+    private void validateStartBarrier() {
+        if (options.getStartBarrierParties() < 2) {
+            return;
+        }
+        if ((options.getStartBarrierAddress() == null) == (options.getStartBarrierDirectory() == null)) {
+            problems.add("Start barrier of " + options.getStartBarrierParties() + " parties needs either startBarrierAddress or startBarrierDirectory.");
+            return;
+        }
+        if (options.getStartBarrierAddress() != null) {
+            try {
+                TcpStartBarrier.parseAddress(options.getStartBarrierAddress());
+            } catch (IllegalArgumentException e) {
+                problems.add(e.getMessage());
+            }
+            String token = options.getStartBarrierToken();
+            if (token == null || token.trim().isEmpty() || token.contains(" ")) {
+                problems.add("Start barrier over TCP needs a startBarrierToken without spaces, shared by all processes of the run.");
+            }
+        }
+    }
+
+    /**
+     * The schedule file is scanned, not added to the timeline: it can hold many thousands of custom events.
+     */
+    private void validateScheduleFile() {
+        if (options.getScheduleFile() == null) {
+            return;
+        }
+        if (options.getScheduleFileWorkers() < 1) {
+            problems.add("scheduleFileWorkers must be at least 1, found " + options.getScheduleFileWorkers() + ".");
+        }
+        try {
+            scheduleFileSummary = ScheduleFileReader.scan(options.getScheduleFile());
+        } catch (RuntimeException e) {
+            problems.add(e.getMessage());
+        }
+    }
+
+    List<TimelineEntry> getTimeline() {
+        return new ArrayList<>(timeline);
+    }
+
+    private Duration validateTestConfig(TestConfig testConfig) {
+        if (testConfig == null) {
+            problems.add("No testConfig found.");
+            return null;
+        }
+        try {
+            TestContext testContext = testConfig.toContext();
+            return testContext.getRampupTime().plus(testContext.getConstantLoadTime());
+        } catch (RuntimeException e) {
+            problems.add("Invalid testConfig: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void validateEventConfig(EventConfig eventConfig, Set<String> eventNames) {
+        String name = eventConfig.getName();
+        if (name == null || name.trim().isEmpty()) {
+            problems.add("Event config without name: " + eventConfig);
+            return;
+        }
+        if (!eventNames.add(name)) {
+            problems.add("Duplicate event name: " + name);
+        }
+        if (name.startsWith(SchedulerSession.SPY_EVENT_NAME_PREFIX)) {
+            problems.add("Event name " + name + " is reserved for the plugin.");
+        }
+        String factoryClassName = eventConfig.getEventFactory();
+        if (factoryClassName == null || factoryClassName.trim().isEmpty()) {
+            problems.add("Event " + name + " has no eventFactory.");
+        } else {
+            try {
+                EventFactories.load(factoryClassName);
+            } catch (RuntimeException e) {
+                problems.add("Event " + name + ": " + e.getMessage());
+            }
+        }
+        addSchedule(name, eventConfig.getScheduleScript());
+    }
+
+    private void validateEventNames(String parameter, Collection<String> names, Set<String> eventNames) {
+        for (String name : names) {
+            if (!eventNames.contains(name)) {
+                problems.add(parameter + " contains unknown event " + name + ", known events: " + eventNames);
+            }
+        }
+    }
+
+    private void addSchedule(String source, String scheduleScript) {
+        if (scheduleScript == null) {
+            return;
+        }
+        int lineNumber = 0;
+        for (String line : scheduleScript.split("\\R")) {
+            lineNumber++;
+            try {
+                CustomEvent customEvent = ScheduleScripts.parseLine(line, lineNumber);
+                if (customEvent != null) {
+                    timeline.add(new TimelineEntry(customEvent.getDuration(), source, customEvent));
+                }
+            } catch (RuntimeException e) {
+                problems.add("Schedule of " + source + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void logTimeline(Duration testDuration) {
+        log.info("=== resolved timeline, relative to start test ===");
+        // same end as the wait loop and the simulation: events in the slack are still fired
+        Duration sessionDuration = testDuration == null ? null : SchedulerWaitLoop.sessionDuration(testDuration, options.getSlackDurationSeconds());
+        for (TimelineEntry entry : timeline) {
+            String afterTest = sessionDuration != null && entry.fireTime.compareTo(sessionDuration) > 0 ? " (after end of test and slack, not fired)" : "";
+            log.info(String.format(Locale.ROOT, "%12s  %-30s %s %s%s", entry.fireTime, entry.source, entry.customEvent.getName(),
+                    entry.customEvent.getSettings() == null ? "" : entry.customEvent.getSettings(), afterTest));
+        }
+        if (timeline.isEmpty() && scheduleFileSummary == null) {
+            log.info("No scheduled custom events.");
+        }
+        if (scheduleFileSummary != null) {
+            log.info("Schedule file " + options.getScheduleFile() + ": " + scheduleFileSummary + ".");
+        }
+        if (testDuration != null) {
+            log.info("Test duration " + testDuration + " (rampup plus constant load), total duration " + sessionDuration
+                    + " including " + Duration.ofSeconds(options.getSlackDurationSeconds()) + " slack.");
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.Event;
+import io.perfana.eventscheduler.api.SchedulerExceptionType;
+import io.perfana.eventscheduler.exception.handler.AbortSchedulerException;
+import io.perfana.eventscheduler.exception.handler.KillSwitchException;
+import io.perfana.eventscheduler.exception.handler.StopTestRunException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Drives a session on a {@link VirtualClock} instead of waiting in real time: fires the keep-alives
+ * and the scheduled custom events to the events in order of their simulated time, until the end of
+ * the test plus slack. Stop and checks follow as in a real session.
+ * <p>
+ * As the event scheduler does, a failing event does not keep the others from their keep-alive or custom
+ * event: all events get each step, and a kill or abort thrown by one of them ends the simulation after it.
+ * A stop ends the simulation once all continue on keep-alive participants have asked to stop, a stop from
+ * another event is ignored.
+ */
+class SimulationDriver {
+
+    private static final class Step {
+        final long virtualNanos;
+        // null for a keep-alive
+        final CustomEvent customEvent;
+        final int keepAliveNumber;
+
+        Step(long virtualNanos, CustomEvent customEvent, int keepAliveNumber) {
+            this.virtualNanos = virtualNanos;
+            this.customEvent = customEvent;
+            this.keepAliveNumber = keepAliveNumber;
+        }
+    }
+
+    private final VirtualClock clock;
+    private final List<CustomEvent> schedule;
+    private final Duration keepAliveInterval;
+    private final List<? extends Event> events;
+    private final Set<String> keepAliveParticipants;
+    private final Supplier<SchedulerExceptionType> schedulerExceptionType;
+    private final Log log;
+
+    // continue on keep-alive participants that asked to stop
+    private final Set<String> stopRequested = new HashSet<>();
+
+    private int keepAliveCount;
+    private int customEventCount;
+
+    SimulationDriver(VirtualClock clock, List<CustomEvent> schedule, Duration keepAliveInterval, List<? extends Event> events, Set<String> keepAliveParticipants, Supplier<SchedulerExceptionType> schedulerExceptionType, Log log) {
+        this.clock = clock;
+        this.schedule = new ArrayList<>(schedule);
+        this.keepAliveInterval = keepAliveInterval;
+        this.events = new ArrayList<>(events);
+        this.keepAliveParticipants = new HashSet<>(keepAliveParticipants);
+        this.schedulerExceptionType = schedulerExceptionType;
+        this.log = log;
+    }
+
+    /**
+     * Run the simulated test, start test has happened.
+     */
+    SchedulerWaitLoop.Outcome run(Duration duration, long slackDurationSeconds) {
+        long endNanos = SchedulerWaitLoop.sessionDuration(duration, slackDurationSeconds).toNanos();
+        List<Step> steps = steps(endNanos);
+        log.info("Simulation of " + duration + " plus " + slackDurationSeconds + " seconds slack: " + steps.size() + " steps, "
+                + (clock.isJumping() ? "jump to each next step." : "speed up " + clock.getSpeedUp() + " times."));
+
+        try {
+            for (Step step : steps) {
+                SchedulerWaitLoop.Outcome outcome = advanceTo(step.virtualNanos);
+                if (outcome != null) {
+                    return outcome;
+                }
+                outcome = SchedulerWaitLoop.outcomeFor(fire(step));
+                if (outcome != null) {
+                    return outcome;
+                }
+            }
+            SchedulerWaitLoop.Outcome outcome = advanceTo(endNanos);
+            if (outcome != null) {
+                return outcome;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Simulation got interrupted: stop simulation.");
+            return SchedulerWaitLoop.Outcome.INTERRUPTED;
+        }
+        log.info(at(endNanos) + "end of test: " + keepAliveCount + " keep-alives and " + customEventCount + " custom events fired, stop session.");
+        return SchedulerWaitLoop.Outcome.TIMEOUT;
+    }
+
+    private List<Step> steps(long endNanos) {
+        List<Step> steps = new ArrayList<>();
+        long intervalNanos = keepAliveInterval.toNanos();
+        if (intervalNanos > 0) {
+            int number = 1;
+            for (long t = intervalNanos; t <= endNanos; t += intervalNanos) {
+                steps.add(new Step(t, null, number++));
+            }
+        }
+        for (CustomEvent customEvent : schedule) {
+            long t = customEvent.getDuration().toNanos();
+            if (t > endNanos) {
+                log.warn("Simulation: custom event " + customEvent.getName() + " at " + customEvent.getDuration() + " is after the end of the test, not fired.");
+                continue;
+            }
+            steps.add(new Step(t, customEvent, 0));
+        }
+        // stable sort: a keep-alive goes before a custom event at the same time
+        steps.sort(Comparator.comparingLong(step -> step.virtualNanos));
+        return steps;
+    }
+
+    /**
+     * @return the outcome when the session is killed, aborted or stopped, null when the time is reached
+     */
+    private SchedulerWaitLoop.Outcome advanceTo(long virtualNanos) throws InterruptedException {
+        while (true) {
+            SchedulerWaitLoop.Outcome outcome = SchedulerWaitLoop.outcomeFor(schedulerExceptionType.get());
+            if (outcome != null) {
+                log.info(at(clock.elapsedNanos()) + "session " + outcome.name().toLowerCase() + " requested.");
+                return outcome;
+            }
+            if (clock.advanceTo(virtualNanos)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return the most severe of kill, abort and stop thrown by the events, or NONE
+     */
+    private SchedulerExceptionType fire(Step step) {
+        if (step.customEvent == null) {
+            keepAliveCount++;
+            if (log.isDebugEnabled()) {
+                log.debug(at(step.virtualNanos) + "keep-alive " + step.keepAliveNumber);
+            }
+        } else {
+            customEventCount++;
+            log.info(at(step.virtualNanos) + "custom event " + step.customEvent.getName());
+        }
+        SchedulerExceptionType type = SchedulerExceptionType.NONE;
+        for (Event event : events) {
+            try {
+                if (step.customEvent == null) {
+                    event.keepAlive();
+                } else {
+                    event.customEvent(step.customEvent);
+                }
+            } catch (KillSwitchException e) {
+                log.info(at(step.virtualNanos) + "kill switch from " + event.getName() + ": " + e.getMessage());
+                type = mostSevere(type, SchedulerExceptionType.KILL);
+            } catch (AbortSchedulerException e) {
+                log.info(at(step.virtualNanos) + "abort from " + event.getName() + ": " + e.getMessage());
+                type = mostSevere(type, SchedulerExceptionType.ABORT);
+            } catch (StopTestRunException e) {
+                if (stopRequested(step, event.getName(), e)) {
+                    type = mostSevere(type, SchedulerExceptionType.STOP);
+                }
+            } catch (Exception e) {
+                log.warn(at(step.virtualNanos) + (step.customEvent == null ? "keep-alive" : "custom event " + step.customEvent.getName())
+                        + " failed for " + event.getName() + ": " + e);
+            }
+        }
+        return type;
+    }
+
+    /**
+     * @return true when all continue on keep-alive participants have asked to stop
+     */
+    private boolean stopRequested(Step step, String eventName, StopTestRunException e) {
+        if (!keepAliveParticipants.contains(eventName)) {
+            log.warn(at(step.virtualNanos) + "stop from " + eventName + " ignored, it is not a continue on keep-alive participant: " + e.getMessage());
+            return false;
+        }
+        stopRequested.add(eventName);
+        log.info(at(step.virtualNanos) + "stop from " + eventName + " (" + stopRequested.size() + " of "
+                + keepAliveParticipants.size() + " continue on keep-alive participants): " + e.getMessage());
+        return stopRequested.size() == keepAliveParticipants.size();
+    }
+
+    private static SchedulerExceptionType mostSevere(SchedulerExceptionType type, SchedulerExceptionType other) {
+        return severity(other) > severity(type) ? other : type;
+    }
+
+    private static int severity(SchedulerExceptionType type) {
+        switch (type) {
+            case KILL:
+                return 3;
+            case ABORT:
+                return 2;
+            case STOP:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private static String at(long virtualNanos) {
+        return "[simulation T+" + Duration.ofNanos(virtualNanos) + "] ";
+    }
+}
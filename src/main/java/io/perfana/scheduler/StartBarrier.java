@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.SchedulerExceptionType;
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Lines up the start of the test over several processes, e.g. load injector JVMs that each run
+ * the test goal. One process is the coordinator, the others are participants. Each process arrives
+ * at the barrier after beforeTest of all its events. When all parties have arrived, the coordinator
+ * picks a start instant shortly ahead, so all processes call startTest at the same wall clock time.
+ * <p>
+ * Kill, abort and stop signals of one process are broadcast to all other processes, once per type.
+ */
+abstract class StartBarrier implements AutoCloseable {
+
+    // time between release of the barrier and the start instant, to let the release reach all processes
+    static final long START_LEAD_MILLIS = 500;
+
+    private final String participantId;
+    private final int parties;
+    private final long timeoutMillis;
+    final Log log;
+
+    // signal types that were sent or received, each type is broadcast once
+    private final Set<SchedulerExceptionType> signals = ConcurrentHashMap.newKeySet();
+
+    private volatile Consumer<SchedulerExceptionType> signalListener = type -> { };
+
+    /**
+     * @param parties number of processes, including the coordinator
+     * @param timeoutMillis maximum time to wait for all parties
+     */
+    StartBarrier(String participantId, int parties, long timeoutMillis, Log log) {
+        this.participantId = participantId;
+        this.parties = parties;
+        this.timeoutMillis = timeoutMillis;
+        this.log = log;
+    }
+
+    /**
+     * @return id of this process, unique over the machines that take part
+     */
+    static String processId() {
+        // pid@hostname
+        return ManagementFactory.getRuntimeMXBean().getName();
+    }
+
+    String getParticipantId() {
+        return participantId;
+    }
+
+    int getParties() {
+        return parties;
+    }
+
+    /**
+     * @param listener called with signals broadcast by other processes
+     */
+    void onSignal(Consumer<SchedulerExceptionType> listener) {
+        this.signalListener = listener;
+    }
+
+    /**
+     * Arrive at the barrier and wait until all parties have arrived and the start instant is reached.
+     *
+     * @return the start instant in epoch milliseconds
+     * @throws EventSchedulerRuntimeException when not all parties arrive in time, or another process aborts
+     */
+    long arriveAndAwaitStart() {
+        long deadlineNanos = System.nanoTime() + timeoutMillis * 1_000_000;
+        long startMillis = arrive(deadlineNanos);
+        long waitMillis = startMillis - System.currentTimeMillis();
+        if (waitMillis < 0) {
+            log.warn("Start barrier released " + (-waitMillis) + " ms after the start instant, start now.");
+        }
+        while (waitMillis > 0) {
+            try {
+                Thread.sleep(waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EventSchedulerRuntimeException("Interrupted while waiting for the start instant.");
+            }
+            waitMillis = startMillis - System.currentTimeMillis();
+        }
+        return startMillis;
+    }
+
+    /**
+     * Broadcast a kill, abort or stop signal to the other processes, unless it was sent or received before.
+     */
+    void broadcast(SchedulerExceptionType type) {
+        if (type != SchedulerExceptionType.NONE && signals.add(type)) {
+            send(type);
+        }
+    }
+
+    /**
+     * Called by implementations for a signal from another process.
+     */
+    void received(SchedulerExceptionType type) {
+        if (type != SchedulerExceptionType.NONE && signals.add(type)) {
+            log.info("Start barrier: received " + type + " from another process.");
+            signalListener.accept(type);
+        }
+    }
+
+    /**
+     * @return true when another process aborted or killed its session, so the barrier will not be released
+     */
+    boolean isCancelled() {
+        return signals.contains(SchedulerExceptionType.ABORT) || signals.contains(SchedulerExceptionType.KILL);
+    }
+
+    void checkWaiting(long deadlineNanos, String waitingFor) {
+        if (isCancelled()) {
+            throw new EventSchedulerRuntimeException("Start barrier cancelled: a session was aborted while waiting for " + waitingFor + ".");
+        }
+        if (System.nanoTime() - deadlineNanos > 0) {
+            throw new EventSchedulerRuntimeException("Start barrier timeout after " + timeoutMillis + " ms waiting for " + waitingFor + ".");
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new EventSchedulerRuntimeException("Interrupted while waiting for " + waitingFor + ".");
+        }
+    }
+
+    /**
+     * Wait until all parties have arrived and the coordinator has picked the start instant.
+     *
+     * @return the start instant in epoch milliseconds
+     */
+    abstract long arrive(long deadlineNanos);
+
+    abstract void send(SchedulerExceptionType type);
+
+    @Override
+    public abstract void close();
+}
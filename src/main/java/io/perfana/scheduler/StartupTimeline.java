@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import net.jcip.annotations.GuardedBy;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Timeline of the startup of a session, from the start of the plugin execution until start test,
+ * as phases with their duration. Also records the construction time of each wrapped event.
+ */
+class StartupTimeline {
+
+    static final class Phase {
+        final String name;
+        final long startNanos;
+        final long durationNanos;
+
+        Phase(String name, long startNanos, long durationNanos) {
+            this.name = name;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+        }
+    }
+
+    static final class EventConstruction {
+        final String eventName;
+        final long durationNanos;
+        final boolean lazy;
+
+        EventConstruction(String eventName, long durationNanos, boolean lazy) {
+            this.eventName = eventName;
+            this.durationNanos = durationNanos;
+            this.lazy = lazy;
+        }
+    }
+
+    private final long startNanos;
+
+    @GuardedBy("this")
+    private long lastMarkNanos;
+
+    @GuardedBy("this")
+    private final List<Phase> phases = new ArrayList<>();
+
+    @GuardedBy("this")
+    private final List<EventConstruction> eventConstructions = new ArrayList<>();
+
+    StartupTimeline(long startNanos) {
+        this.startNanos = startNanos;
+        this.lastMarkNanos = startNanos;
+    }
+
+    /**
+     * End the current phase: the phase lasted from the previous mark until now.
+     */
+    synchronized void mark(String phaseName) {
+        long now = System.nanoTime();
+        phases.add(new Phase(phaseName, lastMarkNanos - startNanos, now - lastMarkNanos));
+        lastMarkNanos = now;
+    }
+
+    synchronized void eventConstructed(String eventName, long durationNanos, boolean lazy) {
+        eventConstructions.add(new EventConstruction(eventName, durationNanos, lazy));
+    }
+
+    synchronized List<Phase> getPhases() {
+        return new ArrayList<>(phases);
+    }
+
+    /**
+     * @return event constructions, slowest first
+     */
+    synchronized List<EventConstruction> getEventConstructions() {
+        List<EventConstruction> constructions = new ArrayList<>(eventConstructions);
+        constructions.sort(Comparator.comparingLong((EventConstruction c) -> c.durationNanos).reversed());
+        return constructions;
+    }
+
+    /**
+     * @return time from start until the last mark
+     */
+    synchronized long getTotalNanos() {
+        return lastMarkNanos - startNanos;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reports the startup timeline of a session: logged when the session has started
+ * and optionally written as json to the report directory.
+ */
+final class StartupTimelineReport {
+
+    private StartupTimelineReport() {}
+
+    static void report(StartupTimeline timeline, SessionOptions options, Log log) {
+        log.info(String.format(Locale.ROOT, "=== startup timeline: %s ms until start test ===", Json.millis(timeline.getTotalNanos())));
+        for (StartupTimeline.Phase phase : timeline.getPhases()) {
+            log.info(String.format(Locale.ROOT, "%12s ms  %-40s (at %s ms)", Json.millis(phase.durationNanos), phase.name, Json.millis(phase.startNanos)));
+        }
+        for (StartupTimeline.EventConstruction construction : timeline.getEventConstructions()) {
+            log.info(String.format(Locale.ROOT, "%12s ms    construct event %s%s", Json.millis(construction.durationNanos), construction.eventName, construction.lazy ? " (lazy)" : ""));
+        }
+        if (options.isStartupTimelineReport()) {
+            ReportFiles.writeJson(options, "startup-timeline", toJson(timeline), log);
+        }
+    }
+
+    static String toJson(StartupTimeline timeline) {
+        StringBuilder json = new StringBuilder("{\n")
+                .append("  \"totalMillis\": ").append(Json.millis(timeline.getTotalNanos())).append(",\n")
+                .append("  \"phases\": [");
+        String separator = "\n";
+        for (StartupTimeline.Phase phase : timeline.getPhases()) {
+            json.append(separator)
+                    .append("    { \"phase\": ").append(Json.quote(phase.name))
+                    .append(", \"startMillis\": ").append(Json.millis(phase.startNanos))
+                    .append(", \"durationMillis\": ").append(Json.millis(phase.durationNanos))
+                    .append(" }");
+            separator = ",\n";
+        }
+        json.append("\n  ],\n  \"eventConstructions\": [");
+        List<StartupTimeline.EventConstruction> constructions = timeline.getEventConstructions();
+        separator = "\n";
+        for (StartupTimeline.EventConstruction construction : constructions) {
+            json.append(separator)
+                    .append("    { \"event\": ").append(Json.quote(construction.eventName))
+                    .append(", \"durationMillis\": ").append(Json.millis(construction.durationNanos))
+                    .append(", \"lazy\": ").append(construction.lazy)
+                    .append(" }");
+            separator = ",\n";
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.SchedulerExceptionType;
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+import net.jcip.annotations.GuardedBy;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link StartBarrier} over TCP: the coordinator listens on a host and port, participants connect to it.
+ * The protocol is line based: participants first send {@code HELLO <token>} with the run token shared by
+ * all processes, then {@code ARRIVE <id>}. The coordinator answers all with {@code START <epochMillis>},
+ * and {@code SIGNAL <type>} is relayed by the coordinator to all other processes. The coordinator drops
+ * connections that do not start with the run token, so only processes of the run can release or signal.
+ * The coordinator counts distinct participant ids, and forgets a participant whose connection drops before
+ * the release.
+ */
+class TcpStartBarrier extends StartBarrier {
+
+    private static final long CONNECT_RETRY_MILLIS = 200;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+    private static final long WAIT_MILLIS = 100;
+
+    private final boolean coordinator;
+    private final String host;
+    private final int port;
+    private final String token;
+
+    // null for a participant
+    private final ServerSocket serverSocket;
+
+    // connections to participants, for the coordinator
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+
+    // null for the coordinator, and until connected
+    private volatile Connection coordinatorConnection;
+
+    private final Object startLock = new Object();
+
+    // start instant in epoch millis, 0 until released
+    @GuardedBy("startLock")
+    private long startMillis;
+
+    // ids of the participants that arrived, for the coordinator: a participant counts once,
+    // and no longer when its connection drops before the release
+    @GuardedBy("startLock")
+    private final Set<String> arrived = new HashSet<>();
+
+    @GuardedBy("startLock")
+    private boolean selfArrived;
+
+    private volatile boolean closed;
+
+    private TcpStartBarrier(boolean coordinator, String host, int port, String token, ServerSocket serverSocket, String participantId, int parties, long timeoutMillis, Log log) {
+        super(participantId, parties, timeoutMillis, log);
+        this.coordinator = coordinator;
+        this.host = host;
+        this.port = port;
+        this.token = checkToken(token);
+        this.serverSocket = serverSocket;
+    }
+
+    /**
+     * Listen on the interface of the host and port for participants, port 0 for any free port.
+     * The host should name one interface: the wildcard address is refused.
+     */
+    static TcpStartBarrier coordinator(String host, int port, String token, String participantId, int parties, long timeoutMillis, Log log) {
+        checkToken(token);
+        ServerSocket serverSocket;
+        try {
+            InetAddress address = InetAddress.getByName(host);
+            if (address.isAnyLocalAddress()) {
+                throw new EventSchedulerRuntimeException("Start barrier coordinator should listen on one interface, not on the wildcard address " + host + ".");
+            }
+            serverSocket = new ServerSocket();
+            serverSocket.bind(new InetSocketAddress(address, port));
+        } catch (IOException e) {
+            throw new EventSchedulerRuntimeException("Cannot listen for start barrier participants on " + host + ":" + port + ": " + e.getMessage());
+        }
+        TcpStartBarrier barrier = new TcpStartBarrier(true, host, serverSocket.getLocalPort(), token, serverSocket, participantId, parties, timeoutMillis, log);
+        barrier.startThread("Event-Scheduler-Barrier-Accept-Thread", barrier::acceptLoop);
+        log.info("Start barrier coordinator listening on " + host + ":" + barrier.port + " for " + (parties - 1) + " participants.");
+        return barrier;
+    }
+
+    static TcpStartBarrier participant(String host, int port, String token, String participantId, int parties, long timeoutMillis, Log log) {
+        return new TcpStartBarrier(false, host, port, token, null, participantId, parties, timeoutMillis, log);
+    }
+
+    private static String checkToken(String token) {
+        if (token == null || token.trim().isEmpty() || token.contains(" ")) {
+            throw new EventSchedulerRuntimeException("Start barrier over TCP needs a run token without spaces, shared by all processes of the run.");
+        }
+        return token;
+    }
+
+    /**
+     * @param address host:port
+     * @throws IllegalArgumentException when the address is not host:port
+     */
+    static InetSocketAddress parseAddress(String address) {
+        int colon = address == null ? -1 : address.lastIndexOf(':');
+        if (colon < 1) {
+            throw new IllegalArgumentException("Start barrier address should be host:port, found: " + address);
+        }
+        try {
+            return InetSocketAddress.createUnresolved(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Start barrier address should be host:port, found: " + address);
+        }
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    @Override
+    long arrive(long deadlineNanos) {
+        if (coordinator) {
+            synchronized (startLock) {
+                selfArrived = true;
+                releaseIfComplete();
+            }
+        } else {
+            Connection connection = connect(deadlineNanos);
+            coordinatorConnection = connection;
+            startThread("Event-Scheduler-Barrier-Thread", () -> readLoop(connection));
+            connection.send("HELLO " + token);
+            connection.send("ARRIVE " + getParticipantId());
+        }
+        synchronized (startLock) {
+            while (startMillis == 0) {
+                checkWaiting(deadlineNanos, coordinator ? "participants, " + arrived.size() + " of " + (getParties() - 1) + " arrived" : "the coordinator to release the barrier");
+                try {
+                    startLock.wait(WAIT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return startMillis;
+        }
+    }
+
+    @GuardedBy("startLock")
+    private void releaseIfComplete() {
+        if (startMillis != 0 || !selfArrived || arrived.size() + 1 < getParties()) {
+            return;
+        }
+        startMillis = System.currentTimeMillis() + START_LEAD_MILLIS;
+        log.info("Start barrier: all " + getParties() + " parties arrived, release.");
+        for (Connection connection : connections) {
+            connection.send("START " + startMillis);
+        }
+        startLock.notifyAll();
+    }
+
+    private Connection connect(long deadlineNanos) {
+        while (true) {
+            checkWaiting(deadlineNanos, "the coordinator at " + host + ":" + port);
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                log.info("Start barrier: connected to coordinator at " + host + ":" + port + ".");
+                return new Connection(socket);
+            } catch (IOException e) {
+                closeQuietly(socket);
+                log.debug(">>> Start barrier coordinator not reachable yet: " + e.getMessage());
+                sleep(CONNECT_RETRY_MILLIS);
+            }
+        }
+    }
+
+    @Override
+    void send(SchedulerExceptionType type) {
+        if (coordinator) {
+            for (Connection connection : connections) {
+                connection.send("SIGNAL " + type.name());
+            }
+        } else {
+            Connection connection = coordinatorConnection;
+            if (connection != null) {
+                connection.send("SIGNAL " + type.name());
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                // added to the connections once the run token is checked
+                Connection connection = new Connection(serverSocket.accept());
+                startThread("Event-Scheduler-Barrier-Thread", () -> readLoop(connection));
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Start barrier coordinator stopped accepting participants: " + e.getMessage());
+                }
+                return;
+            }
+        }
+    }
+
+    private void readLoop(Connection connection) {
+        try {
+            String line;
+            while ((line = connection.in.readLine()) != null) {
+                if (coordinator && !connection.accepted) {
+                    if (!accept(connection, line)) {
+                        return;
+                    }
+                    continue;
+                }
+                try {
+                    handle(connection, line);
+                } catch (IllegalArgumentException e) {
+                    log.warn("Start barrier: invalid message ignored: " + line);
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                log.debug(">>> Start barrier connection closed: " + e.getMessage());
+            }
+        } finally {
+            connection.close();
+            connections.remove(connection);
+            if (coordinator) {
+                departed(connection);
+            }
+        }
+    }
+
+    /**
+     * @return true when the first line of the connection has the run token
+     */
+    private boolean accept(Connection connection, String line) {
+        String prefix = "HELLO ";
+        boolean valid = line.startsWith(prefix) && MessageDigest.isEqual(
+                line.substring(prefix.length()).trim().getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+        if (!valid) {
+            log.warn("Start barrier: dropped connection from " + connection.socket.getRemoteSocketAddress() + " without the run token.");
+            return false;
+        }
+        connection.accepted = true;
+        connections.add(connection);
+        return true;
+    }
+
+    private void handle(Connection from, String line) {
+        int space = line.indexOf(' ');
+        String command = space < 0 ? line : line.substring(0, space);
+        String argument = space < 0 ? "" : line.substring(space + 1).trim();
+        switch (command) {
+            case "ARRIVE":
+                synchronized (startLock) {
+                    if (from.participantId != null || !arrived.add(argument)) {
+                        log.warn("Start barrier: " + argument + " arrived twice, counted once.");
+                    } else {
+                        from.participantId = argument;
+                        log.info("Start barrier: " + argument + " arrived (" + arrived.size() + " of " + (getParties() - 1) + " participants).");
+                    }
+                    if (startMillis != 0) {
+                        log.warn("Start barrier: " + argument + " arrived after the release.");
+                        from.send("START " + startMillis);
+                    } else {
+                        releaseIfComplete();
+                    }
+                }
+                break;
+            case "START":
+                synchronized (startLock) {
+                    startMillis = Long.parseLong(argument);
+                    startLock.notifyAll();
+                }
+                break;
+            case "SIGNAL":
+                SchedulerExceptionType type = SchedulerExceptionType.valueOf(argument);
+                if (coordinator) {
+                    for (Connection connection : connections) {
+                        if (connection != from) {
+                            connection.send(line);
+                        }
+                    }
+                }
+                received(type);
+                break;
+            default:
+                log.warn("Start barrier: unknown message ignored: " + line);
+        }
+    }
+
+    private void departed(Connection connection) {
+        synchronized (startLock) {
+            if (startMillis == 0 && connection.participantId != null && arrived.remove(connection.participantId)) {
+                log.warn("Start barrier: " + connection.participantId + " dropped its connection before the release ("
+                        + arrived.size() + " of " + (getParties() - 1) + " participants).");
+            }
+        }
+    }
+
+    private void startThread(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // nothing to do
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (serverSocket != null) {
+            closeQuietly(serverSocket);
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        Connection connection = coordinatorConnection;
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    private final class Connection {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final Writer out;
+        // the coordinator only accepts messages after the run token
+        private volatile boolean accepted;
+        // the id of the participant that arrived on this connection, for the coordinator
+        @GuardedBy("startLock")
+        private String participantId;
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        }
+
+        synchronized void send(String line) {
+            try {
+                out.write(line + "\n");
+                out.flush();
+            } catch (IOException e) {
+                log.warn("Start barrier: failed to send " + line + ": " + e.getMessage());
+            }
+        }
+
+        void close() {
+            closeQuietly(socket);
+        }
+    }
+}
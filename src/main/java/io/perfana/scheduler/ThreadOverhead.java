@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import net.jcip.annotations.GuardedBy;
+import org.apache.maven.plugin.logging.Log;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadInfo;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accounts the cpu time and allocated bytes of the threads that do the work of the plugin and the events
+ * during the test window, from start test until stop or abort, so the overhead of the plugin in the JVM
+ * that runs maven is known.
+ * <p>
+ * Threads are sampled via the {@link com.sun.management.ThreadMXBean} at start, every sample interval
+ * and at the end, so a short-lived thread, e.g. of a custom event, is counted up to its last sample.
+ * Threads are grouped by name; virtual threads are not visible to the thread mx bean and not counted.
+ */
+class ThreadOverhead {
+
+    enum Category {
+        KEEP_ALIVE("keep-alive"),
+        CUSTOM_EVENT("custom-event"),
+        LOGGER("logger"),
+        PLUGIN("other plugin");
+
+        private final String label;
+
+        Category(String label) {
+            this.label = label;
+        }
+
+        String getLabel() {
+            return label;
+        }
+    }
+
+    static final class Usage {
+        final int threads;
+        final long cpuNanos;
+        final long allocatedBytes;
+
+        Usage(int threads, long cpuNanos, long allocatedBytes) {
+            this.threads = threads;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d threads, %s ms cpu, %s allocated", threads, Json.millis(cpuNanos), bytes(allocatedBytes));
+        }
+    }
+
+    private static final class ThreadUsage {
+        final Category category;
+        final long firstCpuNanos;
+        final long firstAllocatedBytes;
+        long lastCpuNanos;
+        long lastAllocatedBytes;
+
+        ThreadUsage(Category category, long firstCpuNanos, long firstAllocatedBytes) {
+            this.category = category;
+            this.firstCpuNanos = firstCpuNanos;
+            this.firstAllocatedBytes = firstAllocatedBytes;
+            this.lastCpuNanos = firstCpuNanos;
+            this.lastAllocatedBytes = firstAllocatedBytes;
+        }
+    }
+
+    private final com.sun.management.ThreadMXBean threadMXBean;
+    private final long sampleIntervalNanos;
+    private final Log log;
+
+    @GuardedBy("this")
+    private final Map<Long, ThreadUsage> threadUsages = new HashMap<>();
+
+    @GuardedBy("this")
+    private Thread sampleThread;
+
+    @GuardedBy("this")
+    private long startNanos;
+
+    @GuardedBy("this")
+    private long windowNanos;
+
+    @GuardedBy("this")
+    private long startProcessCpuNanos;
+
+    @GuardedBy("this")
+    private long processCpuNanos = -1;
+
+    @GuardedBy("this")
+    private boolean ended;
+
+    ThreadOverhead(long sampleIntervalNanos, Log log) {
+        this.threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        this.sampleIntervalNanos = sampleIntervalNanos;
+        this.log = log;
+    }
+
+    /**
+     * @return true when the JVM measures cpu time and allocated bytes per thread
+     */
+    static boolean isSupported() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean
+                && bean.isThreadCpuTimeSupported()
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported();
+    }
+
+    /**
+     * @return the category of a thread of the plugin or the event scheduler by its name, null for other threads
+     */
+    static Category categoryOf(String threadName) {
+        if (threadName == null) {
+            return null;
+        }
+        if (threadName.startsWith("Keep-Alive-Thread")) {
+            return Category.KEEP_ALIVE;
+        }
+        if (threadName.startsWith("Custom-Event-")) {
+            return Category.CUSTOM_EVENT;
+        }
+        if (threadName.equals("Event-Logger-Thread") || threadName.equals("Event-Journal-Thread")) {
+            return Category.LOGGER;
+        }
+        if (threadName.startsWith("Event-") || threadName.startsWith("Incremental-Check-")) {
+            return Category.PLUGIN;
+        }
+        return null;
+    }
+
+    /**
+     * Start the accounting at start test, at most once. The window is counted from start test,
+     * as the other reports of the session.
+     */
+    synchronized void start(long startTestNanos) {
+        if (sampleThread != null || ended) {
+            return;
+        }
+        if (!threadMXBean.isThreadCpuTimeEnabled()) {
+            threadMXBean.setThreadCpuTimeEnabled(true);
+        }
+        if (!threadMXBean.isThreadAllocatedMemoryEnabled()) {
+            threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        }
+        startNanos = startTestNanos;
+        startProcessCpuNanos = processCpuTime();
+        sample(true);
+        sampleThread = new Thread(this::sampleLoop, "Event-Scheduler-Overhead-Thread");
+        sampleThread.setDaemon(true);
+        sampleThread.start();
+    }
+
+    private void sampleLoop() {
+        while (true) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(sampleIntervalNanos);
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (this) {
+                if (ended) {
+                    return;
+                }
+                sample(false);
+            }
+        }
+    }
+
+    /**
+     * End the accounting at stop or abort, at most once.
+     */
+    synchronized void stop() {
+        if (sampleThread == null || ended) {
+            ended = true;
+            return;
+        }
+        sample(false);
+        ended = true;
+        windowNanos = System.nanoTime() - startNanos;
+        long processCpuTime = processCpuTime();
+        processCpuNanos = processCpuTime < 0 || startProcessCpuNanos < 0 ? -1 : processCpuTime - startProcessCpuNanos;
+        sampleThread.interrupt();
+    }
+
+    /**
+     * @param first true at the start of the window: threads that exist then only count from now on,
+     *              threads that are seen later started in the window and count from zero
+     */
+    @GuardedBy("this")
+    private void sample(boolean first) {
+        long[] threadIds = threadMXBean.getAllThreadIds();
+        ThreadInfo[] threadInfos = threadMXBean.getThreadInfo(threadIds, 0);
+        long[] cpuNanos = threadMXBean.getThreadCpuTime(threadIds);
+        long[] allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadIds);
+        for (int i = 0; i < threadIds.length; i++) {
+            // -1 when the thread has ended meanwhile
+            if (threadInfos[i] == null || cpuNanos[i] < 0 || allocatedBytes[i] < 0) {
+                continue;
+            }
+            ThreadUsage usage = threadUsages.get(threadIds[i]);
+            if (usage == null) {
+                Category category = categoryOf(threadInfos[i].getThreadName());
+                if (category == null) {
+                    continue;
+                }
+                usage = first ? new ThreadUsage(category, cpuNanos[i], allocatedBytes[i]) : new ThreadUsage(category, 0, 0);
+                threadUsages.put(threadIds[i], usage);
+            }
+            usage.lastCpuNanos = cpuNanos[i];
+            usage.lastAllocatedBytes = allocatedBytes[i];
+        }
+    }
+
+    /**
+     * @return usage per category of the threads in the test window, only categories with threads
+     */
+    synchronized Map<Category, Usage> getUsage() {
+        Map<Category, int[]> threads = new EnumMap<>(Category.class);
+        Map<Category, long[]> totals = new EnumMap<>(Category.class);
+        for (ThreadUsage usage : threadUsages.values()) {
+            threads.computeIfAbsent(usage.category, c -> new int[1])[0]++;
+            long[] total = totals.computeIfAbsent(usage.category, c -> new long[2]);
+            total[0] += usage.lastCpuNanos - usage.firstCpuNanos;
+            total[1] += usage.lastAllocatedBytes - usage.firstAllocatedBytes;
+        }
+        Map<Category, Usage> usages = new EnumMap<>(Category.class);
+        totals.forEach((category, total) -> usages.put(category, new Usage(threads.get(category)[0], total[0], total[1])));
+        return usages;
+    }
+
+    synchronized Usage getTotal() {
+        int threads = 0;
+        long cpuNanos = 0;
+        long allocatedBytes = 0;
+        for (Usage usage : getUsage().values()) {
+            threads += usage.threads;
+            cpuNanos += usage.cpuNanos;
+            allocatedBytes += usage.allocatedBytes;
+        }
+        return new Usage(threads, cpuNanos, allocatedBytes);
+    }
+
+    /**
+     * @return length of the test window, 0 when not ended
+     */
+    synchronized long getWindowNanos() {
+        return windowNanos;
+    }
+
+    /**
+     * @return cpu time of the whole JVM in the test window, -1 when unknown
+     */
+    synchronized long getProcessCpuNanos() {
+        return processCpuNanos;
+    }
+
+    /**
+     * @return true when the test window started and ended
+     */
+    synchronized boolean isMeasured() {
+        return ended && sampleThread != null;
+    }
+
+    void report(SessionOptions options) {
+        if (!isMeasured()) {
+            log.debug(">>> No plugin overhead report: the test window did not start.");
+            return;
+        }
+        Usage total = getTotal();
+        long processCpu = getProcessCpuNanos();
+        String share = processCpu > 0
+                ? String.format(Locale.ROOT, " (%.1f%% of the cpu time of the JVM)", 100.0 * total.cpuNanos / processCpu)
+                : "";
+        log.info(String.format(Locale.ROOT, "=== plugin overhead in test window of %.1f s: %s%s ===",
+                getWindowNanos() / 1_000_000_000.0, total, share));
+        for (Map.Entry<Category, Usage> entry : getUsage().entrySet()) {
+            log.info(String.format(Locale.ROOT, "%14s: %s", entry.getKey().getLabel(), entry.getValue()));
+        }
+        ReportFiles.writeJson(options, "plugin-overhead", toJson(), log);
+    }
+
+    String toJson() {
+        Usage total = getTotal();
+        StringBuilder json = new StringBuilder("{\n")
+                .append("  \"windowMillis\": ").append(Json.millis(getWindowNanos())).append(",\n")
+                .append("  \"processCpuMillis\": ").append(getProcessCpuNanos() < 0 ? "null" : Json.millis(getProcessCpuNanos())).append(",\n")
+                .append("  \"cpuMillis\": ").append(Json.millis(total.cpuNanos)).append(",\n")
+                .append("  \"allocatedBytes\": ").append(total.allocatedBytes).append(",\n")
+                .append("  \"categories\": [");
+        String separator = "\n";
+        for (Map.Entry<Category, Usage> entry : getUsage().entrySet()) {
+            Usage usage = entry.getValue();
+            json.append(separator)
+                    .append("    { \"category\": ").append(Json.quote(entry.getKey().getLabel()))
+                    .append(", \"threads\": ").append(usage.threads)
+                    .append(", \"cpuMillis\": ").append(Json.millis(usage.cpuNanos))
+                    .append(", \"allocatedBytes\": ").append(usage.allocatedBytes)
+                    .append(" }");
+            separator = ",\n";
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+
+    private static long processCpuTime() {
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    static String bytes(long bytes) {
+        if (bytes < 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        }
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.config.EventSchedulerConfig;
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.util.List;
+
+/**
+ * Checks the event scheduler config without running a session: parses the schedule scripts,
+ * loads the event factories and prints the resolved timeline with the total duration.
+ * Fails the build on an invalid config.
+ */
+@Mojo( name = "validate", defaultPhase = LifecyclePhase.VALIDATE )
+public class ValidateMojo extends AbstractEventSchedulerMojo {
+
+    @Parameter(required = true)
+    EventSchedulerConfig eventSchedulerConfig;
+
+    @Override
+    public void execute() {
+        getLog().info("Validate event-scheduler-maven-plugin config");
+
+        List<String> problems = new SessionValidator(eventSchedulerConfig, sessionOptions(), getLog()).validate();
+        if (!problems.isEmpty()) {
+            problems.forEach(problem -> getLog().error(problem));
+            throw new EventSchedulerRuntimeException("Invalid event scheduler config, " + problems.size() + " problem(s) found: " + String.join("; ", problems));
+        }
+        getLog().info("Event scheduler config is valid.");
+    }
+
+}
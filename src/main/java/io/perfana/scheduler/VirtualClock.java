@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clock of a simulated session: virtual time runs a number of times faster than real time,
+ * or jumps straight to the next moment that something happens.
+ * <p>
+ * Only the thread that drives the simulation advances the clock.
+ */
+class VirtualClock {
+
+    private final double speedUp;
+    private final SchedulerSignal signal;
+    private final long realStartNanos;
+
+    // virtual time in jump mode
+    private long jumpedNanos;
+
+    /**
+     * @param speedUp virtual seconds per real second, {@link Double#POSITIVE_INFINITY} to jump
+     * @param signal wakes up the clock while advancing, e.g. on a kill of the session
+     */
+    VirtualClock(double speedUp, SchedulerSignal signal) {
+        if (!(speedUp > 0)) {
+            throw new IllegalArgumentException("speed up must be positive: " + speedUp);
+        }
+        this.speedUp = speedUp;
+        this.signal = signal;
+        this.realStartNanos = System.nanoTime();
+    }
+
+    static VirtualClock jumping(SchedulerSignal signal) {
+        return new VirtualClock(Double.POSITIVE_INFINITY, signal);
+    }
+
+    double getSpeedUp() {
+        return speedUp;
+    }
+
+    boolean isJumping() {
+        return speedUp == Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return virtual time since the start of the clock
+     */
+    long elapsedNanos() {
+        if (isJumping()) {
+            return jumpedNanos;
+        }
+        return (long) ((System.nanoTime() - realStartNanos) * speedUp);
+    }
+
+    /**
+     * Wait until the virtual time is reached, or until a signal arrives.
+     *
+     * @return true when the virtual time is reached, false when woken up by a signal before
+     */
+    boolean advanceTo(long virtualNanos) throws InterruptedException {
+        if (isJumping()) {
+            jumpedNanos = Math.max(jumpedNanos, virtualNanos);
+            return true;
+        }
+        long remainingRealNanos = realStartNanos + (long) (virtualNanos / speedUp) - System.nanoTime();
+        if (remainingRealNanos > 0) {
+            // round up, so the virtual time is reached when the wait times out
+            signal.await(TimeUnit.NANOSECONDS.toMillis(remainingRealNanos) + 1);
+        }
+        return elapsedNanos() >= virtualNanos;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.Event;
+import io.perfana.eventscheduler.api.EventAdapter;
+import io.perfana.eventscheduler.api.EventCheck;
+import io.perfana.eventscheduler.api.EventLogger;
+import io.perfana.eventscheduler.api.EventStatus;
+import io.perfana.eventscheduler.api.config.EventContext;
+import io.perfana.eventscheduler.api.config.TestContext;
+import io.perfana.eventscheduler.api.message.EventMessageBus;
+
+import java.util.Collection;
+
+/**
+ * Wraps an event created by its own factory, and records the duration of each callback
+ * and the drift of scheduled custom events. With parallel broadcast enabled, the lifecycle
+ * callbacks are handed to the {@link ParallelBroadcast} of the session. With a deadline for
+ * the event, each callback runs via the {@link EventDeadlines} of the session. A lazy event
+ * is constructed on beforeTest, see {@link LazyEvent}. Keep-alives run via a {@link KeepAliveGuard}
+ * when the session guards keep-alives. Finished callbacks are recorded in the {@link EventJournal}
+ * of the session, if any.
+ */
+class WrappedEvent extends EventAdapter<EventContext> {
+
+    // null for a lazy event
+    private final Event delegate;
+    // null unless the event is constructed on first use
+    private final LazyEvent lazyDelegate;
+    private final String name;
+    private final LatencyHistogram[] latencies;
+    private final ScheduleDrift scheduleDrift;
+    private final SchedulerSession session;
+    private final SessionFeatures features;
+    private final EventDeadlines deadlines;
+    // 0 for no deadline
+    private final long timeoutMillis;
+    // null when keep-alives are not guarded
+    private final KeepAliveGuard keepAliveGuard;
+    // null when there is no journal
+    private final EventJournal journal;
+
+    WrappedEvent(EventContext context, TestContext testContext, EventMessageBus messageBus, EventLogger logger, Event delegate, SchedulerSession session) {
+        this(context, testContext, messageBus, logger, delegate, null, session);
+    }
+
+    WrappedEvent(EventContext context, TestContext testContext, EventMessageBus messageBus, EventLogger logger, LazyEvent lazyDelegate, SchedulerSession session) {
+        this(context, testContext, messageBus, logger, null, lazyDelegate, session);
+    }
+
+    private WrappedEvent(EventContext context, TestContext testContext, EventMessageBus messageBus, EventLogger logger, Event delegate, LazyEvent lazyDelegate, SchedulerSession session) {
+        super(context, testContext, messageBus, logger);
+        this.delegate = delegate;
+        this.lazyDelegate = lazyDelegate;
+        this.name = context.getName();
+        SessionFeatures features = session.getFeatures();
+        this.latencies = features.getEventLatencies().histogramsFor(context.getName());
+        this.scheduleDrift = features.getScheduleDrift();
+        this.session = session;
+        this.features = features;
+        this.deadlines = features.getEventDeadlines();
+        this.timeoutMillis = deadlines == null ? 0 : deadlines.timeoutMillisFor(context.getName());
+        KeepAliveGuards keepAliveGuards = features.getKeepAliveGuards();
+        this.keepAliveGuard = keepAliveGuards == null ? null : keepAliveGuards.guardFor(context.getName());
+        this.journal = features.getJournal();
+    }
+
+    Event getDelegate() {
+        return delegate != null ? delegate : lazyDelegate.get();
+    }
+
+    private void record(EventPhase phase, long startNanos) {
+        record(phase, startNanos, null);
+    }
+
+    private void record(EventPhase phase, long startNanos, String detail) {
+        long durationNanos = System.nanoTime() - startNanos;
+        latencies[phase.ordinal()].record(durationNanos);
+        if (journal != null) {
+            journal.callback(phase, getName(), detail, durationNanos);
+        }
+    }
+
+    private void invoke(EventPhase phase, Runnable callback) {
+        long startNanos = System.nanoTime();
+        try {
+            if (timeoutMillis > 0) {
+                deadlines.run(getName(), phase, timeoutMillis, callback);
+            } else {
+                callback.run();
+            }
+        } finally {
+            record(phase, startNanos);
+        }
+    }
+
+    private void broadcast(EventPhase phase, Runnable callback) {
+        Runnable timedCallback = () -> invoke(phase, callback);
+        ParallelBroadcast parallelBroadcast = phase == EventPhase.ABORT_TEST ? features.getAbortBroadcast() : features.getParallelBroadcast();
+        if (parallelBroadcast == null) {
+            timedCallback.run();
+        } else {
+            parallelBroadcast.submit(getName(), timedCallback);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return delegate != null ? delegate.getName() : name;
+    }
+
+    @Override
+    public void beforeTest() {
+        if (lazyDelegate != null) {
+            // construct and run beforeTest off the critical path to start test, the next callback waits for it
+            lazyDelegate.constructAsync(event -> invoke(EventPhase.BEFORE_TEST, event::beforeTest));
+            return;
+        }
+        broadcast(EventPhase.BEFORE_TEST, delegate::beforeTest);
+    }
+
+    @Override
+    public void startTest() {
+        if (session.isStartCancelled()) {
+            logger.warn("Skip startTest of " + getName() + ": the start of the test was cancelled.");
+            return;
+        }
+        broadcast(EventPhase.START_TEST, () -> getDelegate().startTest());
+    }
+
+    @Override
+    public void keepAlive() {
+        if (keepAliveGuard != null) {
+            keepAliveGuard.run(this::timedKeepAlive);
+        } else {
+            timedKeepAlive();
+        }
+    }
+
+    private void timedKeepAlive() {
+        if (timeoutMillis > 0) {
+            invoke(EventPhase.KEEP_ALIVE, () -> getDelegate().keepAlive());
+            return;
+        }
+        long startNanos = System.nanoTime();
+        try {
+            getDelegate().keepAlive();
+        } finally {
+            record(EventPhase.KEEP_ALIVE, startNanos);
+        }
+    }
+
+    @Override
+    public void customEvent(CustomEvent customEvent) {
+        long startNanos = System.nanoTime();
+        scheduleDrift.record(getName(), customEvent, startNanos);
+        try {
+            if (timeoutMillis > 0) {
+                deadlines.run(getName(), EventPhase.CUSTOM_EVENT, timeoutMillis, () -> getDelegate().customEvent(customEvent));
+            } else {
+                getDelegate().customEvent(customEvent);
+            }
+        } finally {
+            record(EventPhase.CUSTOM_EVENT, startNanos, customEvent.getName());
+        }
+    }
+
+    @Override
+    public void afterTest() {
+        broadcast(EventPhase.AFTER_TEST, () -> getDelegate().afterTest());
+    }
+
+    @Override
+    public void abortTest() {
+        broadcast(EventPhase.ABORT_TEST, () -> {
+            getDelegate().abortTest();
+            session.abortFinished(getName());
+        });
+    }
+
+    @Override
+    public EventCheck check() {
+        long startNanos = System.nanoTime();
+        EventCheck eventCheck = null;
+        try {
+            if (timeoutMillis > 0) {
+                EventCheck timedOut = new EventCheck(getName(), "deadline", EventStatus.FAILURE, "check did not finish within " + timeoutMillis + " ms");
+                eventCheck = deadlines.call(getName(), EventPhase.CHECK, timeoutMillis, () -> getDelegate().check(), timedOut);
+            } else {
+                eventCheck = getDelegate().check();
+            }
+            return eventCheck;
+        } finally {
+            record(EventPhase.CHECK, startNanos, eventCheck == null ? null : eventCheck.getEventStatus() + " " + eventCheck.getMessage());
+        }
+    }
+
+    @Override
+    public Collection<String> allowedProperties() {
+        return getDelegate().allowedProperties();
+    }
+
+    @Override
+    public Collection<String> allowedCustomEvents() {
+        return getDelegate().allowedCustomEvents();
+    }
+
+    @Override
+    public String toString() {
+        return "WrappedEvent (" + (delegate != null ? delegate : "lazy " + name) + ")";
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.Event;
+import io.perfana.eventscheduler.api.EventFactory;
+import io.perfana.eventscheduler.api.EventLogger;
+import io.perfana.eventscheduler.api.config.EventContext;
+import io.perfana.eventscheduler.api.config.TestContext;
+import io.perfana.eventscheduler.api.message.EventMessageBus;
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+
+/**
+ * Replaces the event factory of configured events, to wrap each event created by the original
+ * factory in a {@link WrappedEvent}. The session that is creating its event scheduler on the
+ * current thread knows the original factory of each event.
+ */
+public class WrappingEventFactory implements EventFactory<EventContext> {
+
+    public Event create(EventContext context, TestContext testContext, EventMessageBus messageBus, EventLogger logger) {
+        SchedulerSession session = SchedulerSession.creatingEvents();
+        if (session == null) {
+            throw new EventSchedulerRuntimeException("Cannot create wrapped event " + context.getName() + ": no scheduler session is creating events on this thread.");
+        }
+        String factoryClassName = session.getOriginalEventFactory(context.getName());
+        if (factoryClassName == null) {
+            throw new EventSchedulerRuntimeException("Cannot create wrapped event " + context.getName() + ": original event factory unknown in " + session + ".");
+        }
+        EventFactory<EventContext> factory = EventFactories.load(factoryClassName);
+        WrappedEvent wrappedEvent;
+        SessionFeatures features = session.getFeatures();
+        if (features.isLazyEvent(context.getName())) {
+            LazyEvent lazyEvent = new LazyEvent(context.getName(), () -> factory.create(context, testContext, messageBus, logger), features.getLazyEventExecutor(), session.getStartupTimeline());
+            wrappedEvent = new WrappedEvent(context, testContext, messageBus, logger, lazyEvent, session);
+        } else {
+            long startNanos = System.nanoTime();
+            Event delegate = factory.create(context, testContext, messageBus, logger);
+            session.getStartupTimeline().eventConstructed(context.getName(), System.nanoTime() - startNanos, false);
+            wrappedEvent = new WrappedEvent(context, testContext, messageBus, logger, delegate, session);
+        }
+        session.addWrappedEvent(wrappedEvent);
+        return wrappedEvent;
+    }
+
+    public String toString() {
+        return "WrappingEventFactory";
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.EventLogger;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AsyncEventLoggerTest {
+
+    /**
+     * Records messages, and blocks writing until released.
+     */
+    private static class BlockingEventLogger implements EventLogger {
+        private final List<String> messages = new CopyOnWriteArrayList<>();
+        private final CountDownLatch release;
+        private final AtomicInteger writing = new AtomicInteger();
+        private final AtomicInteger overlaps = new AtomicInteger();
+
+        BlockingEventLogger(boolean blocked) {
+            this.release = new CountDownLatch(blocked ? 1 : 0);
+        }
+
+        private void record(String message) {
+            if (writing.getAndIncrement() > 0) {
+                overlaps.incrementAndGet();
+            }
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            messages.add(message);
+            writing.decrementAndGet();
+        }
+
+        @Override public void info(String message) { record("info:" + message); }
+        @Override public void warn(String message) { record("warn:" + message); }
+        @Override public void error(String message) { record("error:" + message); }
+        @Override public void error(String message, Throwable throwable) { record("error:" + message); }
+        @Override public void debug(String message) { record("debug:" + message); }
+        @Override public boolean isDebugEnabled() { return true; }
+    }
+
+    @Test
+    public void writesAllMessagesInOrder() {
+        BlockingEventLogger target = new BlockingEventLogger(false);
+        AsyncEventLogger logger = new AsyncEventLogger(target, 16, LogOverflowPolicy.BLOCK);
+        for (int i = 0; i < 1000; i++) {
+            logger.info("message " + i);
+        }
+        logger.close();
+
+        assertEquals(1000, target.messages.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("info:message " + i, target.messages.get(i));
+        }
+        assertEquals(0, logger.getDroppedCount());
+    }
+
+    @Test
+    public void doesNotBlockCallerOnSlowTarget() {
+        BlockingEventLogger target = new BlockingEventLogger(true);
+        AsyncEventLogger logger = new AsyncEventLogger(target, 16, LogOverflowPolicy.DROP_OLDEST);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            logger.info("message " + i);
+        }
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("logging blocked for " + durationMillis + " ms", durationMillis < 1000);
+
+        target.release.countDown();
+        logger.close();
+
+        // writer holds one message while blocked, queue holds the newest 16
+        assertTrue(logger.getDroppedCount() > 0);
+        assertEquals(100, target.messages.size() + logger.getDroppedCount());
+        assertEquals("info:message 99", target.messages.get(target.messages.size() - 1));
+    }
+
+    @Test
+    public void dropsOnlyDebugMessages() {
+        BlockingEventLogger target = new BlockingEventLogger(true);
+        AsyncEventLogger logger = new AsyncEventLogger(target, 4, LogOverflowPolicy.DROP_DEBUG);
+
+        for (int i = 0; i < 50; i++) {
+            logger.debug("debug " + i);
+        }
+        target.release.countDown();
+        logger.info("info after debug");
+        logger.close();
+
+        assertTrue(logger.getDroppedCount() > 0);
+        assertEquals("info:info after debug", target.messages.get(target.messages.size() - 1));
+        assertEquals(50, target.messages.size() - 1 + logger.getDroppedCount());
+    }
+
+    @Test
+    public void writesDirectlyAfterClose() {
+        BlockingEventLogger target = new BlockingEventLogger(false);
+        AsyncEventLogger logger = new AsyncEventLogger(target, 4, LogOverflowPolicy.BLOCK);
+        logger.close();
+        logger.warn("late message");
+        assertEquals("warn:late message", target.messages.get(0));
+    }
+
+    @Test
+    public void closeDoesNotWaitForeverForBlockedLoggingThread() throws Exception {
+        BlockingEventLogger target = new BlockingEventLogger(true);
+        AsyncEventLogger logger = new AsyncEventLogger(target, 1, LogOverflowPolicy.BLOCK, 200);
+        logger.info("taken by the writer thread");
+        Thread.sleep(100);
+        logger.info("queued");
+        // waits for room on the queue, holding the read lock of close
+        Thread blocked = new Thread(() -> logger.info("blocked"));
+        blocked.start();
+        Thread.sleep(100);
+
+        Thread release = new Thread(() -> {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            target.release.countDown();
+        });
+        release.start();
+
+        long start = System.nanoTime();
+        logger.close();
+        long closeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        blocked.join(5000);
+        logger.info("after close");
+
+        assertTrue("close took " + closeMillis + " ms", closeMillis < 4000);
+        assertFalse(blocked.isAlive());
+        assertEquals(0, logger.getDroppedCount());
+        for (String message : new String[] { "taken by the writer thread", "queued", "blocked", "after close" }) {
+            assertTrue(target.messages.toString(), target.messages.contains("info:" + message));
+        }
+        assertTrue(target.messages.toString(), target.messages.stream().anyMatch(m -> m.startsWith("warn:Async event logger: close timed out")));
+        assertEquals(0, target.overlaps.get());
+    }
+
+    @Test
+    public void noMessageLostWhenLoggingDuringClose() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            BlockingEventLogger target = new BlockingEventLogger(false);
+            AsyncEventLogger logger = new AsyncEventLogger(target, 16, LogOverflowPolicy.BLOCK);
+            int threads = 4;
+            int messagesPerThread = 500;
+            CountDownLatch started = new CountDownLatch(threads);
+            List<Thread> producers = new CopyOnWriteArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                Thread producer = new Thread(() -> {
+                    started.countDown();
+                    for (int i = 0; i < messagesPerThread; i++) {
+                        logger.info(thread + "-" + i);
+                    }
+                });
+                producers.add(producer);
+                producer.start();
+            }
+            started.await();
+            logger.close();
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            assertEquals("round " + round, threads * messagesPerThread, target.messages.size());
+            assertEquals("round " + round, threads * messagesPerThread, new HashSet<>(target.messages).size());
+            assertEquals("writes to the target interleaved in round " + round, 0, target.overlaps.get());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.EventAdapter;
+import io.perfana.eventscheduler.api.config.EventContext;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CustomEventDispatcherTest {
+
+    private static final long MAX_DRIFT_MILLIS = 20;
+
+    private static class RecordingEvent extends EventAdapter<EventContext> {
+        private final String name;
+        private final long sleepMillis;
+        private final List<Long> receivedNanos = new CopyOnWriteArrayList<>();
+        private final CountDownLatch received;
+
+        RecordingEvent(String name, long sleepMillis, int expectedEvents) {
+            super(null, null, null, null);
+            this.name = name;
+            this.sleepMillis = sleepMillis;
+            this.received = new CountDownLatch(expectedEvents);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void customEvent(CustomEvent customEvent) {
+            receivedNanos.add(System.nanoTime());
+            received.countDown();
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Test
+    public void firesOnTimeDespiteSlowEvent() throws Exception {
+        List<CustomEvent> schedule = ScheduleScripts.parse(
+                "PT0.1S|first|a=1\n" +
+                "# comment line\n" +
+                "PT0.05S|zero|a=0\n" +
+                "PT0.15S|second|a=2\n");
+        assertEquals(3, schedule.size());
+        assertEquals("zero", schedule.get(0).getName());
+
+        RecordingEvent slowEvent = new RecordingEvent("slow", 500, 1);
+        RecordingEvent fastEvent = new RecordingEvent("fast", 0, 3);
+
+        CustomEventDispatcher dispatcher = new CustomEventDispatcher(schedule, Arrays.asList(slowEvent, fastEvent), new SystemStreamLog());
+        long startNanos = System.nanoTime();
+        dispatcher.start(startNanos);
+        try {
+            assertTrue("not all custom events received", fastEvent.received.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < schedule.size(); i++) {
+                long plannedNanos = schedule.get(i).getDuration().toNanos();
+                long driftMillis = TimeUnit.NANOSECONDS.toMillis(fastEvent.receivedNanos.get(i) - startNanos - plannedNanos);
+                System.out.println("Drift of " + schedule.get(i).getName() + ": " + driftMillis + " ms");
+                assertTrue("fired early: " + driftMillis + " ms", driftMillis >= 0);
+                assertTrue("fired too late: " + driftMillis + " ms", driftMillis < MAX_DRIFT_MILLIS);
+            }
+        } finally {
+            dispatcher.stop();
+        }
+    }
+
+    @Test
+    public void scheduleDriftIsRecordedRelativeToStartTest() {
+        ScheduleDrift scheduleDrift = new ScheduleDrift();
+        CustomEvent customEvent = ScheduleScripts.parse("PT1S|hello|").get(0);
+
+        scheduleDrift.record("event", customEvent, System.nanoTime());
+        assertEquals(1, scheduleDrift.getBeforeStartCount());
+        assertEquals(0, scheduleDrift.getCount());
+
+        long start = 1_000_000_000L;
+        scheduleDrift.startTest(start);
+        scheduleDrift.record("event", customEvent, start + TimeUnit.MILLISECONDS.toNanos(1005));
+        scheduleDrift.record("event", customEvent, start + TimeUnit.MILLISECONDS.toNanos(998));
+
+        assertEquals(2, scheduleDrift.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), scheduleDrift.getLateness().getMaxNanos());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(2), scheduleDrift.getEarliness().getMaxNanos());
+        assertEquals(2, scheduleDrift.getDetails().size());
+    }
+
+    @Test(expected = io.perfana.eventscheduler.exception.EventSchedulerRuntimeException.class)
+    public void invalidScheduleLineIsReported() {
+        ScheduleScripts.parse("PT1S|ok|\nthis is not a schedule line\n");
+    }
+}
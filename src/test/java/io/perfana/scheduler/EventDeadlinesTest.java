@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class EventDeadlinesTest {
+
+    private EventDeadlines deadlines;
+
+    @Before
+    public void setUp() {
+        deadlines = new EventDeadlines(PluginExecutors.newThreadPerTaskExecutor("test-deadline-"), 100, Collections.singletonMap("slowEvent", 0L), new SystemStreamLog());
+    }
+
+    @After
+    public void tearDown() {
+        deadlines.shutdown();
+    }
+
+    @Test
+    public void timeoutPerEvent() {
+        assertEquals(100, deadlines.timeoutMillisFor("anyEvent"));
+        assertEquals(0, deadlines.timeoutMillisFor("slowEvent"));
+    }
+
+    @Test
+    public void overrunIsInterruptedAndReported() throws Exception {
+        AtomicBoolean interrupted = new AtomicBoolean();
+        long start = System.nanoTime();
+        String result = deadlines.call("hangingEvent", EventPhase.AFTER_TEST, 100, () -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+            return "done";
+        }, "timeout");
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals("timeout", result);
+        assertTrue("waited too long: " + durationMillis + " ms", durationMillis < 5000);
+        assertEquals(1, deadlines.getOverruns().size());
+        assertTrue(deadlines.getOverruns().get(0).startsWith("hangingEvent.afterTest"));
+
+        Thread.sleep(200);
+        assertTrue("hanging callback is not interrupted", interrupted.get());
+    }
+
+    @Test
+    public void otherEventsContinueAfterOverrun() {
+        deadlines.run("hangingEvent", EventPhase.BEFORE_TEST, 50, () -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertEquals("ok", deadlines.call("fastEvent", EventPhase.BEFORE_TEST, 1000, () -> "ok", "timeout"));
+        assertEquals(1, deadlines.getOverruns().size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void exceptionOfCallbackIsRethrown() {
+        deadlines.run("failingEvent", EventPhase.START_TEST, 1000, () -> {
+            throw new IllegalStateException("fail");
+        });
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.EventFactory;
+import io.perfana.eventscheduler.api.config.EventContext;
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+import org.junit.Test;
+
+
+import static org.junit.Assert.*;
+
+public class EventFactoriesTest {
+
+    private static final String FACTORY_CLASS_NAME = SchedulerSpyEventFactory.class.getName();
+
+    @Test
+    public void loadCreatesNewFactory() {
+        EventFactory<EventContext> factory1 = EventFactories.load(FACTORY_CLASS_NAME);
+        EventFactory<EventContext> factory2 = EventFactories.load(FACTORY_CLASS_NAME);
+
+        assertEquals(SchedulerSpyEventFactory.class, factory1.getClass());
+        assertNotSame(factory1, factory2);
+        assertTrue(EventFactories.cachedClassLoaderCount() >= 1);
+        assertTrue(EventFactories.cachedClassCount() >= 1);
+    }
+
+    @Test(expected = EventSchedulerRuntimeException.class)
+    public void unknownFactory() {
+        EventFactories.load("io.perfana.scheduler.DoesNotExistEventFactory");
+    }
+
+    /**
+     * Repeated loads resolve the factory class from the cache, no new class lookups are cached.
+     */
+    @Test
+    public void repeatedLoadUsesCache() {
+        String className = WrappingEventFactory.class.getName();
+        EventFactories.load(className);
+        int cachedClasses = EventFactories.cachedClassCount();
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(WrappingEventFactory.class, EventFactories.load(className).getClass());
+        }
+        assertEquals(cachedClasses, EventFactories.cachedClassCount());
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class EventJournalTest {
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("event-journal-test");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void writeAndRead() throws IOException {
+        File file = new File(directory.toFile(), "event-scheduler/event-journal.tsv");
+        EventJournal journal = EventJournal.open(file, new SystemStreamLog());
+        assertNotNull(journal);
+
+        journal.session("start");
+        journal.callback(EventPhase.BEFORE_TEST, "event1", null, 1_000_000);
+        journal.session(EventJournal.TEST_STARTED);
+        journal.callback(EventPhase.CUSTOM_EVENT, "event1", "restart\twith\\tab", 2_000_000);
+        journal.callback(EventPhase.KEEP_ALIVE, "event1", null, 500_000);
+        journal.signal("STOP");
+        journal.callback(EventPhase.CHECK, "event1", "-", 300_000);
+        journal.close();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(EventJournal.HEADER, lines.get(0));
+        assertEquals(2 + 7, lines.size());
+        assertEquals(7, journal.getWrittenCount());
+        assertEquals(0, journal.getDroppedCount());
+
+        List<EventJournal.Entry> entries = EventJournalReader.read(file);
+        assertEquals(7, entries.size());
+        EventJournal.Entry customEvent = entries.get(3);
+        assertEquals("customEvent", customEvent.getType());
+        assertEquals("event1", customEvent.getEvent());
+        assertEquals("restart\twith\\tab", customEvent.getDetail());
+        assertEquals(2_000_000, customEvent.getDurationNanos());
+        assertNull(entries.get(0).getEvent());
+        assertEquals(-1, entries.get(0).getDurationNanos());
+        assertEquals("-", entries.get(6).getDetail());
+        for (int i = 1; i < entries.size(); i++) {
+            assertTrue("monotonic timestamps", entries.get(i).getMonoNanos() >= entries.get(i - 1).getMonoNanos());
+        }
+    }
+
+    @Test
+    public void entriesAfterCloseAreDropped() {
+        EventJournal journal = EventJournal.open(new File(directory.toFile(), "event-journal.tsv"), new SystemStreamLog());
+        assertNotNull(journal);
+        journal.close();
+        journal.session("late");
+        assertEquals(1, journal.getDroppedCount());
+    }
+
+    /**
+     * An abort or shutdown hook thread can record while the session closes the journal:
+     * each entry is either written or counted as dropped.
+     */
+    @Test
+    public void noEntryLostWhenRecordingDuringClose() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            File file = new File(directory.toFile(), "event-journal-" + round + ".tsv");
+            EventJournal journal = EventJournal.open(file, new SystemStreamLog());
+            assertNotNull(journal);
+            int threads = 4;
+            int entriesPerThread = 200;
+            CountDownLatch started = new CountDownLatch(threads);
+            List<Thread> recorders = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String event = "event" + t;
+                Thread recorder = new Thread(() -> {
+                    started.countDown();
+                    for (int i = 0; i < entriesPerThread; i++) {
+                        journal.callback(EventPhase.KEEP_ALIVE, event, null, i);
+                    }
+                });
+                recorders.add(recorder);
+                recorder.start();
+            }
+            started.await();
+            journal.close();
+            for (Thread recorder : recorders) {
+                recorder.join();
+            }
+            assertEquals("round " + round, threads * entriesPerThread, journal.getWrittenCount() + journal.getDroppedCount());
+            assertEquals("round " + round, journal.getWrittenCount(), EventJournalReader.read(file).size());
+        }
+    }
+
+    @Test
+    public void summary() {
+        List<String> lines = EventJournalReader.summary(Arrays.asList(
+                entry(0, "session", null, "start", -1),
+                entry(500_000_000, "session", null, EventJournal.TEST_STARTED, -1),
+                entry(1_000_000_000, "keepAlive", "event1", null, 1_000_000),
+                entry(1_500_000_000, "keepAlive", "event1", null, 3_000_000),
+                entry(2_500_000_000L, "customEvent", "event1", "restart", 2_000_000)));
+
+        String text = String.join("\n", lines);
+        assertTrue(text, text.contains("T-0.500 s session start"));
+        assertTrue(text, text.contains("T+2.000 s customEvent event1 restart (2.0 ms)"));
+        assertFalse("keep-alives are only counted", text.contains("T+1.000 s keepAlive"));
+        assertTrue(text, text.contains("event1 keepAlive: 2, 4.0 ms, 3.0 ms"));
+    }
+
+    @Test
+    public void compare() {
+        List<EventJournal.Entry> base = Arrays.asList(
+                entry(0, "session", null, EventJournal.TEST_STARTED, -1),
+                entry(1_000_000_000, "customEvent", "event1", "restart", 1),
+                entry(2_000_000_000, "customEvent", "event1", "restart", 1),
+                entry(3_000_000_000L, "signal", null, "STOP", -1));
+        List<EventJournal.Entry> other = Arrays.asList(
+                entry(100_000_000, "session", null, EventJournal.TEST_STARTED, -1),
+                entry(1_150_000_000, "customEvent", "event1", "restart", 1),
+                entry(2_100_000_000, "customEvent", "event1", "restart", 1),
+                entry(4_000_000_000L, "signal", null, "ABORT", -1));
+
+        String text = String.join("\n", EventJournalReader.compare(base, other));
+        assertTrue(text, text.contains("T+1.000 s -> T+1.050 s (+50.0 ms)  customEvent event1 restart\n"));
+        assertTrue(text, text.contains("T+2.000 s -> T+2.000 s (+0.0 ms)  customEvent event1 restart #2\n"));
+        assertTrue(text, text.contains("T+3.000 s -> missing  signal STOP"));
+        assertTrue(text, text.contains("missing -> T+3.900 s  signal ABORT"));
+        assertTrue(text, text.contains("Entries only in base: 1, only in other: 1."));
+    }
+
+    @Test(expected = EventSchedulerRuntimeException.class)
+    public void notAJournal() throws IOException {
+        File file = new File(directory.toFile(), "other.tsv");
+        Files.write(file.toPath(), "something else\n".getBytes(StandardCharsets.UTF_8));
+        EventJournalReader.read(file);
+    }
+
+    private static EventJournal.Entry entry(long monoNanos, String type, String event, String detail, long durationNanos) {
+        return new EventJournal.Entry(monoNanos, 1_700_000_000_000L + monoNanos / 1_000_000, type, event, detail, durationNanos);
+    }
+}
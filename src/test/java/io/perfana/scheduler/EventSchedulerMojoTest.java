@@ -18,6 +18,9 @@ package io.perfana.scheduler;
 import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
 
 // seems this test needs jUnit 3 test* named methods to work with
 // the MojoTest cases
@@ -59,5 +62,131 @@ public class EventSchedulerMojoTest extends BetterAbstractMojoTestCase {
         fail("expected EventSchedulerRuntimeException");
     }
 
-}
+    /**
+     * Repeated executions in the same JVM, as with mvnd: no sessions are left behind.
+     * Compare the startup time of the first and repeated executions in the log.
+     */
+    public void testExecuteRepeatedWarm() throws Exception {
+
+        File testPom = new File(getBasedir(), "/src/test/resources/event-scheduler-maven-plugin-warm.xml");
+        assertNotNull(testPom);
+
+        for (int execution = 1; execution <= 3; execution++) {
+            EventSchedulerMojo mojo = (EventSchedulerMojo) lookupMojo("test", testPom);
+            assertNotNull(mojo);
+            mojo.execute();
+            assertEquals("sessions left behind after execution " + execution, 0, SchedulerSession.openSessionCount());
+        }
+    }
+
+    public void testExecuteLatencyReport() throws Exception {
+
+        File testPom = new File(getBasedir(), "/src/test/resources/event-scheduler-maven-plugin-latency.xml");
+        assertNotNull(testPom);
+
+        EventSchedulerMojo mojo = (EventSchedulerMojo) lookupMojo("test", testPom);
+        assertNotNull(mojo);
+
+        // the readonly default of the build directory is not evaluated in the mojo test
+        File buildDirectory = Files.createTempDirectory("event-scheduler-latency").toFile();
+        setVariableValueToObject(mojo, "buildDirectory", buildDirectory);
+
+        mojo.execute();
+
+        File report = new File(buildDirectory, "event-scheduler/event-latencies.json");
+        assertTrue("expected report " + report, report.isFile());
+        String json = new String(Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8);
+        assertTrue(json, json.contains("\"HelloEvent1\""));
+        assertTrue(json, json.contains("\"startTest\""));
+        assertTrue(json, json.contains("\"afterTest\""));
+    }
+
+    /**
+     * A two hour test with a minute of slack, simulated in jumps.
+     */
+    public void testExecuteSimulation() throws Exception {
+
+        File testPom = new File(getBasedir(), "/src/test/resources/event-scheduler-maven-plugin-simulation.xml");
+        assertNotNull(testPom);
+
+        EventSchedulerMojo mojo = (EventSchedulerMojo) lookupMojo("test", testPom);
+        assertNotNull(mojo);
+
+        mojo.execute();
+    }
+
+    public void testValidate() throws Exception {
+
+        File testPom = new File(getBasedir(), "/src/test/resources/event-scheduler-maven-plugin.xml");
+        assertNotNull(testPom);
+
+        ValidateMojo mojo = (ValidateMojo) lookupMojo("validate", testPom);
+        assertNotNull(mojo);
 
+        long openedSessions = SchedulerSession.openedSessionCount();
+        mojo.execute();
+
+        assertEquals("validate should not run a session", openedSessions, SchedulerSession.openedSessionCount());
+        assertEquals(0, SchedulerSession.openSessionCount());
+    }
+
+    public void testValidateInvalid() throws Exception {
+
+        File testPom = new File(getBasedir(), "/src/test/resources/event-scheduler-maven-plugin-invalid.xml");
+        assertNotNull(testPom);
+
+        ValidateMojo mojo = (ValidateMojo) lookupMojo("validate", testPom);
+        assertNotNull(mojo);
+
+        try {
+            mojo.execute();
+        } catch (EventSchedulerRuntimeException e) {
+            System.out.println("EventSchedulerRuntimeException: " + e.getMessage());
+            assertTrue(e.getMessage(), e.getMessage().contains("2 problem(s)"));
+            assertTrue(e.getMessage(), e.getMessage().contains("restart-without-fire-time"));
+            assertTrue(e.getMessage(), e.getMessage().contains("NoSuchEvent"));
+            return;
+        }
+        fail("expected EventSchedulerRuntimeException");
+    }
+
+    public void testExecuteMulti() throws Exception {
+
+        File testPom = new File(getBasedir(), "/src/test/resources/event-scheduler-maven-plugin-multi.xml");
+        assertNotNull(testPom);
+
+        EventSchedulerMultiMojo mojo = (EventSchedulerMultiMojo) lookupMojo("test-multi", testPom);
+        assertNotNull(mojo);
+        assertEquals(2, mojo.eventSchedulerConfigs.size());
+
+        // the journals of the sessions have the wall clock times of start test and stop
+        File buildDirectory = Files.createTempDirectory("event-scheduler-multi").toFile();
+        setVariableValueToObject(mojo, "buildDirectory", buildDirectory);
+        setVariableValueToObject(mojo, "eventJournal", true);
+
+        mojo.execute();
+
+        long[] session1 = testStartedAndStopMillis(new File(buildDirectory, "event-scheduler/event-journal-session-1.tsv"));
+        long[] session2 = testStartedAndStopMillis(new File(buildDirectory, "event-scheduler/event-journal-session-2.tsv"));
+        assertTrue("sessions do not overlap: " + Arrays.toString(session1) + " and " + Arrays.toString(session2),
+                session1[0] < session2[1] && session2[0] < session1[1]);
+    }
+
+    private static long[] testStartedAndStopMillis(File journal) {
+        assertTrue("expected journal " + journal, journal.isFile());
+        long testStartedMillis = 0;
+        long stopMillis = 0;
+        for (EventJournal.Entry entry : EventJournalReader.read(journal)) {
+            if (EventJournal.SESSION.equals(entry.getType()) && EventJournal.TEST_STARTED.equals(entry.getDetail())) {
+                testStartedMillis = entry.getWallMillis();
+            }
+            if (EventJournal.SESSION.equals(entry.getType()) && "stop".equals(entry.getDetail())) {
+                stopMillis = entry.getWallMillis();
+            }
+        }
+        assertTrue("no test started in " + journal, testStartedMillis > 0);
+        assertTrue("no stop in " + journal, stopMillis > 0);
+        return new long[] { testStartedMillis, stopMillis };
+    }
+
+}
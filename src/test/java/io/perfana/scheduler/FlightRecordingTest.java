@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class FlightRecordingTest {
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("flight-recording");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void dumpRecordingOfTestWindow() {
+        if (!FlightRecording.isSupported()) {
+            return;
+        }
+        File file = new File(directory.toFile(), "event-scheduler/flight-recording.jfr");
+        FlightRecording recording = new FlightRecording(file, "default", new SystemStreamLog());
+        recording.start(System.nanoTime());
+        assertTrue(recording.isRecording());
+
+        assertEquals(file, recording.dump("stop"));
+        assertTrue(file.length() > 0);
+        assertFalse(recording.isRecording());
+        // dump only once
+        assertNull(recording.dump("abort"));
+
+        recording.start(System.nanoTime());
+        assertFalse("no restart after dump", recording.isRecording());
+    }
+
+    @Test
+    public void noDumpWithoutStartTest() {
+        File file = new File(directory.toFile(), "flight-recording.jfr");
+        FlightRecording recording = new FlightRecording(file, "default", new SystemStreamLog());
+        assertNull(recording.dump("abort"));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void unknownSettingsDoNotStartRecording() {
+        if (!FlightRecording.isSupported()) {
+            return;
+        }
+        FlightRecording recording = new FlightRecording(new File(directory.toFile(), "flight-recording.jfr"), "no-such-settings", new SystemStreamLog());
+        recording.start(System.nanoTime());
+        assertFalse(recording.isRecording());
+    }
+}
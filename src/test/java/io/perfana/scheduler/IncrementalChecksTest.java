@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.EventAdapter;
+import io.perfana.eventscheduler.api.EventCheck;
+import io.perfana.eventscheduler.api.EventStatus;
+import io.perfana.eventscheduler.api.SchedulerExceptionType;
+import io.perfana.eventscheduler.api.config.EventContext;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class IncrementalChecksTest {
+
+    private static class CheckingEvent extends EventAdapter<EventContext> {
+        private final String name;
+        private final Supplier<EventStatus> status;
+        private final AtomicInteger checks = new AtomicInteger();
+
+        CheckingEvent(String name, Supplier<EventStatus> status) {
+            super(null, null, null, null);
+            this.name = name;
+            this.status = status;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public EventCheck check() {
+            checks.incrementAndGet();
+            return new EventCheck(name, "test", status.get(), "status of check " + checks.get());
+        }
+    }
+
+    @Test
+    public void abortEarlyOnFailure() throws Exception {
+        AtomicInteger round = new AtomicInteger();
+        CheckingEvent healthy = new CheckingEvent("healthy", () -> EventStatus.SUCCESS);
+        CheckingEvent failing = new CheckingEvent("failing", () -> round.incrementAndGet() < 3 ? EventStatus.UNKNOWN : EventStatus.FAILURE);
+        BlockingQueue<SchedulerExceptionType> signals = new LinkedBlockingQueue<>();
+
+        IncrementalChecks checks = new IncrementalChecks(Arrays.asList(healthy, failing), TimeUnit.MILLISECONDS.toNanos(50),
+                IncrementalCheckFailureAction.ABORT, signals::add, new SystemStreamLog());
+        long startTestNanos = System.nanoTime();
+        checks.start(startTestNanos);
+
+        assertEquals(SchedulerExceptionType.ABORT, signals.poll(5, TimeUnit.SECONDS));
+        assertEquals("unknown is not a failure", 3, failing.checks.get());
+        assertEquals(Collections.singletonList("failing: status of check 3"), checks.getFailures());
+        Duration failedAt = checks.getFailedAt();
+        assertNotNull(failedAt);
+        assertTrue(failedAt.toString(), failedAt.toMillis() >= 150);
+        assertTrue(checks.getEarlyExitReport(), checks.getEarlyExitReport().startsWith("aborted early at T+0:00:0"));
+
+        // no more checks after the failure
+        Thread.sleep(200);
+        assertEquals(3, failing.checks.get());
+        assertNull(signals.poll());
+        checks.stop();
+    }
+
+    @Test
+    public void stopOnFailure() {
+        CheckingEvent failing = new CheckingEvent("failing", () -> EventStatus.FAILURE);
+        BlockingQueue<SchedulerExceptionType> signals = new LinkedBlockingQueue<>();
+        IncrementalChecks checks = new IncrementalChecks(Collections.singletonList(failing), TimeUnit.SECONDS.toNanos(1),
+                IncrementalCheckFailureAction.STOP, signals::add, new SystemStreamLog());
+
+        assertFalse(checks.checkRound(System.nanoTime()));
+        assertEquals(SchedulerExceptionType.STOP, signals.poll());
+        assertTrue(checks.getEarlyExitReport(), checks.getEarlyExitReport().startsWith("stopped early at T+"));
+    }
+
+    @Test
+    public void exceptionIsNotAFailure() {
+        CheckingEvent broken = new CheckingEvent("broken", () -> {
+            throw new IllegalStateException("no connection");
+        });
+        BlockingQueue<SchedulerExceptionType> signals = new LinkedBlockingQueue<>();
+        IncrementalChecks checks = new IncrementalChecks(Collections.singletonList(broken), TimeUnit.SECONDS.toNanos(1),
+                IncrementalCheckFailureAction.ABORT, signals::add, new SystemStreamLog());
+
+        assertTrue(checks.checkRound(System.nanoTime()));
+        assertNull(signals.poll());
+        assertNull(checks.getEarlyExitReport());
+    }
+
+    @Test
+    public void stopEndsChecks() throws Exception {
+        CheckingEvent healthy = new CheckingEvent("healthy", () -> EventStatus.SUCCESS);
+        IncrementalChecks checks = new IncrementalChecks(Collections.singletonList(healthy), TimeUnit.MILLISECONDS.toNanos(20),
+                IncrementalCheckFailureAction.ABORT, type -> fail("unexpected " + type), new SystemStreamLog());
+        checks.start(System.nanoTime());
+        Thread.sleep(100);
+        checks.stop();
+        Thread.sleep(50);
+        int count = healthy.checks.get();
+        assertTrue("checks ran: " + count, count > 0);
+        Thread.sleep(100);
+        assertEquals(count, healthy.checks.get());
+    }
+
+    @Test
+    public void formatDuration() {
+        assertEquals("1:02:03", IncrementalChecks.format(Duration.ofSeconds(3723)));
+        assertEquals("0:00:00", IncrementalChecks.format(Duration.ofMillis(999)));
+    }
+}
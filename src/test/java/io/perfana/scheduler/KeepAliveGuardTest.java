@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class KeepAliveGuardTest {
+
+    private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    @Test
+    public void skipTicksWhileRunning() throws Exception {
+        KeepAliveGuard guard = new KeepAliveGuard("slow", KeepAliveOverrunPolicy.SKIP, INTERVAL_NANOS, new SystemStreamLog());
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread first = runInThread(guard, () -> {
+            calls.incrementAndGet();
+            running.countDown();
+            await(release);
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        guard.run(calls::incrementAndGet);
+        guard.run(calls::incrementAndGet);
+        assertEquals(1, calls.get());
+        assertEquals(2, guard.getSkipped());
+
+        release.countDown();
+        first.join(5000);
+        guard.run(calls::incrementAndGet);
+        assertEquals("runs again when the previous keep-alive is done", 2, calls.get());
+    }
+
+    @Test
+    public void coalesceTicksIntoOneKeepAlive() throws Exception {
+        KeepAliveGuard guard = new KeepAliveGuard("slow", KeepAliveOverrunPolicy.COALESCE, INTERVAL_NANOS, new SystemStreamLog());
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread first = runInThread(guard, () -> {
+            if (calls.incrementAndGet() == 1) {
+                running.countDown();
+                await(release);
+            }
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 3; i++) {
+            guard.run(calls::incrementAndGet);
+        }
+        assertEquals(1, calls.get());
+        assertEquals(3, guard.getCoalesced());
+
+        release.countDown();
+        first.join(5000);
+        assertEquals("three ticks coalesced into one keep-alive", 2, calls.get());
+    }
+
+    @Test
+    public void exceptionIsPassedOnAndReleasesGuard() {
+        KeepAliveGuard guard = new KeepAliveGuard("voter", KeepAliveOverrunPolicy.COALESCE, INTERVAL_NANOS, new SystemStreamLog());
+        try {
+            guard.run(() -> {
+                throw new IllegalStateException("stop test run");
+            });
+            fail("exception of keep-alive should be passed on");
+        } catch (IllegalStateException e) {
+            assertEquals("stop test run", e.getMessage());
+        }
+        AtomicInteger calls = new AtomicInteger();
+        guard.run(calls::incrementAndGet);
+        assertEquals(1, calls.get());
+        assertEquals(0, guard.getCoalesced());
+    }
+
+    @Test
+    public void overrunOfInterval() {
+        KeepAliveGuard guard = new KeepAliveGuard("slow", KeepAliveOverrunPolicy.REPORT, TimeUnit.MILLISECONDS.toNanos(10), new SystemStreamLog());
+        guard.run(() -> sleep(50));
+        guard.run(() -> { });
+        assertEquals(1, guard.getOverruns());
+        assertTrue(guard.getMaxNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void reportOnlyDoesNotSkip() throws Exception {
+        KeepAliveGuard guard = new KeepAliveGuard("slow", KeepAliveOverrunPolicy.REPORT, INTERVAL_NANOS, new SystemStreamLog());
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread first = runInThread(guard, () -> {
+            calls.incrementAndGet();
+            running.countDown();
+            await(release);
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        guard.run(calls::incrementAndGet);
+        release.countDown();
+        first.join(5000);
+
+        assertEquals(2, calls.get());
+        assertEquals(0, guard.getSkipped());
+    }
+
+    private static Thread runInThread(KeepAliveGuard guard, Runnable keepAlive) {
+        Thread thread = new Thread(() -> guard.run(keepAlive), "keep-alive-test");
+        thread.start();
+        return thread;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(99));
+        assertEquals(0, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void bucketsAreContinuous() {
+        for (long value = 0; value < 100_000; value++) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue("value " + value + " above upper bound of bucket " + index, value <= LatencyHistogram.bucketUpperBound(index));
+            if (index > 0) {
+                assertTrue("value " + value + " fits in lower bucket", value > LatencyHistogram.bucketUpperBound(index - 1));
+            }
+        }
+        int lastIndex = LatencyHistogram.bucketIndex(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketUpperBound(lastIndex));
+    }
+
+    @Test
+    public void percentilesWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1 to 1000 milliseconds
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1_000_000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000_000L, histogram.getMaxNanos());
+        assertWithinError(500_000_000L, histogram.getPercentileNanos(50));
+        assertWithinError(990_000_000L, histogram.getPercentileNanos(99));
+        assertEquals(1_000_000_000L, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void negativeDurationsCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void randomValuesBelowMax() {
+        Random random = new Random(42);
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 10_000; i++) {
+            histogram.record(random.nextInt(Integer.MAX_VALUE));
+        }
+        assertTrue(histogram.getPercentileNanos(50) <= histogram.getPercentileNanos(99));
+        assertTrue(histogram.getPercentileNanos(99) <= histogram.getMaxNanos());
+    }
+
+    private static void assertWithinError(long expected, long actual) {
+        double error = Math.abs(actual - expected) / (double) expected;
+        assertTrue("expected about " + expected + " but was " + actual, error <= 0.125);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.Event;
+import io.perfana.eventscheduler.api.EventAdapter;
+import io.perfana.eventscheduler.api.config.EventContext;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class LazyEventTest {
+
+    private final ExecutorService executor = PluginExecutors.newThreadPerTaskExecutor("test-lazy-");
+    private final StartupTimeline timeline = new StartupTimeline(System.nanoTime());
+    private final AtomicInteger constructions = new AtomicInteger();
+
+    private static class SlowEvent extends EventAdapter<EventContext> {
+        SlowEvent(long sleepMillis) {
+            super(null, null, null, null);
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private LazyEvent lazyEvent(long constructMillis) {
+        return new LazyEvent("lazy", () -> {
+            constructions.incrementAndGet();
+            return new SlowEvent(constructMillis);
+        }, executor, timeline);
+    }
+
+    @Test
+    public void constructAsyncDoesNotBlock() throws Exception {
+        LazyEvent lazyEvent = lazyEvent(300);
+        CountDownLatch beforeTest = new CountDownLatch(1);
+        AtomicReference<Thread> beforeTestThread = new AtomicReference<>();
+
+        long start = System.nanoTime();
+        lazyEvent.constructAsync(event -> {
+            beforeTestThread.set(Thread.currentThread());
+            beforeTest.countDown();
+        });
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("construct async blocked for " + durationMillis + " ms", durationMillis < 200);
+
+        Event event = lazyEvent.get();
+        assertNotNull(event);
+        assertTrue(beforeTest.await(1, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), beforeTestThread.get());
+
+        assertSame(event, lazyEvent.get());
+        assertEquals(1, constructions.get());
+        assertEquals(1, timeline.getEventConstructions().size());
+        assertTrue(timeline.getEventConstructions().get(0).lazy);
+    }
+
+    @Test
+    public void getConstructsWhenNotStarted() {
+        LazyEvent lazyEvent = lazyEvent(0);
+        Event event = lazyEvent.get();
+        assertNotNull(event);
+        lazyEvent.constructAsync(e -> fail("already constructed"));
+        assertSame(event, lazyEvent.get());
+        assertEquals(1, constructions.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failureInBeforeTestSurfacesOnNextCallback() {
+        LazyEvent lazyEvent = lazyEvent(0);
+        lazyEvent.constructAsync(event -> {
+            throw new IllegalStateException("beforeTest failed");
+        });
+        lazyEvent.get();
+    }
+
+    @Test
+    public void failureInBeforeTestIsReportedOnce() {
+        LazyEvent lazyEvent = lazyEvent(0);
+        lazyEvent.constructAsync(event -> {
+            throw new IllegalStateException("beforeTest failed");
+        });
+        try {
+            lazyEvent.get();
+            fail("expected beforeTest failure on the next callback");
+        } catch (IllegalStateException e) {
+            assertEquals("beforeTest failed", e.getMessage());
+        }
+        // e.g. keep-alive, abortTest and check still get the event
+        assertNotNull(lazyEvent.get());
+        assertNotNull(lazyEvent.get());
+        assertEquals(1, constructions.get());
+    }
+
+    @Test
+    public void failureInConstructionFailsEveryCallback() {
+        LazyEvent lazyEvent = new LazyEvent("lazy", () -> {
+            throw new IllegalStateException("construction failed");
+        }, executor, timeline);
+        lazyEvent.constructAsync(event -> fail("not constructed"));
+        for (int callback = 0; callback < 2; callback++) {
+            try {
+                lazyEvent.get();
+                fail("expected construction failure");
+            } catch (IllegalStateException e) {
+                assertEquals("construction failed", e.getMessage());
+            }
+        }
+    }
+
+}
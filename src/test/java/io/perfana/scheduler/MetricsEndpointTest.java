@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.SchedulerExceptionType;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class MetricsEndpointTest {
+
+    private MetricsEndpoint endpoint;
+
+    @Before
+    public void start() {
+        endpoint = MetricsEndpoint.start(0, new SystemStreamLog());
+    }
+
+    @After
+    public void stop() {
+        endpoint.stop();
+    }
+
+    @Test
+    public void servesMetricsOfRegisteredSessions() throws IOException {
+        endpoint.register("session-2", text -> text.gauge("test_gauge", "A test gauge.", 2, "session", "session-2"));
+        endpoint.register("session-1", text -> text.gauge("test_gauge", "A test gauge.", 1.5, "session", "session-1"));
+
+        HttpURLConnection connection = connect(MetricsEndpoint.PATH);
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(PrometheusText.CONTENT_TYPE, connection.getContentType());
+        assertEquals("# HELP test_gauge A test gauge.\n"
+                + "# TYPE test_gauge gauge\n"
+                + "test_gauge{session=\"session-1\"} 1.5\n"
+                + "test_gauge{session=\"session-2\"} 2\n", read(connection.getInputStream()));
+
+        endpoint.unregister("session-2");
+        assertFalse(read(connect(MetricsEndpoint.PATH).getInputStream()).contains("session-2"));
+    }
+
+    @Test
+    public void unknownPathIsNotFound() throws IOException {
+        assertEquals(404, connect("/metricsx").getResponseCode());
+    }
+
+    @Test
+    public void onlyGetIsAllowed() throws IOException {
+        HttpURLConnection connection = connect(MetricsEndpoint.PATH);
+        connection.setRequestMethod("DELETE");
+        assertEquals(405, connection.getResponseCode());
+    }
+
+    @Test
+    public void sessionMetrics() {
+        SchedulerSession session = SchedulerSession.open(SessionFeatures.builder().build());
+        try {
+            SessionLifecycle lifecycle = new SessionLifecycle();
+            lifecycle.start();
+            session.getFeatures().getEventLatencies().histogramsFor("event1")[EventPhase.KEEP_ALIVE.ordinal()].record(2_000_000);
+            session.getFeatures().getEventLatencies().histogramsFor("event1")[EventPhase.KEEP_ALIVE.ordinal()].record(4_000_000);
+            session.getFeatures().getEventLatencies().histogramsFor("event2");
+            session.schedulerException(SchedulerExceptionType.STOP);
+
+            SessionMetrics metrics = new SessionMetrics("s1", session, lifecycle, null);
+            metrics.waiting(System.nanoTime() + 60_000_000_000L);
+            endpoint.register("s1", metrics::write);
+            String text = endpoint.scrape();
+
+            assertTrue(text, text.contains("event_scheduler_session_state{session=\"s1\",state=\"STARTING\"} 1\n"));
+            assertTrue(text, text.contains("event_scheduler_session_state{session=\"s1\",state=\"RUNNING\"} 0\n"));
+            assertTrue(text, text.contains("event_scheduler_exception_type{session=\"s1\",type=\"STOP\"} 1\n"));
+            assertTrue(text, text.contains("event_scheduler_callback_duration_seconds_count{session=\"s1\",event=\"event1\",callback=\"keepAlive\"} 2\n"));
+            assertTrue(text, text.contains("event_scheduler_callback_duration_seconds{session=\"s1\",event=\"event1\",callback=\"keepAlive\",quantile=\"0.99\"} "));
+            assertFalse("no samples for callbacks that were not called", text.contains("event2"));
+            assertFalse("no async logger", text.contains("event_scheduler_log_queue_depth"));
+            assertEquals("one HELP line per family", text.indexOf("# HELP event_scheduler_session_state"), text.lastIndexOf("# HELP event_scheduler_session_state"));
+
+            String remaining = text.replaceAll("(?s).*event_scheduler_wait_remaining_seconds\\{session=\"s1\"} ([0-9.E]+)\n.*", "$1");
+            double remainingSeconds = Double.parseDouble(remaining);
+            assertTrue(remaining, remainingSeconds > 50 && remainingSeconds <= 60);
+
+            metrics.doneWaiting();
+            assertTrue(endpoint.scrape().contains("event_scheduler_wait_remaining_seconds{session=\"s1\"} 0\n"));
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void labelValuesAreEscaped() {
+        PrometheusText text = new PrometheusText();
+        text.counter("test_total", "Test.", 3, "event", "a\"b\\c\nd");
+        assertTrue(text.format(), text.format().contains("test_total{event=\"a\\\"b\\\\c\\nd\"} 3\n"));
+    }
+
+    private HttpURLConnection connect(String path) throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + endpoint.getPort() + path).openConnection();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ParallelBroadcastTest {
+
+    private static Runnable sleep(long millis, List<String> done, String name) {
+        return () -> {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.add(name);
+        };
+    }
+
+    @Test
+    public void callbacksRunConcurrently() {
+        List<String> done = new CopyOnWriteArrayList<>();
+        ParallelBroadcast broadcast = new ParallelBroadcast(PluginExecutors.newThreadPerTaskExecutor("test-broadcast-"), Collections.emptyList(), new SystemStreamLog());
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                broadcast.submit("event" + i, sleep(200, done, "event" + i));
+            }
+            broadcast.awaitAll();
+            long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertEquals(10, done.size());
+            System.out.println("10 callbacks of 200 ms took " + durationMillis + " ms");
+            assertTrue("callbacks do not seem to run in parallel: " + durationMillis + " ms", durationMillis < 1000);
+        } finally {
+            broadcast.shutdown();
+        }
+    }
+
+    @Test
+    public void sequentialEventKeepsOrder() {
+        List<String> done = new CopyOnWriteArrayList<>();
+        ParallelBroadcast broadcast = new ParallelBroadcast(PluginExecutors.newThreadPerTaskExecutor("test-broadcast-"), Collections.singletonList("ordered"), new SystemStreamLog());
+        try {
+            broadcast.submit("first", sleep(100, done, "first"));
+            broadcast.submit("ordered", sleep(0, done, "ordered"));
+            broadcast.submit("last", sleep(0, done, "last"));
+            broadcast.awaitAll();
+
+            assertEquals("first", done.get(0));
+            assertEquals("ordered", done.get(1));
+            assertEquals("last", done.get(2));
+        } finally {
+            broadcast.shutdown();
+        }
+    }
+
+    @Test
+    public void firstExceptionIsRethrown() {
+        ParallelBroadcast broadcast = new ParallelBroadcast(PluginExecutors.newThreadPerTaskExecutor("test-broadcast-"), Collections.emptyList(), new SystemStreamLog());
+        try {
+            broadcast.submit("ok", () -> {});
+            broadcast.submit("failing", () -> { throw new IllegalArgumentException("kill this"); });
+            try {
+                broadcast.awaitAll();
+                fail("expected exception of failing event");
+            } catch (IllegalArgumentException e) {
+                assertEquals("kill this", e.getMessage());
+            }
+            // nothing pending anymore
+            broadcast.awaitAll();
+        } finally {
+            broadcast.shutdown();
+        }
+    }
+}
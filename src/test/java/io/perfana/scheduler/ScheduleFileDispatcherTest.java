@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.EventAdapter;
+import io.perfana.eventscheduler.api.config.EventContext;
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class ScheduleFileDispatcherTest {
+
+    private static class RecordingEvent extends EventAdapter<EventContext> {
+        private final String name;
+        private final long delayMillis;
+        private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+
+        RecordingEvent(String name, long delayMillis) {
+            super(null, null, null, null);
+            this.name = name;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void customEvent(CustomEvent customEvent) {
+            if (delayMillis > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            received.add(customEvent.getSettings());
+        }
+    }
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("schedule-file");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void deliverLargeScheduleInOrderWithBoundedReadAhead() throws Exception {
+        int count = 20_000;
+        List<String> lines = new ArrayList<>();
+        lines.add("# generated schedule, 20 custom events per millisecond");
+        for (int i = 0; i < count; i++) {
+            lines.add(Duration.ofNanos(i * 50_000L) + "|toggle|" + i);
+        }
+        File file = write(lines);
+
+        RecordingEvent fast = new RecordingEvent("fast", 0);
+        RecordingEvent other = new RecordingEvent("other", 0);
+        ScheduleFileDispatcher dispatcher = new ScheduleFileDispatcher(file, Arrays.asList(fast, other), 2,
+                TimeUnit.MILLISECONDS.toNanos(1), 64, new SystemStreamLog());
+        int threadsBefore = Thread.activeCount();
+        dispatcher.start(System.nanoTime());
+        assertTrue("dispatcher and two workers", Thread.activeCount() - threadsBefore <= 3);
+
+        awaitReceived(fast, count, 10_000);
+        awaitReceived(other, count, 10_000);
+        dispatcher.stop();
+
+        assertEquals(count, dispatcher.getDispatchedCount());
+        for (int i = 0; i < count; i++) {
+            assertEquals("in order", String.valueOf(i), fast.received.get(i));
+        }
+        assertTrue("read ahead is bounded by the wheel: " + dispatcher.getMaxWheelEntries(), dispatcher.getMaxWheelEntries() <= 65 * 20);
+    }
+
+    @Test
+    public void fireNotEarlyAndJumpOverGaps() throws Exception {
+        File file = write(Arrays.asList("PT0S|first|0", "PT0.5S|second|1"));
+        RecordingEvent event = new RecordingEvent("event", 0);
+        ScheduleFileDispatcher dispatcher = new ScheduleFileDispatcher(file, Collections.singletonList(event), 1,
+                TimeUnit.MILLISECONDS.toNanos(1), 64, new SystemStreamLog());
+        long startTestNanos = System.nanoTime();
+        dispatcher.start(startTestNanos);
+
+        awaitReceived(event, 2, 5_000);
+        assertTrue("not early", System.nanoTime() - startTestNanos >= TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(Arrays.asList("0", "1"), event.received);
+        assertEquals(1, dispatcher.getMaxWheelEntries());
+        dispatcher.stop();
+    }
+
+    @Test
+    public void slowEventDoesNotDelayOtherEvents() throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            lines.add("PT0." + String.format("%03d", i * 5) + "S|toggle|" + i);
+        }
+        File file = write(lines);
+        RecordingEvent slow = new RecordingEvent("slow", 100);
+        RecordingEvent fast = new RecordingEvent("fast", 0);
+        ScheduleFileDispatcher dispatcher = new ScheduleFileDispatcher(file, Arrays.asList(slow, fast), 2, new SystemStreamLog());
+        dispatcher.start(System.nanoTime());
+
+        awaitReceived(fast, 20, 1_000);
+        assertTrue("slow event is behind: " + slow.received.size(), slow.received.size() < 20);
+        dispatcher.stop();
+    }
+
+    @Test
+    public void scanSummaryAndOutOfOrderLines() throws Exception {
+        File file = write(Arrays.asList("# comment", "PT1S|a|x", "", "PT5M|b|y"));
+        ScheduleFileReader.Summary summary = ScheduleFileReader.scan(file);
+        assertEquals(2, summary.count);
+        assertEquals(Duration.ofSeconds(1), summary.first);
+        assertEquals(Duration.ofMinutes(5), summary.last);
+
+        File outOfOrder = write(Arrays.asList("PT10S|a|x", "PT5S|b|y"));
+        try {
+            ScheduleFileReader.scan(outOfOrder);
+            fail("expected out of order exception");
+        } catch (EventSchedulerRuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("line 2 fires at PT5S, before the previous line at PT10S"));
+        }
+
+        try {
+            ScheduleFileReader.scan(new File(directory.toFile(), "missing.txt"));
+            fail("expected missing file exception");
+        } catch (EventSchedulerRuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Cannot read schedule file"));
+        }
+    }
+
+    private File write(List<String> lines) throws IOException {
+        return Files.write(Files.createTempFile(directory, "schedule", ".txt"), lines, StandardCharsets.UTF_8).toFile();
+    }
+
+    private static void awaitReceived(RecordingEvent event, int count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (event.received.size() < count && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+        assertEquals(event.getName(), count, event.received.size());
+    }
+}
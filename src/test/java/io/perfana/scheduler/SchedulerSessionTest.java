@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.SchedulerExceptionType;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SchedulerSessionTest {
+
+    @Test
+    public void startSignalOnlyReachesOwnSession() {
+        SchedulerSession session1 = SchedulerSession.open(SessionFeatures.builder().build());
+        SchedulerSession session2 = SchedulerSession.open(SessionFeatures.builder().build());
+        try {
+            assertNotEquals(session1.getSpyEventName(), session2.getSpyEventName());
+
+            SchedulerSession found = SchedulerSession.findBySpyEventName(session1.getSpyEventName());
+            assertSame(session1, found);
+
+            found.startTest();
+
+            assertTrue(session1.isStartWaiting());
+            assertFalse(session2.isStartWaiting());
+        } finally {
+            session1.close();
+            session2.close();
+        }
+    }
+
+    @Test
+    public void exceptionTypeIsPerSession() {
+        SchedulerSession session1 = SchedulerSession.open(SessionFeatures.builder().build());
+        SchedulerSession session2 = SchedulerSession.open(SessionFeatures.builder().build());
+        try {
+            session1.schedulerException(SchedulerExceptionType.KILL);
+            assertEquals(SchedulerExceptionType.KILL, session1.getSchedulerExceptionType());
+            assertEquals(SchedulerExceptionType.NONE, session2.getSchedulerExceptionType());
+        } finally {
+            session1.close();
+            session2.close();
+        }
+    }
+
+    @Test
+    public void closedSessionIsNotFound() {
+        SchedulerSession session = SchedulerSession.open(SessionFeatures.builder().build());
+        String spyEventName = session.getSpyEventName();
+        session.close();
+        assertNull(SchedulerSession.findBySpyEventName(spyEventName));
+        assertNull(SchedulerSession.findBySpyEventName("schedulerTestStartSpyEvent"));
+        assertNull(SchedulerSession.findBySpyEventName(null));
+    }
+
+    @Test
+    public void startTestAndSignalsReachTheFeatures() {
+        SessionFeatures features = SessionFeatures.builder().build();
+        SchedulerSession session = SchedulerSession.open(features);
+        try {
+            assertSame(features, session.getFeatures());
+            assertEquals(0, features.getScheduleDrift().getStartTestNanos());
+            session.startTest();
+            assertNotEquals(0, features.getScheduleDrift().getStartTestNanos());
+            assertNull("no parallel abort without parallel broadcast", features.getAbortBroadcast());
+            assertFalse(features.isLazyEvent("event"));
+        } finally {
+            session.close();
+            features.shutdown();
+        }
+    }
+}
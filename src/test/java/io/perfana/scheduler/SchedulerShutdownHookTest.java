@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class SchedulerShutdownHookTest {
+
+    @Test
+    public void abortFinishesWithinBudget() {
+        AtomicBoolean aborted = new AtomicBoolean();
+        AtomicBoolean reported = new AtomicBoolean();
+        SchedulerShutdownHook hook = new SchedulerShutdownHook("test-hook", () -> aborted.set(true), () -> reported.set(true), 1000, new SystemStreamLog());
+
+        assertTrue(hook.abortWithinBudget());
+        assertTrue(aborted.get());
+        assertTrue(reported.get());
+    }
+
+    @Test
+    public void hangingAbortIsBoundedByBudget() {
+        AtomicBoolean reported = new AtomicBoolean();
+        Runnable hangingAbort = () -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        SchedulerShutdownHook hook = new SchedulerShutdownHook("test-hook", hangingAbort, () -> reported.set(true), 200, new SystemStreamLog());
+
+        long start = System.nanoTime();
+        assertFalse(hook.abortWithinBudget());
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("waited too long: " + durationMillis + " ms", durationMillis < 5000);
+        assertTrue("outcome of abort is not reported", reported.get());
+    }
+
+    @Test
+    public void failingAbortIsReported() {
+        AtomicBoolean reported = new AtomicBoolean();
+        Runnable failingAbort = () -> {
+            throw new IllegalStateException("abort failed");
+        };
+        SchedulerShutdownHook hook = new SchedulerShutdownHook("test-hook", failingAbort, () -> reported.set(true), 1000, new SystemStreamLog());
+
+        assertTrue(hook.abortWithinBudget());
+        assertTrue(reported.get());
+    }
+
+    @Test
+    public void deregisterRemovesHook() {
+        SchedulerShutdownHook hook = new SchedulerShutdownHook("test-hook", () -> fail("abort called"), () -> { }, 1000, new SystemStreamLog());
+        hook.register();
+        hook.deregister();
+        // deregister twice does no harm
+        hook.deregister();
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.SchedulerExceptionType;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SchedulerWaitLoopTest {
+
+    // the old wait loop polled once a second, this should be way faster
+    private static final long MAX_REACTION_MILLIS = 200;
+
+    @Test
+    public void reactsToKillWithinMilliseconds() throws Exception {
+        assertReaction(SchedulerExceptionType.KILL, SchedulerWaitLoop.Outcome.KILL);
+    }
+
+    @Test
+    public void reactsToAbortWithinMilliseconds() throws Exception {
+        assertReaction(SchedulerExceptionType.ABORT, SchedulerWaitLoop.Outcome.ABORT);
+    }
+
+    @Test
+    public void reactsToStopWithinMilliseconds() throws Exception {
+        assertReaction(SchedulerExceptionType.STOP, SchedulerWaitLoop.Outcome.STOP);
+    }
+
+    @Test
+    public void reactsToStartTest() throws Exception {
+        SchedulerSignal signal = new SchedulerSignal();
+        AtomicBoolean startWaiting = new AtomicBoolean(false);
+        SchedulerWaitLoop waitLoop = new SchedulerWaitLoop(signal, startWaiting::get, () -> SchedulerExceptionType.NONE, new SystemStreamLog());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<SchedulerWaitLoop.Outcome> outcome = executor.submit(() -> waitLoop.await(Duration.ofMillis(50), 0));
+            Thread.sleep(100);
+
+            long signalNanos = System.nanoTime();
+            startWaiting.set(true);
+            signal.signal();
+
+            assertEquals(SchedulerWaitLoop.Outcome.TIMEOUT, outcome.get(5, TimeUnit.SECONDS));
+            long reactionMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - signalNanos);
+            System.out.println("Wait loop finished " + reactionMillis + " ms after start test signal");
+            assertTrue("wait loop finished too late: " + reactionMillis + " ms", reactionMillis < 50 + MAX_REACTION_MILLIS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void assertReaction(SchedulerExceptionType type, SchedulerWaitLoop.Outcome expected) throws Exception {
+        SchedulerSignal signal = new SchedulerSignal();
+        AtomicReference<SchedulerExceptionType> exceptionType = new AtomicReference<>(SchedulerExceptionType.NONE);
+        SchedulerWaitLoop waitLoop = new SchedulerWaitLoop(signal, () -> true, exceptionType::get, new SystemStreamLog());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<SchedulerWaitLoop.Outcome> outcome = executor.submit(() -> waitLoop.await(Duration.ofMinutes(10), 0));
+            // make sure the loop is waiting
+            Thread.sleep(100);
+
+            long signalNanos = System.nanoTime();
+            exceptionType.set(type);
+            signal.signal();
+
+            assertEquals(expected, outcome.get(5, TimeUnit.SECONDS));
+            long reactionMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - signalNanos);
+            System.out.println("Wait loop reacted to " + type + " in " + reactionMillis + " ms");
+            assertTrue("wait loop reacted too late: " + reactionMillis + " ms", reactionMillis < MAX_REACTION_MILLIS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
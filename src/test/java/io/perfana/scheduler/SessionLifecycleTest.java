@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.perfana.scheduler.SessionLifecycle.State.*;
+import static org.junit.Assert.*;
+
+public class SessionLifecycleTest {
+
+    private static final int RACES = 1000;
+
+    @Test
+    public void regularLifecycle() {
+        SessionLifecycle lifecycle = new SessionLifecycle();
+        assertEquals(IDLE, lifecycle.getState());
+        assertFalse("stop before start", lifecycle.stop());
+        assertFalse("abort before start", lifecycle.abort());
+
+        assertTrue(lifecycle.start());
+        assertFalse("start twice", lifecycle.start());
+        assertTrue(lifecycle.started());
+        assertEquals(RUNNING, lifecycle.getState());
+
+        assertTrue(lifecycle.stop());
+        assertFalse("stop twice", lifecycle.stop());
+        assertTrue(lifecycle.check());
+        assertFalse("check twice", lifecycle.check());
+        assertFalse("abort after check", lifecycle.abort());
+        assertEquals(CHECKING, lifecycle.getState());
+    }
+
+    @Test
+    public void abortTakesOverFromStop() {
+        SessionLifecycle lifecycle = new SessionLifecycle();
+        lifecycle.start();
+        lifecycle.started();
+
+        assertTrue(lifecycle.stop());
+        assertTrue("abort must preempt stop in progress", lifecycle.abort());
+        assertFalse("abort twice", lifecycle.abort());
+        assertEquals(ABORTING, lifecycle.getState());
+        lifecycle.abortReturned();
+        assertTrue(lifecycle.check());
+    }
+
+    @Test
+    public void checkWaitsForAbortToReturn() {
+        SessionLifecycle lifecycle = new SessionLifecycle();
+        lifecycle.start();
+        lifecycle.started();
+
+        assertTrue(lifecycle.abort());
+        assertFalse("abort call still in progress", lifecycle.check());
+        lifecycle.abortReturned();
+        assertTrue(lifecycle.check());
+        assertEquals(CHECKING, lifecycle.getState());
+    }
+
+    @Test
+    public void abortWaitsForStopInProgressToReturn() throws Exception {
+        SessionLifecycle lifecycle = new SessionLifecycle();
+        assertTrue("no stop called", lifecycle.awaitStopReturned(0));
+        lifecycle.start();
+        lifecycle.started();
+
+        assertTrue(lifecycle.stop());
+        assertTrue(lifecycle.abort());
+        assertFalse("stop call still in progress", lifecycle.awaitStopReturned(50));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> abort = executor.submit(() -> lifecycle.awaitStopReturned(5000));
+            Thread.sleep(100);
+            assertFalse("abort should wait for the stop call", abort.isDone());
+            lifecycle.stopReturned();
+            assertTrue(abort.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Main thread stops while the ultimate timeout aborts: when the stop won first, the abort
+     * must wait for its stop call, also when the abort wins right after the stop.
+     */
+    @Test
+    public void abortWaitsForStopThatWonFirst() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int race = 0; race < RACES; race++) {
+                SessionLifecycle lifecycle = new SessionLifecycle();
+                lifecycle.start();
+                lifecycle.started();
+
+                AtomicBoolean abortWon = new AtomicBoolean();
+                List<Boolean> results = race(executor, lifecycle::stop, () -> {
+                    abortWon.set(lifecycle.abort());
+                    return lifecycle.awaitStopReturned(0);
+                });
+
+                assertTrue(abortWon.get());
+                if (results.get(0)) {
+                    assertFalse("abort must wait for the stop that won first in race " + race, results.get(1));
+                } else {
+                    assertTrue("no stop call to wait for in race " + race, results.get(1));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void abortWhileStarting() {
+        SessionLifecycle lifecycle = new SessionLifecycle();
+        lifecycle.start();
+        assertTrue(lifecycle.abort());
+        assertFalse("started after abort", lifecycle.started());
+        assertFalse("stop after abort", lifecycle.stop());
+        assertEquals(ABORTING, lifecycle.getState());
+    }
+
+    @Test
+    public void stopAfterFailedStart() {
+        SessionLifecycle lifecycle = new SessionLifecycle();
+        lifecycle.start();
+        assertTrue(lifecycle.stop());
+        assertFalse(lifecycle.started());
+    }
+
+    /**
+     * Main thread stops, shutdown hook aborts and a kill switch aborts, all at the same time:
+     * exactly one abort wins and the session always ends aborting.
+     */
+    @Test
+    public void concurrentStopAbortKill() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int race = 0; race < RACES; race++) {
+                SessionLifecycle lifecycle = new SessionLifecycle();
+                lifecycle.start();
+                lifecycle.started();
+
+                List<Boolean> results = race(executor, lifecycle::stop, lifecycle::abort, lifecycle::abort);
+                int abortWins = (results.get(1) ? 1 : 0) + (results.get(2) ? 1 : 0);
+
+                assertEquals("exactly one abort must win in race " + race, 1, abortWins);
+                // whether stop won or not, abort takes over
+                assertEquals(ABORTING, lifecycle.getState());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Several threads stop at the same time, e.g. stop request and regular timeout: exactly one stops.
+     */
+    @Test
+    public void concurrentStops() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int race = 0; race < RACES; race++) {
+                SessionLifecycle lifecycle = new SessionLifecycle();
+                lifecycle.start();
+                lifecycle.started();
+
+                List<Boolean> results = race(executor, lifecycle::stop, lifecycle::stop, lifecycle::stop);
+                assertEquals("exactly one stop must win in race " + race, 1, results.stream().filter(b -> b).count());
+                assertEquals(STOPPING, lifecycle.getState());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks and a late abort race: either the abort wins and checks follow it, or checks win and the abort is ignored.
+     */
+    @Test
+    public void concurrentCheckAndAbort() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int race = 0; race < RACES; race++) {
+                SessionLifecycle lifecycle = new SessionLifecycle();
+                lifecycle.start();
+                lifecycle.started();
+                lifecycle.stop();
+
+                List<Boolean> results = race(executor, lifecycle::check, lifecycle::abort);
+                boolean checkWon = results.get(0);
+                boolean abortWon = results.get(1);
+
+                if (abortWon && !checkWon) {
+                    assertEquals(ABORTING, lifecycle.getState());
+                    lifecycle.abortReturned();
+                    assertTrue("check after abort", lifecycle.check());
+                }
+                assertTrue(checkWon || abortWon);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @SafeVarargs
+    private static List<Boolean> race(ExecutorService executor, Callable<Boolean>... transitions) throws Exception {
+        CountDownLatch ready = new CountDownLatch(transitions.length);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (Callable<Boolean> transition : transitions) {
+            futures.add(executor.submit(() -> {
+                ready.countDown();
+                go.await();
+                return transition.call();
+            }));
+        }
+        assertTrue(ready.await(10, TimeUnit.SECONDS));
+        go.countDown();
+        List<Boolean> results = new ArrayList<>();
+        for (Future<Boolean> future : futures) {
+            results.add(future.get(10, TimeUnit.SECONDS));
+        }
+        return results;
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.EventAdapter;
+import io.perfana.eventscheduler.api.SchedulerExceptionType;
+import io.perfana.eventscheduler.api.config.EventContext;
+import io.perfana.eventscheduler.exception.handler.KillSwitchException;
+import io.perfana.eventscheduler.exception.handler.StopTestRunException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SimulationDriverTest {
+
+    private static class RecordingEvent extends EventAdapter<EventContext> {
+        private final List<String> received = new CopyOnWriteArrayList<>();
+        private final int killAtKeepAlive;
+
+        RecordingEvent(int killAtKeepAlive) {
+            super(null, null, null, null);
+            this.killAtKeepAlive = killAtKeepAlive;
+        }
+
+        @Override
+        public String getName() {
+            return "recording";
+        }
+
+        @Override
+        public void keepAlive() {
+            received.add("keepAlive");
+            if (received.stream().filter("keepAlive"::equals).count() == killAtKeepAlive) {
+                throw new KillSwitchException("kill from event");
+            }
+        }
+
+        @Override
+        public void customEvent(CustomEvent customEvent) {
+            received.add(customEvent.getName());
+        }
+    }
+
+    private static class StoppingEvent extends EventAdapter<EventContext> {
+        private final String name;
+        private final int stopFromKeepAlive;
+        private int keepAlives;
+
+        StoppingEvent(String name, int stopFromKeepAlive) {
+            super(null, null, null, null);
+            this.name = name;
+            this.stopFromKeepAlive = stopFromKeepAlive;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void keepAlive() {
+            if (++keepAlives >= stopFromKeepAlive) {
+                throw new StopTestRunException("stop from " + name);
+            }
+        }
+    }
+
+    private final AtomicReference<SchedulerExceptionType> exceptionType = new AtomicReference<>(SchedulerExceptionType.NONE);
+
+    private SimulationDriver driver(VirtualClock clock, String scheduleScript, RecordingEvent event) {
+        return new SimulationDriver(clock, ScheduleScripts.parse(scheduleScript), Duration.ofSeconds(30),
+                Collections.singletonList(event), Collections.emptySet(), exceptionType::get, new SystemStreamLog());
+    }
+
+    @Test
+    public void twoHourSoakTestInJumps() {
+        RecordingEvent event = new RecordingEvent(0);
+        SimulationDriver driver = driver(VirtualClock.jumping(new SchedulerSignal()),
+                "PT1H|restart|server=1\nPT10M|scale-up|replicas=2\nPT3H|too-late|", event);
+
+        long start = System.nanoTime();
+        SchedulerWaitLoop.Outcome outcome = driver.run(Duration.ofHours(2), 60);
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(SchedulerWaitLoop.Outcome.TIMEOUT, outcome);
+        assertTrue("simulation took " + durationMillis + " ms", durationMillis < 1000);
+        // 2 hours plus 1 minute of slack: 242 keep-alives, custom event after the end is not fired
+        assertEquals(242 + 2, event.received.size());
+        assertEquals("keepAlive", event.received.get(0));
+        // keep-alive 20 is at 10 minutes, before the custom event at the same time
+        assertEquals("keepAlive", event.received.get(19));
+        assertEquals("scale-up", event.received.get(20));
+        assertEquals("restart", event.received.get(121));
+        assertFalse(event.received.contains("too-late"));
+    }
+
+    @Test
+    public void customEventInSlackIsFired() {
+        RecordingEvent event = new RecordingEvent(0);
+        SimulationDriver driver = driver(VirtualClock.jumping(new SchedulerSignal()), "PT70S|in-slack|\nPT100S|after-slack|", event);
+
+        // the end is the same as in the timeline of the validator, see SchedulerWaitLoop.sessionDuration
+        assertEquals(SchedulerWaitLoop.Outcome.TIMEOUT, driver.run(Duration.ofMinutes(1), 30));
+        assertTrue(event.received.contains("in-slack"));
+        assertFalse(event.received.contains("after-slack"));
+    }
+
+    @Test
+    public void speedUp() {
+        RecordingEvent event = new RecordingEvent(0);
+        // one minute at 600 times speed up takes 100 ms
+        SimulationDriver driver = driver(new VirtualClock(600, new SchedulerSignal()), "PT45S|half-way|", event);
+
+        long start = System.nanoTime();
+        SchedulerWaitLoop.Outcome outcome = driver.run(Duration.ofMinutes(1), 0);
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(SchedulerWaitLoop.Outcome.TIMEOUT, outcome);
+        assertTrue("simulation too fast: " + durationMillis + " ms", durationMillis >= 90);
+        assertTrue("simulation too slow: " + durationMillis + " ms", durationMillis < 1000);
+        assertEquals(3, event.received.size());
+        assertEquals("half-way", event.received.get(1));
+    }
+
+    @Test
+    public void killFromEvent() {
+        RecordingEvent event = new RecordingEvent(3);
+        SimulationDriver driver = driver(VirtualClock.jumping(new SchedulerSignal()), null, event);
+
+        assertEquals(SchedulerWaitLoop.Outcome.KILL, driver.run(Duration.ofHours(1), 0));
+        assertEquals(3, event.received.size());
+    }
+
+    @Test
+    public void failingEventDoesNotKeepOthersFromFiring() {
+        RecordingEvent recording = new RecordingEvent(0);
+        EventAdapter<EventContext> stopping = new EventAdapter<EventContext>(null, null, null, null) {
+            private int keepAlives;
+
+            @Override
+            public String getName() {
+                return "stopping";
+            }
+
+            @Override
+            public void keepAlive() {
+                if (++keepAlives == 2) {
+                    throw new StopTestRunException("stop from event");
+                }
+                throw new IllegalStateException("keep-alive failed");
+            }
+        };
+        // the failing event goes first, the recording event still gets each keep-alive
+        SimulationDriver driver = new SimulationDriver(VirtualClock.jumping(new SchedulerSignal()), ScheduleScripts.parse(null), Duration.ofSeconds(30),
+                Arrays.asList(stopping, recording), Collections.singleton("stopping"), exceptionType::get, new SystemStreamLog());
+
+        assertEquals(SchedulerWaitLoop.Outcome.STOP, driver.run(Duration.ofHours(1), 0));
+        assertEquals(Arrays.asList("keepAlive", "keepAlive"), recording.received);
+    }
+
+    @Test
+    public void stopWhenAllKeepAliveParticipantsAskedToStop() {
+        RecordingEvent recording = new RecordingEvent(0);
+        List<EventAdapter<EventContext>> events = Arrays.asList(
+                new StoppingEvent("not-a-participant", 1), new StoppingEvent("participant-1", 2), new StoppingEvent("participant-2", 4), recording);
+        SimulationDriver driver = new SimulationDriver(VirtualClock.jumping(new SchedulerSignal()), ScheduleScripts.parse(null), Duration.ofSeconds(30),
+                events, new HashSet<>(Arrays.asList("participant-1", "participant-2")), exceptionType::get, new SystemStreamLog());
+
+        assertEquals(SchedulerWaitLoop.Outcome.STOP, driver.run(Duration.ofHours(1), 0));
+        assertEquals("stops after the last participant asked", 4, recording.received.size());
+    }
+
+    @Test
+    public void stopRequested() {
+        RecordingEvent event = new RecordingEvent(0);
+        exceptionType.set(SchedulerExceptionType.STOP);
+        SimulationDriver driver = driver(VirtualClock.jumping(new SchedulerSignal()), null, event);
+
+        assertEquals(SchedulerWaitLoop.Outcome.STOP, driver.run(Duration.ofHours(1), 0));
+        assertTrue(event.received.isEmpty());
+    }
+
+}
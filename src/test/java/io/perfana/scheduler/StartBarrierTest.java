@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import io.perfana.eventscheduler.api.Event;
+import io.perfana.eventscheduler.api.EventAdapter;
+import io.perfana.eventscheduler.api.SchedulerExceptionType;
+import io.perfana.eventscheduler.api.config.EventContext;
+import io.perfana.eventscheduler.exception.EventSchedulerRuntimeException;
+import io.perfana.eventscheduler.exception.handler.AbortSchedulerException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * The processes of a start barrier are played by threads, each with its own barrier instance.
+ */
+public class StartBarrierTest {
+
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private static final String TOKEN = "run-42";
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final List<StartBarrier> barriers = new ArrayList<>();
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("start-barrier-test");
+    }
+
+    @After
+    public void cleanUp() throws IOException {
+        barriers.forEach(StartBarrier::close);
+        executor.shutdownNow();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void tcpReleasesAllAtTheSameInstant() throws Exception {
+        TcpStartBarrier coordinator = add(TcpStartBarrier.coordinator("127.0.0.1", 0, TOKEN, "coordinator", 3, TIMEOUT_MILLIS, new SystemStreamLog()));
+        StartBarrier participant1 = add(TcpStartBarrier.participant("127.0.0.1", coordinator.getPort(), TOKEN, "participant-1", 3, TIMEOUT_MILLIS, new SystemStreamLog()));
+        StartBarrier participant2 = add(TcpStartBarrier.participant("127.0.0.1", coordinator.getPort(), TOKEN, "participant-2", 3, TIMEOUT_MILLIS, new SystemStreamLog()));
+
+        assertReleasedTogether(coordinator, participant1, participant2);
+    }
+
+    @Test
+    public void directoryReleasesAllAtTheSameInstant() throws Exception {
+        // participants that start before the coordinator wait for it
+        StartBarrier participant1 = add(DirectoryStartBarrier.participant(directory.toFile(), "participant-1", 3, TIMEOUT_MILLIS, new SystemStreamLog()));
+        Future<Long> early = executor.submit(participant1::arriveAndAwaitStart);
+        Thread.sleep(200);
+        assertFalse(early.isDone());
+
+        StartBarrier coordinator = add(DirectoryStartBarrier.coordinator(directory.toFile(), "coordinator", 3, TIMEOUT_MILLIS, new SystemStreamLog()));
+        StartBarrier participant2 = add(DirectoryStartBarrier.participant(directory.toFile(), "participant-2", 3, TIMEOUT_MILLIS, new SystemStreamLog()));
+        Future<Long> coordinatorStart = executor.submit(coordinator::arriveAndAwaitStart);
+        Future<Long> participant2Start = executor.submit(participant2::arriveAndAwaitStart);
+
+        long startMillis = coordinatorStart.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertEquals(startMillis, (long) early.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(startMillis, (long) participant2Start.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(System.currentTimeMillis() >= startMillis);
+    }
+
+    @Test
+    public void directoryParticipantIgnoresOpenFileOfCrashedCoordinator() throws Exception {
+        // open files left behind by a coordinator that crashed a minute ago and one that crashed just now
+        long[] heartbeats = { System.currentTimeMillis() - 60_000, System.currentTimeMillis() };
+        for (long heartbeat : heartbeats) {
+            Files.write(directory.resolve("open"), ("crashed-run\n" + heartbeat).getBytes(StandardCharsets.UTF_8));
+
+            StartBarrier participant = add(DirectoryStartBarrier.participant(directory.toFile(), "participant-1", 2, TIMEOUT_MILLIS, new SystemStreamLog()));
+            Future<Long> participantStart = executor.submit(participant::arriveAndAwaitStart);
+            Thread.sleep(300);
+            assertFalse(participantStart.isDone());
+
+            StartBarrier coordinator = add(DirectoryStartBarrier.coordinator(directory.toFile(), "coordinator", 2, TIMEOUT_MILLIS, new SystemStreamLog()));
+            long startMillis = executor.submit(coordinator::arriveAndAwaitStart).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            assertEquals(startMillis, (long) participantStart.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            coordinator.close();
+        }
+    }
+
+    @Test
+    public void tcpSignalIsBroadcastToAll() throws Exception {
+        TcpStartBarrier coordinator = add(TcpStartBarrier.coordinator("127.0.0.1", 0, TOKEN, "coordinator", 3, TIMEOUT_MILLIS, new SystemStreamLog()));
+        StartBarrier participant1 = add(TcpStartBarrier.participant("127.0.0.1", coordinator.getPort(), TOKEN, "participant-1", 3, TIMEOUT_MILLIS, new SystemStreamLog()));
+        StartBarrier participant2 = add(TcpStartBarrier.participant("127.0.0.1", coordinator.getPort(), TOKEN, "participant-2", 3, TIMEOUT_MILLIS, new SystemStreamLog()));
+
+        assertSignalBroadcast(coordinator, participant1, participant2);
+    }
+
+    @Test
+    public void directorySignalIsBroadcastToAll() throws Exception {
+        StartBarrier coordinator = add(DirectoryStartBarrier.coordinator(directory.toFile(), "coordinator", 3, TIMEOUT_MILLIS, new SystemStreamLog()));
+        StartBarrier participant1 = add(DirectoryStartBarrier.participant(directory.toFile(), "participant-1", 3, TIMEOUT_MILLIS, new SystemStreamLog()));
+        StartBarrier participant2 = add(DirectoryStartBarrier.participant(directory.toFile(), "participant-2", 3, TIMEOUT_MILLIS, new SystemStreamLog()));
+
+        assertSignalBroadcast(coordinator, participant1, participant2);
+    }
+
+    @Test
+    public void tcpDropsConnectionsWithoutRunToken() throws Exception {
+        TcpStartBarrier coordinator = add(TcpStartBarrier.coordinator("127.0.0.1", 0, TOKEN, "coordinator", 2, TIMEOUT_MILLIS, new SystemStreamLog()));
+        BlockingQueue<SchedulerExceptionType> received = new LinkedBlockingQueue<>();
+        coordinator.onSignal(received::add);
+
+        for (String hello : new String[] { "", "HELLO other-run\n" }) {
+            try (Socket intruder = new Socket("127.0.0.1", coordinator.getPort())) {
+                intruder.setSoTimeout(5000);
+                intruder.getOutputStream().write((hello + "ARRIVE intruder\nSIGNAL KILL\n").getBytes(StandardCharsets.UTF_8));
+                intruder.getOutputStream().flush();
+                assertEquals("connection should be closed by the coordinator", -1, intruder.getInputStream().read());
+            }
+        }
+        assertNull(received.poll(300, TimeUnit.MILLISECONDS));
+
+        // the intruder did not arrive: the barrier releases with the real participant only
+        StartBarrier participant = add(TcpStartBarrier.participant("127.0.0.1", coordinator.getPort(), TOKEN, "participant-1", 2, TIMEOUT_MILLIS, new SystemStreamLog()));
+        assertReleasedTogether(coordinator, participant);
+    }
+
+    @Test
+    public void tcpCountsDistinctParticipantsThatStayConnected() throws Exception {
+        TcpStartBarrier coordinator = add(TcpStartBarrier.coordinator("127.0.0.1", 0, TOKEN, "coordinator", 3, TIMEOUT_MILLIS, new SystemStreamLog()));
+        Future<Long> coordinatorStart = executor.submit(coordinator::arriveAndAwaitStart);
+
+        // a participant that arrives twice counts once, and not at all once its connection drops
+        try (Socket repeater = new Socket("127.0.0.1", coordinator.getPort())) {
+            repeater.getOutputStream().write(("HELLO " + TOKEN + "\nARRIVE participant-1\nARRIVE participant-1\n").getBytes(StandardCharsets.UTF_8));
+            repeater.getOutputStream().flush();
+            Thread.sleep(300);
+            assertFalse("participant counted twice", coordinatorStart.isDone());
+        }
+        StartBarrier participant2 = add(TcpStartBarrier.participant("127.0.0.1", coordinator.getPort(), TOKEN, "participant-2", 3, TIMEOUT_MILLIS, new SystemStreamLog()));
+        Future<Long> participant2Start = executor.submit(participant2::arriveAndAwaitStart);
+        Thread.sleep(300);
+        assertFalse("dropped participant still counted", coordinatorStart.isDone());
+
+        StartBarrier participant1 = add(TcpStartBarrier.participant("127.0.0.1", coordinator.getPort(), TOKEN, "participant-1", 3, TIMEOUT_MILLIS, new SystemStreamLog()));
+        long startMillis = executor.submit(participant1::arriveAndAwaitStart).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertEquals(startMillis, (long) coordinatorStart.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(startMillis, (long) participant2Start.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void directoryCoordinatorRemovesOnlyBarrierFiles() throws Exception {
+        String[] barrierFiles = { "open", "arrived-old-run-participant-1", "start-old-run", "signal-old-run-KILL-coordinator", ".start-old-run.42" };
+        String[] otherFiles = { "results.csv", ".keep", "opening-notes.txt" };
+        for (String name : barrierFiles) {
+            Files.write(directory.resolve(name), "old-run\n0".getBytes(StandardCharsets.UTF_8));
+        }
+        for (String name : otherFiles) {
+            Files.write(directory.resolve(name), "not ours".getBytes(StandardCharsets.UTF_8));
+        }
+
+        add(DirectoryStartBarrier.coordinator(directory.toFile(), "coordinator", 2, TIMEOUT_MILLIS, new SystemStreamLog()));
+
+        for (String name : barrierFiles) {
+            if (!name.equals("open")) {
+                assertFalse(name + " of an earlier run", Files.exists(directory.resolve(name)));
+            }
+        }
+        assertFalse("open file of an earlier run", new String(Files.readAllBytes(directory.resolve("open")), StandardCharsets.UTF_8).startsWith("old-run"));
+        for (String name : otherFiles) {
+            assertTrue(name + " is not a barrier file", Files.exists(directory.resolve(name)));
+        }
+    }
+
+    @Test
+    public void tcpCoordinatorRefusesWildcardAddressAndMissingToken() {
+        for (String host : new String[] { "0.0.0.0", "::" }) {
+            try {
+                add(TcpStartBarrier.coordinator(host, 0, TOKEN, "coordinator", 2, TIMEOUT_MILLIS, new SystemStreamLog()));
+                fail("expected wildcard address refused: " + host);
+            } catch (EventSchedulerRuntimeException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("wildcard"));
+            }
+        }
+        try {
+            add(TcpStartBarrier.coordinator("127.0.0.1", 0, null, "coordinator", 2, TIMEOUT_MILLIS, new SystemStreamLog()));
+            fail("expected missing token refused");
+        } catch (EventSchedulerRuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("token"));
+        }
+    }
+
+    @Test
+    public void timeoutWhenNotAllPartiesArrive() {
+        StartBarrier coordinator = add(TcpStartBarrier.coordinator("127.0.0.1", 0, TOKEN, "coordinator", 2, 300, new SystemStreamLog()));
+        long start = System.nanoTime();
+        try {
+            coordinator.arriveAndAwaitStart();
+            fail("expected timeout");
+        } catch (EventSchedulerRuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("timeout"));
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+    }
+
+    @Test
+    public void failedBarrierPreventsStartTest() {
+        // no coordinator: the participant times out at the barrier
+        StartBarrier participant = add(DirectoryStartBarrier.participant(directory.toFile(), "participant-1", 2, 300, new SystemStreamLog()));
+        SchedulerSession session = SchedulerSession.open(SessionFeatures.builder().startBarrier(participant).build());
+        try {
+            AtomicInteger startTests = new AtomicInteger();
+            Event event = new EventAdapter<EventContext>(null, null, null, null) {
+                @Override
+                public void startTest() {
+                    startTests.incrementAndGet();
+                }
+            };
+            Event spy = new EventSchedulerStartTestListener(null, null, null, new MavenEventLogger(new SystemStreamLog(), false), session);
+
+            // as the event scheduler starts a session: the spy is the last event
+            List<Event> events = Arrays.asList(event, spy);
+            try {
+                events.forEach(Event::beforeTest);
+                events.forEach(Event::startTest);
+                fail("expected abort at the start barrier");
+            } catch (AbortSchedulerException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("Start barrier failed"));
+            }
+
+            assertEquals(0, startTests.get());
+            assertTrue(session.isStartCancelled());
+            assertFalse(session.isStartWaiting());
+            assertEquals(SchedulerExceptionType.ABORT, session.getSchedulerExceptionType());
+
+            // a late startTest of the spy does not start the wait time
+            spy.startTest();
+            assertFalse(session.isStartWaiting());
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void abortCancelsWaitingParticipants() throws Exception {
+        TcpStartBarrier coordinator = add(TcpStartBarrier.coordinator("127.0.0.1", 0, TOKEN, "coordinator", 3, TIMEOUT_MILLIS, new SystemStreamLog()));
+        StartBarrier participant = add(TcpStartBarrier.participant("127.0.0.1", coordinator.getPort(), TOKEN, "participant-1", 3, TIMEOUT_MILLIS, new SystemStreamLog()));
+        Future<Long> waiting = executor.submit(participant::arriveAndAwaitStart);
+        Thread.sleep(300);
+
+        coordinator.broadcast(SchedulerExceptionType.ABORT);
+        try {
+            waiting.get(5, TimeUnit.SECONDS);
+            fail("expected cancelled barrier");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("cancelled"));
+        }
+    }
+
+    @Test
+    public void parseAddress() {
+        assertEquals("injector-1", TcpStartBarrier.parseAddress("injector-1:9876").getHostString());
+        assertEquals(9876, TcpStartBarrier.parseAddress("injector-1:9876").getPort());
+        for (String invalid : new String[] { "injector-1", ":9876", "injector-1:port", "injector-1:99999" }) {
+            try {
+                TcpStartBarrier.parseAddress(invalid);
+                fail("expected invalid address: " + invalid);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private void assertReleasedTogether(StartBarrier... parties) throws Exception {
+        List<Future<Long>> starts = new ArrayList<>();
+        for (StartBarrier party : parties) {
+            starts.add(executor.submit(party::arriveAndAwaitStart));
+        }
+        long startMillis = starts.get(0).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        for (Future<Long> start : starts) {
+            assertEquals(startMillis, (long) start.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+        assertTrue(System.currentTimeMillis() >= startMillis);
+    }
+
+    private void assertSignalBroadcast(StartBarrier coordinator, StartBarrier participant1, StartBarrier participant2) throws Exception {
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        coordinator.onSignal(type -> received.add("coordinator " + type));
+        participant1.onSignal(type -> received.add("participant-1 " + type));
+        participant2.onSignal(type -> received.add("participant-2 " + type));
+        assertReleasedTogether(coordinator, participant1, participant2);
+
+        participant1.broadcast(SchedulerExceptionType.STOP);
+        List<String> signals = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            String signal = received.poll(5, TimeUnit.SECONDS);
+            assertNotNull("signal not received, got " + signals, signal);
+            signals.add(signal);
+        }
+        assertTrue(signals.toString(), signals.contains("coordinator STOP"));
+        assertTrue(signals.toString(), signals.contains("participant-2 STOP"));
+
+        // a signal is broadcast once, also when it comes back
+        participant2.broadcast(SchedulerExceptionType.STOP);
+        assertNull(received.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    private <T extends StartBarrier> T add(T barrier) {
+        barriers.add(barrier);
+        return barrier;
+    }
+}
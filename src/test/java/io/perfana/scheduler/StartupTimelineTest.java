@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StartupTimelineTest {
+
+    @Test
+    public void phasesFollowEachOther() throws Exception {
+        StartupTimeline timeline = new StartupTimeline(System.nanoTime());
+        Thread.sleep(20);
+        timeline.mark("first");
+        Thread.sleep(10);
+        timeline.mark("second");
+
+        List<StartupTimeline.Phase> phases = timeline.getPhases();
+        assertEquals(2, phases.size());
+        assertEquals("first", phases.get(0).name);
+        assertEquals(0, phases.get(0).startNanos);
+        assertTrue(phases.get(0).durationNanos >= 20_000_000);
+        assertEquals(phases.get(0).durationNanos, phases.get(1).startNanos);
+        assertEquals(phases.get(0).durationNanos + phases.get(1).durationNanos, timeline.getTotalNanos());
+    }
+
+    @Test
+    public void slowestEventConstructionFirst() {
+        StartupTimeline timeline = new StartupTimeline(System.nanoTime());
+        timeline.eventConstructed("fast", 1_000, false);
+        timeline.eventConstructed("slow", 5_000_000, true);
+
+        assertEquals("slow", timeline.getEventConstructions().get(0).eventName);
+        assertEquals("fast", timeline.getEventConstructions().get(1).eventName);
+    }
+
+    @Test
+    public void json() {
+        StartupTimeline timeline = new StartupTimeline(System.nanoTime());
+        timeline.mark("build \"scheduler\"");
+        timeline.eventConstructed("event1", 2_500_000, true);
+
+        String json = StartupTimelineReport.toJson(timeline);
+        assertTrue(json, json.contains("\"phase\": \"build \\\"scheduler\\\"\""));
+        assertTrue(json, json.contains("{ \"event\": \"event1\", \"durationMillis\": 2.500, \"lazy\": true }"));
+    }
+
+}
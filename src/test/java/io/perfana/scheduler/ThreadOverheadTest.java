@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2020 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.scheduler;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ThreadOverheadTest {
+
+    @Test
+    public void categoryOfThreadNames() {
+        assertEquals(ThreadOverhead.Category.KEEP_ALIVE, ThreadOverhead.categoryOf("Keep-Alive-Thread"));
+        assertEquals(ThreadOverhead.Category.CUSTOM_EVENT, ThreadOverhead.categoryOf("Custom-Event-Thread-3"));
+        assertEquals(ThreadOverhead.Category.CUSTOM_EVENT, ThreadOverhead.categoryOf("Custom-Event-Dispatch-Thread-1"));
+        assertEquals(ThreadOverhead.Category.LOGGER, ThreadOverhead.categoryOf("Event-Logger-Thread"));
+        assertEquals(ThreadOverhead.Category.LOGGER, ThreadOverhead.categoryOf("Event-Journal-Thread"));
+        assertEquals(ThreadOverhead.Category.PLUGIN, ThreadOverhead.categoryOf("Event-Broadcast-Thread-2"));
+        assertEquals(ThreadOverhead.Category.PLUGIN, ThreadOverhead.categoryOf("Incremental-Check-Thread"));
+        assertNull(ThreadOverhead.categoryOf("main"));
+        assertNull(ThreadOverhead.categoryOf(null));
+    }
+
+    @Test
+    public void accountShortLivedThreadsInTestWindow() throws Exception {
+        if (!ThreadOverhead.isSupported()) {
+            return;
+        }
+        ThreadOverhead overhead = new ThreadOverhead(TimeUnit.MILLISECONDS.toNanos(10), new SystemStreamLog());
+        overhead.start(System.nanoTime());
+
+        Thread customEvent = new Thread(ThreadOverheadTest::busyWork, "Custom-Event-Thread-1");
+        Thread other = new Thread(ThreadOverheadTest::busyWork, "not-a-plugin-thread");
+        customEvent.start();
+        other.start();
+        customEvent.join();
+        other.join();
+        // the custom event thread has ended: counted up to its last sample
+        TimeUnit.MILLISECONDS.sleep(50);
+        overhead.stop();
+
+        Map<ThreadOverhead.Category, ThreadOverhead.Usage> usage = overhead.getUsage();
+        ThreadOverhead.Usage customEvents = usage.get(ThreadOverhead.Category.CUSTOM_EVENT);
+        assertNotNull(usage.toString(), customEvents);
+        assertEquals(1, customEvents.threads);
+        assertTrue(customEvents.toString(), customEvents.cpuNanos > 0);
+        assertTrue(customEvents.toString(), customEvents.allocatedBytes > 0);
+        assertTrue("sample thread is plugin overhead", usage.containsKey(ThreadOverhead.Category.PLUGIN));
+        assertTrue(overhead.getWindowNanos() > 0);
+        assertTrue(overhead.isMeasured());
+        assertTrue(overhead.toJson(), overhead.toJson().contains("\"category\": \"custom-event\", \"threads\": 1"));
+
+        long cpuNanos = overhead.getTotal().cpuNanos;
+        overhead.stop();
+        assertEquals("stop only once", cpuNanos, overhead.getTotal().cpuNanos);
+    }
+
+    @Test
+    public void windowCountsFromStartTest() {
+        if (!ThreadOverhead.isSupported()) {
+            return;
+        }
+        ThreadOverhead overhead = new ThreadOverhead(TimeUnit.MILLISECONDS.toNanos(10), new SystemStreamLog());
+        // start test was a second ago, e.g. when a slow listener came first
+        overhead.start(System.nanoTime() - TimeUnit.SECONDS.toNanos(1));
+        overhead.stop();
+        assertTrue(String.valueOf(overhead.getWindowNanos()), overhead.getWindowNanos() >= TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void notMeasuredWithoutStartTest() {
+        ThreadOverhead overhead = new ThreadOverhead(TimeUnit.MILLISECONDS.toNanos(10), new SystemStreamLog());
+        overhead.stop();
+        overhead.start(System.nanoTime());
+        assertFalse(overhead.isMeasured());
+        assertTrue(overhead.getUsage().isEmpty());
+    }
+
+    private static void busyWork() {
+        long endNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        StringBuilder garbage = new StringBuilder();
+        while (System.nanoTime() < endNanos) {
+            garbage.append(System.nanoTime());
+            if (garbage.length() > 10_000) {
+                garbage = new StringBuilder();
+            }
+        }
+    }
+}